@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the days rolling out of the forecast window end up in the archive, that they can
+    be read back by range, and that compaction and the storage report do what they say.  The
+    archive is written through ContentResolver.call(), so these only run on Honeycomb and up.
+ */
+public class TestArchive extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int PAST_DAYS = 40;
+
+    private ContentResolver mResolver;
+    private long mLocationId;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        // The days before today, with a different high each
+        ContentValues[] values = new ContentValues[PAST_DAYS];
+        for (int i = 0; i < PAST_DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, getPastDay(i));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 10.25 + i);
+        }
+        assertEquals(PAST_DAYS, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    // Day i of the past days, oldest first
+    private long getPastDay(int i) {
+        return WeatherContract.normalizeDate(mToday - (PAST_DAYS - i) * DAY_IN_MILLIS);
+    }
+
+    private Cursor queryArchive(long start, long end) {
+        return mResolver.query(ArchiveEntry.buildArchiveLocationWithRange(
+                TestUtilities.TEST_LOCATION, start, end), null, null, null, null);
+    }
+
+    private int countStoredDays() {
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testPurgedDaysAreArchived() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Bundle counts = WeatherEntry.replaceForecastWindow(mResolver, mLocationId,
+                new ForecastBatch(), mToday);
+        assertEquals(PAST_DAYS, counts.getInt(WeatherContract.EXTRA_PURGED));
+        assertEquals(0, countStoredDays());
+
+        Cursor cursor = queryArchive(0, mToday);
+        assertEquals(PAST_DAYS, cursor.getCount());
+        int date = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        int high = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        int weatherId = cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(getPastDay(i), cursor.getLong(date));
+            // Temperatures are kept in tenths of a degree
+            assertEquals(10.25 + i, cursor.getDouble(high), 0.05);
+            assertEquals(321, cursor.getInt(weatherId));
+        }
+        cursor.close();
+
+        // Only the last ten days, and only two columns
+        cursor = mResolver.query(ArchiveEntry.buildArchiveLocationWithRange(
+                TestUtilities.TEST_LOCATION, getPastDay(PAST_DAYS - 10), mToday),
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, null);
+        assertEquals(10, cursor.getCount());
+        assertEquals(2, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(getPastDay(PAST_DAYS - 10), cursor.getLong(0));
+        cursor.close();
+
+        // Days archived again replace the ones from before
+        ContentValues value = TestUtilities.createWeatherValues(mLocationId);
+        value.put(WeatherEntry.COLUMN_DATE, getPastDay(0));
+        value.put(WeatherEntry.COLUMN_MAX_TEMP, 42);
+        mResolver.insert(WeatherEntry.CONTENT_URI, value);
+        WeatherEntry.replaceForecastWindow(mResolver, mLocationId, new ForecastBatch(), mToday);
+        cursor = queryArchive(0, mToday);
+        assertEquals(PAST_DAYS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(42, cursor.getDouble(high), 0.05);
+        cursor.close();
+    }
+
+    public void testStorageReport() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherEntry.replaceForecastWindow(mResolver, mLocationId, new ForecastBatch(), mToday);
+
+        Cursor cursor = mResolver.query(ArchiveEntry.CONTENT_URI, null, null, null, null);
+        int setting = cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING);
+        int days = cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS);
+        int bytes = cursor.getColumnIndex(ArchiveEntry.COLUMN_BYTES);
+        int totalDays = 0;
+        int totalBytes = 0;
+        // One row per year the past days fall in
+        assertTrue(cursor.getCount() >= 1 && cursor.getCount() <= 2);
+        while (cursor.moveToNext()) {
+            assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(setting));
+            totalDays += cursor.getInt(days);
+            totalBytes += cursor.getInt(bytes);
+        }
+        cursor.close();
+        assertEquals(PAST_DAYS, totalDays);
+        assertTrue(totalBytes + " bytes", totalBytes > 0 && totalBytes < PAST_DAYS * 16);
+    }
+
+    public void testCompaction() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // The past days of a location no sync replaces the forecast of any more
+        Bundle counts = ArchiveEntry.compact(mResolver, mToday,
+                mToday - 365 * DAY_IN_MILLIS);
+        assertEquals(PAST_DAYS, counts.getInt(WeatherContract.EXTRA_ARCHIVED));
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_DROPPED));
+        assertEquals(0, countStoredDays());
+
+        // Keeping only this month's days drops the one or two months before it
+        counts = ArchiveEntry.compact(mResolver, mToday, mToday);
+        assertEquals(0, counts.getInt(WeatherContract.EXTRA_ARCHIVED));
+        assertTrue(counts.getInt(WeatherContract.EXTRA_DROPPED) >= 1);
+        Cursor cursor = queryArchive(0, Long.MAX_VALUE);
+        while (cursor.moveToNext()) {
+            assertEquals(ArchiveBlock.getMonth(mToday), ArchiveBlock.getMonth(cursor.getLong(0)));
+        }
+        cursor.close();
+    }
+
+    public void testDeletedLocationTakesItsArchive() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherEntry.replaceForecastWindow(mResolver, mLocationId, new ForecastBatch(), mToday);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        Cursor cursor = mResolver.query(ArchiveEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // Nor does a new location get it
+        long locationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        assertEquals(mLocationId, locationId);
+        cursor = queryArchive(0, Long.MAX_VALUE);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the compiled-statement insert path writes the same rows as the per-row
+    ContentValues path it replaced, and compares how fast they are.  testBenchmarkBulkInsert
+    only logs its numbers, it doesn't assert on them.
+ */
+public class TestBulkInsert extends AndroidTestCase {
+    private static final String LOG_TAG = TestBulkInsert.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.delete(LocationEntry.TABLE_NAME, null, null);
+        mLocationId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(mLocationId != -1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.delete(LocationEntry.TABLE_NAME, null, null);
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private static ForecastBatch createBatch(int rows) {
+        ForecastBatch batch = new ForecastBatch(rows);
+        for (int i = 0; i < rows; i++) {
+            batch.append();
+            batch.dates[i] = TestUtilities.TEST_DATE * 1000 + i * DAY_IN_MILLIS;
+            batch.high[i] = 20.5 + i % 10;
+            batch.low[i] = 5.25 - i % 10;
+            batch.humidity[i] = 40 + i % 60;
+            batch.pressure[i] = 1000 + i % 30;
+            batch.windSpeed[i] = 1.5 + i % 20;
+            batch.windDirection[i] = i % 360;
+            batch.weatherId[i] = 800 + i % 4;
+            batch.description[i] = i % 2 == 0 ? "Clear" : "Clouds";
+        }
+        return batch;
+    }
+
+    // What WeatherProvider.bulkInsert did before the compiled statement
+    private int insertPerRow(ContentValues[] values) {
+        mDb.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                if (mDb.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private Cursor queryAll() {
+        return mDb.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    public void testSameRowsAsPerRowInsert() {
+        ForecastBatch batch = createBatch(14);
+        ContentValues[] expected = batch.toContentValues(mLocationId);
+        assertEquals(14, insertPerRow(expected));
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+        // Through the provider, as the sync adapter does it
+        assertEquals(14, WeatherEntry.bulkInsert(
+                mContext.getContentResolver(), mLocationId, batch));
+        Cursor cursor = queryAll();
+        assertEquals(14, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("Batch row " + i, cursor, expected[i]);
+        }
+        cursor.close();
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+        assertEquals(14, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.CONTENT_URI, batch.toContentValues(mLocationId)));
+        cursor = queryAll();
+        assertEquals(14, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("ContentValues row " + i, cursor, expected[i]);
+        }
+        cursor.close();
+    }
+
+    public void testRowsWithOtherColumnsStillInsert() {
+        ContentValues[] values = createBatch(2).toContentValues(mLocationId);
+        values[1].put(WeatherEntry._ID, 4242);
+        WeatherInserter inserter = new WeatherInserter();
+        assertEquals(2, inserter.insertWeather(mDb, values));
+        inserter.close();
+
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, null, WeatherEntry._ID + " = 4242",
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBenchmarkBulkInsert() {
+        WeatherInserter inserter = new WeatherInserter();
+        for (int rows : new int[]{14, 1000, 100000}) {
+            ForecastBatch batch = createBatch(rows);
+
+            ContentValues[] values = batch.toContentValues(mLocationId);
+            long start = SystemClock.elapsedRealtime();
+            assertEquals(rows, insertPerRow(values));
+            long perRowMillis = SystemClock.elapsedRealtime() - start;
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            values = batch.toContentValues(mLocationId);
+            start = SystemClock.elapsedRealtime();
+            assertEquals(rows, inserter.insertWeather(mDb, values));
+            long compiledMillis = SystemClock.elapsedRealtime() - start;
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            start = SystemClock.elapsedRealtime();
+            assertEquals(rows, inserter.insertWeather(mDb, mLocationId, batch));
+            long batchMillis = SystemClock.elapsedRealtime() - start;
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            Log.i(LOG_TAG, rows + " rows: per-row insert " + rowsPerSecond(rows, perRowMillis)
+                    + " rows/s, compiled ContentValues " + rowsPerSecond(rows, compiledMillis)
+                    + " rows/s, compiled batch " + rowsPerSecond(rows, batchMillis) + " rows/s");
+        }
+        inserter.close();
+    }
+
+    private static long rowsPerSecond(int rows, long millis) {
+        return rows * 1000L / Math.max(1, millis);
+    }
+}
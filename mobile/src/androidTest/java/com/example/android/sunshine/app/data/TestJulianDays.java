@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.TimeZone;
+
+/*
+    Checks that JulianDays gives the same days as android.text.format.Time on the device, and
+    compares how long normalizing a date takes either way.  testBenchmarkNormalizeDate only logs
+    its numbers, it doesn't assert on them.
+ */
+public class TestJulianDays extends AndroidTestCase {
+    private static final String LOG_TAG = TestJulianDays.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+    private static final long START = 1420070400000L;  // January 1st, 2015 UTC
+    private static final int DAYS = 2 * 365;
+    private static final int NORMALIZATIONS = 100000;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        JulianDays.reset();
+        super.tearDown();
+    }
+
+    // What WeatherContract.normalizeDate did before JulianDays
+    private static long normalizeWithTime(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    public void testMatchesTime() {
+        for (String id : new String[]{"America/Los_Angeles", "Europe/London", "Australia/Sydney",
+                "Australia/Lord_Howe", "Asia/Kathmandu"}) {
+            TimeZone.setDefault(TimeZone.getTimeZone(id));
+            JulianDays.reset();
+            Time time = new Time();
+            for (long date = START; date < START + DAYS * 24 * HOUR_IN_MILLIS;
+                 date += HOUR_IN_MILLIS) {
+                time.set(date);
+                int julianDay = Time.getJulianDay(date, time.gmtoff);
+                assertEquals(id + " " + date, julianDay, JulianDays.getJulianDay(date));
+                assertEquals(id + " " + date, time.setJulianDay(julianDay),
+                        JulianDays.getDayStart(julianDay));
+            }
+        }
+    }
+
+    public void testBenchmarkNormalizeDate() {
+        // Two weeks of the forecast over and over, as a sync would store them
+        long checksum = 0;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < NORMALIZATIONS; i++) {
+            checksum += normalizeWithTime(START + (i % 14) * 24 * HOUR_IN_MILLIS);
+        }
+        long timeMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < NORMALIZATIONS; i++) {
+            checksum -= JulianDays.normalizeDate(START + (i % 14) * 24 * HOUR_IN_MILLIS);
+        }
+        long julianDaysMillis = SystemClock.elapsedRealtime() - start;
+
+        // Today, as the list and the widgets ask for it
+        long now = System.currentTimeMillis();
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < NORMALIZATIONS; i++) {
+            checksum += JulianDays.normalizeDate(now);
+        }
+        long todayMillis = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(NORMALIZATIONS * JulianDays.normalizeDate(now), checksum);
+        Log.i(LOG_TAG, NORMALIZATIONS + " dates normalized: Time " + timeMillis
+                + " ms, JulianDays " + julianDaysMillis + " ms, JulianDays for today "
+                + todayMillis + " ms");
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the database maintenance analyzes after large changes only, that an idle run
+    gives the free pages back and checks the database, and that every run can be read back
+    through MaintenanceEntry.CONTENT_URI.  Also that the jobs which start it are set up.
+ */
+public class TestMaintenance extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    // Enough rows for ANALYZE to run again
+    private static final int DAYS = 2 * WeatherMaintenance.ANALYZE_MIN_CHANGED_ROWS;
+
+    private ContentResolver mResolver;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private void insertDays() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+        }
+        assertEquals(DAYS, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    private static long pragma(String name, SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + name, null);
+    }
+
+    public void testChangedEnough() {
+        assertFalse(WeatherMaintenance.hasChangedEnough(0, 0));
+        assertFalse(WeatherMaintenance.hasChangedEnough(0,
+                WeatherMaintenance.ANALYZE_MIN_CHANGED_ROWS - 1));
+        assertTrue(WeatherMaintenance.hasChangedEnough(0,
+                WeatherMaintenance.ANALYZE_MIN_CHANGED_ROWS));
+        // A big table needs a quarter of its rows to change
+        assertFalse(WeatherMaintenance.hasChangedEnough(1000, 1100));
+        assertTrue(WeatherMaintenance.hasChangedEnough(1000, 1250));
+        assertTrue(WeatherMaintenance.hasChangedEnough(1000, 750));
+    }
+
+    public void testAnalyzesAfterLargeChangesOnly() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // Whatever the tests before left, analyzed or not
+        MaintenanceEntry.run(mResolver, false);
+        Bundle run = MaintenanceEntry.run(mResolver, false);
+        assertEquals("Nothing changed, so nothing to analyze",
+                0, run.getInt(MaintenanceEntry.COLUMN_ANALYZED));
+
+        insertDays();
+        run = MaintenanceEntry.run(mResolver, false);
+        assertEquals(1, run.getInt(MaintenanceEntry.COLUMN_ANALYZED));
+        assertEquals(0, run.getInt(MaintenanceEntry.COLUMN_IDLE));
+        assertNull("Only an idle run checks the database",
+                run.getString(MaintenanceEntry.COLUMN_INTEGRITY));
+    }
+
+    public void testIdleRunVacuumsAndChecks() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        insertDays();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+
+        Bundle run = MaintenanceEntry.run(mResolver, true);
+        assertEquals(1, run.getInt(MaintenanceEntry.COLUMN_IDLE));
+        assertEquals("ok", run.getString(MaintenanceEntry.COLUMN_INTEGRITY));
+        assertEquals("The free pages should have been given back",
+                0, run.getLong(MaintenanceEntry.COLUMN_FREE_PAGES));
+        assertTrue(run.getLong(MaintenanceEntry.COLUMN_FILE_SIZE) > 0);
+
+        // Incremental from now on, so the next idle run doesn't have to rebuild the file
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        try {
+            assertEquals(2, pragma("auto_vacuum", db));
+        } finally {
+            db.close();
+        }
+
+        insertDays();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        run = MaintenanceEntry.run(mResolver, true);
+        assertEquals(0, run.getLong(MaintenanceEntry.COLUMN_FREE_PAGES));
+    }
+
+    public void testRunsAreRecorded() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long before = System.currentTimeMillis();
+        for (int i = 0; i < WeatherMaintenance.MAX_RUNS + 1; i++) {
+            MaintenanceEntry.run(mResolver, false);
+        }
+        Bundle last = MaintenanceEntry.run(mResolver, false);
+
+        Cursor cursor = mResolver.query(MaintenanceEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Only the most recent runs should be kept",
+                WeatherMaintenance.MAX_RUNS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        // Newest first
+        assertEquals(last.getLong(MaintenanceEntry.COLUMN_STARTED),
+                cursor.getLong(cursor.getColumnIndex(MaintenanceEntry.COLUMN_STARTED)));
+        assertTrue(cursor.getLong(cursor.getColumnIndex(MaintenanceEntry.COLUMN_STARTED))
+                >= before);
+        assertEquals(last.getLong(MaintenanceEntry.COLUMN_PAGE_COUNT),
+                cursor.getLong(cursor.getColumnIndex(MaintenanceEntry.COLUMN_PAGE_COUNT)));
+        assertTrue(cursor.getLong(cursor.getColumnIndex(MaintenanceEntry.COLUMN_FILE_SIZE)) > 0);
+        assertTrue(cursor.getLong(cursor.getColumnIndex(MaintenanceEntry.COLUMN_PAGE_SIZE)) > 0);
+        assertTrue(cursor.getLong(cursor.getColumnIndex(MaintenanceEntry.COLUMN_DURATION)) >= 0);
+        cursor.close();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void testScheduleSetsUpBothJobs() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler jobScheduler =
+                (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        MaintenanceScheduler.schedule(mContext);
+        // Again, which must leave them as they are
+        MaintenanceScheduler.schedule(mContext);
+
+        JobInfo daily = null;
+        JobInfo idle = null;
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == MaintenanceScheduler.JOB_ID_DAILY) {
+                daily = job;
+            } else if (job.getId() == MaintenanceScheduler.JOB_ID_IDLE) {
+                idle = job;
+            }
+        }
+        assertNotNull(daily);
+        assertTrue(daily.isPeriodic());
+        assertFalse(daily.isRequireDeviceIdle());
+        assertNotNull(idle);
+        assertTrue(idle.isRequireCharging());
+        assertTrue(idle.isRequireDeviceIdle());
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Builds populated databases the way the first release of the schema (version 2) left them
+    and upgrades them, step by step and through WeatherDbHelper.  The time each step takes on
+    the large one is logged.
+ */
+public class TestMigrations extends AndroidTestCase {
+    private static final String LOG_TAG = TestMigrations.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // The schema at version 2, as it shipped.  Don't change these when the schema changes.
+    private static final String V2_CREATE_LOCATION =
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                    + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );";
+    private static final String V2_CREATE_WEATHER =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+                    + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  "
+                    + "FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                    + "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private SQLiteDatabase openRaw() {
+        return SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+    }
+
+    // A version 2 database with the given number of locations, each with a forecast of days
+    private void createVersion2Database(int locations, int days) {
+        SQLiteDatabase db = openRaw();
+        db.execSQL(V2_CREATE_LOCATION);
+        db.execSQL(V2_CREATE_WEATHER);
+        SQLiteStatement insertLocation = db.compileStatement(
+                "INSERT INTO location (location_setting, city_name, coord_lat, coord_long) "
+                        + "VALUES (?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement(
+                "INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, "
+                        + "humidity, pressure, wind, degrees) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int location = 0; location < locations; location++) {
+                insertLocation.bindString(1, "location " + location);
+                insertLocation.bindString(2, "City " + location);
+                insertLocation.bindDouble(3, location);
+                insertLocation.bindDouble(4, -location);
+                long locationId = insertLocation.executeInsert();
+                for (int day = 0; day < days; day++) {
+                    insertWeather.bindLong(1, locationId);
+                    insertWeather.bindLong(2, TestUtilities.TEST_DATE * 1000 + day * DAY_IN_MILLIS);
+                    insertWeather.bindString(3, "Asteroids");
+                    insertWeather.bindLong(4, 321);
+                    insertWeather.bindDouble(5, 65 - day % 10);
+                    insertWeather.bindDouble(6, 75 + day % 10);
+                    insertWeather.bindDouble(7, 1.2);
+                    insertWeather.bindDouble(8, 1.3);
+                    insertWeather.bindDouble(9, 5.5);
+                    insertWeather.bindDouble(10, 1.1);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        insertLocation.close();
+        insertWeather.close();
+        db.setVersion(2);
+        db.close();
+    }
+
+    private static void assertRowsKept(SQLiteDatabase db, int locations, int days) {
+        assertEquals(locations, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals(locations * days, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE * 1000 + DAY_IN_MILLIS)},
+                null, null, null);
+        assertEquals(locations, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Asteroids",
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(76.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        cursor.close();
+    }
+
+    // Every table and index with its columns, in a form that can be compared
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master WHERE type IN "
+                + "('table', 'index') AND name NOT IN ('android_metadata', 'sqlite_sequence') "
+                + "AND name NOT LIKE 'sqlite_stat%' ORDER BY name", null);
+        while (objects.moveToNext()) {
+            String type = objects.getString(0);
+            String name = objects.getString(1);
+            StringBuilder description = new StringBuilder(type).append(' ').append(name);
+            Cursor columns = db.rawQuery("PRAGMA " + ("table".equals(type)
+                    ? "table_info" : "index_info") + "(" + name + ")", null);
+            while (columns.moveToNext()) {
+                description.append(" |");
+                for (int i = 0; i < columns.getColumnCount(); i++) {
+                    description.append(' ').append(columns.getString(i));
+                }
+            }
+            columns.close();
+            schema.add(description.toString());
+        }
+        objects.close();
+        return schema;
+    }
+
+    public void testEachStepKeepsRows() {
+        final int locations = 10;
+        final int days = 10000;
+        createVersion2Database(locations, days);
+
+        SQLiteDatabase db = openRaw();
+        for (int version = 2; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                WeatherMigrations.migrate(db, version, version + 1);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Version " + version + " to " + (version + 1) + " with "
+                    + locations * days + " weather rows took "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            assertRowsKept(db, locations, days);
+        }
+        db.close();
+    }
+
+    public void testUpgradeThroughHelper() {
+        createVersion2Database(3, 14);
+
+        long start = SystemClock.elapsedRealtime();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Log.i(LOG_TAG, "Opening a version 2 database took "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertRowsKept(db, 3, 14);
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, HourlyEntry.TABLE_NAME));
+        dbHelper.close();
+    }
+
+    public void testSameSchemaAsNewDatabase() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        List<String> expected = describeSchema(dbHelper.getWritableDatabase());
+        dbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        createVersion2Database(1, 1);
+        dbHelper = new WeatherDbHelper(mContext);
+        assertEquals(expected, describeSchema(dbHelper.getWritableDatabase()));
+        dbHelper.close();
+    }
+
+    public void testOlderVersionStartsOver() {
+        assertFalse(WeatherMigrations.canMigrate(1, WeatherDbHelper.DATABASE_VERSION));
+        assertTrue(WeatherMigrations.canMigrate(
+                WeatherMigrations.OLDEST_VERSION, WeatherDbHelper.DATABASE_VERSION));
+
+        SQLiteDatabase db = openRaw();
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, date INTEGER)");
+        db.execSQL("INSERT INTO weather (date) VALUES (1)");
+        db.setVersion(1);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        db.query(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_LOC_KEY},
+                null, null, null, null, null).close();
+        dbHelper.close();
+    }
+}
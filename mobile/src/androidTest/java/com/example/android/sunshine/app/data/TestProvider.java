@@ -16,20 +16,30 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +66,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -81,6 +96,16 @@ public class TestProvider extends AndroidTestCase {
         );
         assertEquals("Error: Records not deleted from Location table during delete", 0, cursor.getCount());
         cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Records not deleted from Hourly table during delete", 0, cursor.getCount());
+        cursor.close();
     }
 
     /*
@@ -160,6 +185,34 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/hourly/94074
+        type = mContext.getContentResolver().getType(
+                HourlyEntry.buildHourlyLocation(testLocation));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/hourly
+        assertEquals("Error: the HourlyEntry CONTENT_URI with location should return HourlyEntry.CONTENT_TYPE",
+                HourlyEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/archive/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.ArchiveEntry.buildArchiveLocation(testLocation));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/archive
+        assertEquals("Error: the ArchiveEntry CONTENT_URI with location should return ArchiveEntry.CONTENT_TYPE",
+                WeatherContract.ArchiveEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/summary/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.SummaryEntry.buildSummaryLocation(testLocation));
+        // vnd.android.cursor.item/com.example.android.sunshine.app/summary
+        assertEquals("Error: the SummaryEntry CONTENT_URI with location should return SummaryEntry.CONTENT_ITEM_TYPE",
+                WeatherContract.SummaryEntry.CONTENT_ITEM_TYPE, type);
+
+        // content://com.example.android.sunshine.app/maintenance
+        type = mContext.getContentResolver().getType(
+                WeatherContract.MaintenanceEntry.CONTENT_URI);
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/maintenance
+        assertEquals("Error: the MaintenanceEntry CONTENT_URI should return MaintenanceEntry.CONTENT_TYPE",
+                WeatherContract.MaintenanceEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +565,349 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // The sync adapter stores each location's forecast with applyBatch, which must be all or
+    // nothing and notify observers once the transaction is done.
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        // Fails once the inserts above have run, so the whole batch has to be rolled back
+        operations.add(ContentProviderOperation.newAssertQuery(WeatherEntry.CONTENT_URI)
+                .withExpectedCount(0).build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("The assertion at the end of the batch should have failed");
+        } catch (OperationApplicationException expected) {
+        }
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("A failed batch must not leave any rows behind", 0, cursor.getCount());
+        cursor.close();
+
+        operations.remove(operations.size() - 1);
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // Remembers every URI it was notified for, in order
+    static class RecordingObserver extends ContentObserver {
+        final List<Uri> mUris = new ArrayList<Uri>();
+
+        RecordingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            synchronized (mUris) {
+                mUris.add(uri);
+            }
+        }
+
+        // Waits for the given URI, then returns everything that came before it
+        List<Uri> waitFor(final Uri last) {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    synchronized (mUris) {
+                        return mUris.contains(last);
+                    }
+                }
+            }.run();
+            synchronized (mUris) {
+                return new ArrayList<Uri>(mUris.subList(0, mUris.indexOf(last)));
+            }
+        }
+    }
+
+    public void testScopedNotifications() throws Exception {
+        // The URI an observer was notified for only reaches it from Jelly Bean on
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        long northPoleId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherValues = TestUtilities.createNorthPoleLocationValues();
+        otherValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "10001");
+        long otherId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherValues));
+        Uri northPole = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri otherDay = WeatherEntry.buildWeatherLocationWithDate("10001", TestUtilities.TEST_DATE);
+
+        RecordingObserver observer = new RecordingObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, observer);
+        int notificationsBefore = WeatherContract.getNotificationCount(
+                mContext.getContentResolver());
+
+        // Several days of one location are one notification for the location
+        ContentValues[] northPoleDays = createBulkInsertWeatherValues(northPoleId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, northPoleDays);
+        // A single day is just that day
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(otherId));
+        // A batch is sent once it committed, one URI per location
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : Arrays.asList(northPoleDays[0], northPoleDays[1],
+                TestUtilities.createWeatherValues(otherId), northPoleDays[2])) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(4, WeatherContract.getNotificationCount(mContext.getContentResolver())
+                - notificationsBefore);
+        // Notifications to one observer arrive in the order they were sent
+        Uri fence = WeatherEntry.buildWeatherLocation("fence");
+        mContext.getContentResolver().notifyChange(fence, null);
+        assertEquals(Arrays.asList(northPole, otherDay, northPole, otherDay),
+                observer.waitFor(fence));
+        mContext.getContentResolver().unregisterContentObserver(observer);
+    }
+
+    private double queryMaxTemp(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        double maxTemp = cursor.getDouble(1);
+        cursor.close();
+        return maxTemp;
+    }
+
+    public void testQueryResultCache() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] days = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        Bundle before = WeatherContract.getQueryCacheStats(mContext.getContentResolver());
+        assertEquals(75.0, queryMaxTemp(forecastUri));
+        assertEquals(75.0, queryMaxTemp(forecastUri));
+        assertEquals(75.0, queryMaxTemp(dayUri));
+        Bundle after = WeatherContract.getQueryCacheStats(mContext.getContentResolver());
+        assertEquals(1, after.getInt(WeatherContract.EXTRA_HITS)
+                - before.getInt(WeatherContract.EXTRA_HITS));
+        assertEquals(2, after.getInt(WeatherContract.EXTRA_MISSES)
+                - before.getInt(WeatherContract.EXTRA_MISSES));
+        assertTrue(after.getInt(WeatherContract.EXTRA_BYTES) > 0);
+
+        // A changed day has to show in both, not the rows from before it
+        ContentValues changed = new ContentValues(days[0]);
+        changed.put(WeatherEntry.COLUMN_MAX_TEMP, 90);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, changed);
+        assertEquals(90.0, queryMaxTemp(forecastUri));
+        assertEquals(90.0, queryMaxTemp(dayUri));
+
+        // So does a change the provider can't narrow down
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values, null, null);
+        assertEquals(100.0, queryMaxTemp(forecastUri));
+        assertEquals(100.0, queryMaxTemp(dayUri));
+    }
+
+    // Yesterday and the day before are dropped, today is updated in place, tomorrow is new
+    public void testReplaceForecastWindow() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        final long dayInMillis = 1000 * 60 * 60 * 24;
+
+        ContentValues[] stored = new ContentValues[3];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = TestUtilities.createWeatherValues(locationRowId);
+            stored[i].put(WeatherEntry.COLUMN_DATE, today - (2 - i) * dayInMillis);
+        }
+        assertEquals(3, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, stored));
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(today)}, null);
+        assertTrue(cursor.moveToFirst());
+        long todayRowId = cursor.getLong(0);
+        cursor.close();
+
+        ForecastBatch batch = new ForecastBatch();
+        for (int i = 0; i < 2; i++) {
+            int day = batch.append();
+            batch.dates[day] = today + i * dayInMillis;
+            batch.high[day] = 80 + i;
+            batch.low[day] = 60;
+            batch.humidity[day] = 50;
+            batch.pressure[day] = 1010;
+            batch.windSpeed[day] = 2;
+            batch.windDirection[day] = 90;
+            batch.weatherId[day] = 500;
+            batch.description[day] = "Rain";
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, weatherObserver);
+        Bundle counts = WeatherEntry.replaceForecastWindow(mContext.getContentResolver(),
+                locationRowId, batch, System.currentTimeMillis());
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_INSERTED));
+        assertEquals(1, counts.getInt(WeatherContract.EXTRA_UPDATED));
+        assertEquals(2, counts.getInt(WeatherContract.EXTRA_PURGED));
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID, WeatherEntry.COLUMN_DATE,
+                        WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            assertEquals("Today should keep its row", todayRowId, cursor.getLong(0));
+        }
+        assertEquals(today, cursor.getLong(1));
+        assertEquals(80.0, cursor.getDouble(2));
+        assertEquals("Rain", cursor.getString(3));
+        cursor.close();
+    }
+
+    private int countLocations(long locationId) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)}, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testUpsertLocation() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = LocationEntry.upsert(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, "North Pole", 64.7488, -147.353);
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        TestUtilities.validateCursor("testUpsertLocation", cursor, testValues);
+
+        // A stored location comes back as it is, and isn't inserted twice
+        assertEquals(locationRowId, LocationEntry.upsert(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, null, 0, 0));
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // Deleting locations makes the provider forget their ids
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        locationRowId = LocationEntry.upsert(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, "North Pole", 64.7488, -147.353);
+        assertEquals(1, countLocations(locationRowId));
+
+        // So does rolling back a batch that inserted one
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(testValues).build());
+        operations.add(ContentProviderOperation.newAssertQuery(LocationEntry.CONTENT_URI)
+                .withExpectedCount(0).build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("The assertion at the end of the batch should have failed");
+        } catch (OperationApplicationException expected) {
+        }
+        locationRowId = LocationEntry.upsert(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, "North Pole", 64.7488, -147.353);
+        assertEquals(1, countLocations(locationRowId));
+    }
+
+    // A week of 3-hourly points for two locations: range queries only see one location's
+    // points in the range, retention drops the old ones for everybody.
+    public void testHourly() {
+        long northPoleId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "Elsewhere");
+        long otherId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+
+        final int points = 7 * 8;
+        final long step = 3 * 60 * 60;
+        long start = TestUtilities.TEST_DATE;
+        ContentValues[] values = new ContentValues[2 * points];
+        for (int i = 0; i < points; i++) {
+            long packed = HourlyEntry.pack(800, i, 50, 1000, 1, 0);
+            values[i] = createHourlyValues(northPoleId, start + i * step, packed);
+            values[points + i] = createHourlyValues(otherId, start + i * step, packed);
+        }
+
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        Uri northPoleUri = HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION);
+        mContext.getContentResolver().registerContentObserver(northPoleUri, true, hourlyObserver);
+        assertEquals(2 * points,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, values));
+        hourlyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+
+        // The same points again replace the stored ones instead of adding to them
+        values[0].put(HourlyEntry.COLUMN_PACKED, HourlyEntry.pack(500, -3, 90, 990, 5, 180));
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, values);
+
+        // One day for the North Pole
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        start * 1000, (start + 8 * step) * 1000),
+                null, null, null, null);
+        assertEquals(8, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(start, cursor.getLong(cursor.getColumnIndex(HourlyEntry.COLUMN_TIME)));
+        assertEquals(500, HourlyEntry.getWeatherId(
+                cursor.getLong(cursor.getColumnIndex(HourlyEntry.COLUMN_PACKED))));
+        cursor.moveToLast();
+        assertEquals(start + 7 * step,
+                cursor.getLong(cursor.getColumnIndex(HourlyEntry.COLUMN_TIME)));
+        cursor.close();
+
+        // Keep the last two days
+        long keepFrom = start + (points - 16) * step;
+        assertEquals(2 * (points - 16), mContext.getContentResolver().delete(
+                HourlyEntry.buildHourlyRetentionUri(keepFrom * 1000), null, null));
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals(16, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(keepFrom, cursor.getLong(cursor.getColumnIndex(HourlyEntry.COLUMN_TIME)));
+        cursor.close();
+
+        // Dropping a location's range leaves the other location alone
+        assertEquals(16, mContext.getContentResolver().delete(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), null, null));
+        cursor = mContext.getContentResolver().query(HourlyEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(16, cursor.getCount());
+        cursor.close();
+    }
+
+    static ContentValues createHourlyValues(long locationRowId, long time, long packed) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(HourlyEntry.COLUMN_TIME, time);
+        values.put(HourlyEntry.COLUMN_PACKED, packed);
+        return values;
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Measures the time from a new WeatherProvider to the first row of the forecast list, as on a
+    cold start, with the database opened by the first query and with it prewarmed by onCreate().
+    testBenchmarkTimeToFirstRow only logs its numbers, it doesn't assert on them.
+ */
+public class TestProviderPrewarm extends AndroidTestCase {
+    private static final String LOG_TAG = TestProviderPrewarm.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int DAYS = 14;
+    private static final int ROUNDS = 10;
+    private static final long PREWARM_TIMEOUT_MILLIS = 10 * 1000L;
+
+    // What ForecastFragment's loader asks for
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // The provider as it was before the prewarm: the first query opens the database
+    private static class ColdWeatherProvider extends WeatherProvider {
+        @Override
+        void startPrewarm() {
+        }
+    }
+
+    private ContentResolver mResolver;
+    private String mPreferredLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        TestUtilities.deleteAllRecords(mContext);
+        long locationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+        }
+        assertEquals(DAYS, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+
+        // The prewarm reads the preferred location
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_location_key);
+        mPreferredLocation = prefs.getString(key, null);
+        prefs.edit().putString(key, TestUtilities.TEST_LOCATION).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String key = mContext.getString(R.string.pref_location_key);
+        if (mPreferredLocation != null) {
+            editor.putString(key, mPreferredLocation);
+        } else {
+            editor.remove(key);
+        }
+        editor.commit();
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private WeatherProvider createProvider(boolean prewarm) {
+        WeatherProvider provider = prewarm ? new WeatherProvider() : new ColdWeatherProvider();
+        // Calls onCreate()
+        provider.attachInfo(mContext, null);
+        return provider;
+    }
+
+    private static void closeProvider(WeatherProvider provider) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            provider.shutdown();
+        }
+    }
+
+    // The forecast list's query, timed until its first row is there
+    private static long timeFirstRow(WeatherProvider provider) {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                System.currentTimeMillis());
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = provider.query(uri, FORECAST_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            return SystemClock.elapsedRealtime() - start;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testPrewarmOpensTheDatabase() throws InterruptedException {
+        WeatherProvider provider = createProvider(true);
+        try {
+            assertTrue("The prewarm didn't finish",
+                    provider.awaitPrewarm(PREWARM_TIMEOUT_MILLIS));
+            Cursor cursor = provider.query(WeatherEntry.buildWeatherLocationWithStartDate(
+                    TestUtilities.TEST_LOCATION, System.currentTimeMillis()), FORECAST_COLUMNS,
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals(DAYS, cursor.getCount());
+            cursor.close();
+        } finally {
+            closeProvider(provider);
+        }
+    }
+
+    public void testBenchmarkTimeToFirstRow() throws InterruptedException {
+        long coldMillis = 0;
+        long prewarmMillis = 0;
+        long warmMillis = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            WeatherProvider provider = createProvider(false);
+            try {
+                coldMillis += timeFirstRow(provider);
+            } finally {
+                closeProvider(provider);
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            provider = createProvider(true);
+            try {
+                // As if the app took at least this long to get to its loader
+                assertTrue(provider.awaitPrewarm(PREWARM_TIMEOUT_MILLIS));
+                prewarmMillis += SystemClock.elapsedRealtime() - start;
+                warmMillis += timeFirstRow(provider);
+            } finally {
+                closeProvider(provider);
+            }
+        }
+        Log.i(LOG_TAG, "Time to the first forecast row over " + ROUNDS + " cold starts: "
+                + coldMillis + " ms opening on the first query, " + warmMillis
+                + " ms after a prewarm of " + prewarmMillis + " ms");
+    }
+}
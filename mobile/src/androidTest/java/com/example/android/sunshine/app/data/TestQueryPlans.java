@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries the app makes and checks that they are answered from
+    an index.  The projections are copies of the ones in the fragments and the sync adapter; if
+    one of those changes, change it here too.  The widgets, Muzei and the notification read
+    through WeatherDataClient, whose query is the provider's own.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String WEATHER_ID = WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID;
+
+    // ForecastFragment
+    private static final String[] FORECAST_COLUMNS = {
+            WEATHER_ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // DetailFragment
+    private static final String[] DETAIL_COLUMNS = {
+            WEATHER_ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    // The detail column of each row of the plan, e.g. "SEARCH TABLE weather USING INDEX ..."
+    private List<String> explain(String sql, String... args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detail = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detail));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    private List<String> explainJoin(String[] projection, String selection, String sortOrder) {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, selection, null, null, sortOrder, null);
+        return explain(sql, "99705", "1419033600000");
+    }
+
+    private static void assertNoScan(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Table scan in " + plan, step.startsWith("SCAN"));
+            assertFalse("Sort in " + plan, step.contains("TEMP B-TREE"));
+        }
+    }
+
+    private static void assertUsesIndex(List<String> plan, String table, String index) {
+        for (String step : plan) {
+            if (step.matches("SEARCH (TABLE )?" + table + " .*")) {
+                assertTrue("Expected " + index + " in " + plan, step.contains(index));
+                return;
+            }
+        }
+        fail("No search of " + table + " in " + plan);
+    }
+
+    public void testForecastList() {
+        List<String> plan = explainJoin(FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, DATE_ASC);
+        assertNoScan(plan);
+        assertUsesIndex(plan, WeatherEntry.TABLE_NAME,
+                "COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+    }
+
+    public void testWeatherDataClient() {
+        // The widgets, Muzei and the notification, by location id with no join
+        List<String> plan = explain(SQLiteQueryBuilder.buildQueryString(false,
+                WeatherEntry.TABLE_NAME, WeatherDataClient.FORECAST_COLUMNS,
+                WeatherProvider.sLocationIdWithStartDateSelection, null, null, DATE_ASC, "1"),
+                "1", "1419033600000");
+        assertNoScan(plan);
+        assertUsesIndex(plan, WeatherEntry.TABLE_NAME,
+                "COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+    }
+
+    public void testSingleDay() {
+        // DetailFragment and the detail widget's click-through look up one day, which the
+        // UNIQUE (date, location_id) index answers directly
+        List<String> plan = explainJoin(DETAIL_COLUMNS,
+                WeatherProvider.sLocationSettingAndDaySelection, null);
+        assertNoScan(plan);
+        assertUsesIndex(plan, WeatherEntry.TABLE_NAME, "INDEX");
+    }
+
+    public void testSyncQueries() {
+        // ForecastDiff reads back the stored days the new forecast covers
+        List<String> plan = explain("SELECT " + WeatherEntry._ID + ", " + WeatherEntry.COLUMN_DATE
+                + " FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                + WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?",
+                "1", "1419033600000", "1420243200000");
+        assertNoScan(plan);
+        assertUsesIndex(plan, WeatherEntry.TABLE_NAME, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+
+        // Old days are dropped for every location at once
+        plan = explain("DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherEntry.COLUMN_DATE + " <= ?", "1419033600000");
+        assertNoScan(plan);
+
+        // The 3-hourly range query
+        plan = explain(SQLiteQueryBuilder.buildQueryString(false, HourlyEntry.TABLE_NAME,
+                new String[]{HourlyEntry.COLUMN_TIME, HourlyEntry.COLUMN_PACKED},
+                WeatherProvider.sHourlyLocationSettingWithRangeSelection, null, null,
+                HourlyEntry.COLUMN_TIME + " ASC", null), "99705", "1419033600", "1419465600");
+        assertNoScan(plan);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/*
+    Reads the forecast the way ForecastFragment does while a large bulk insert runs on another
+    thread, and checks the reads neither wait for the insert's transaction nor see half of it.
+    The latencies are logged.
+ */
+public class TestWalContention extends AndroidTestCase {
+    private static final String LOG_TAG = TestWalContention.class.getSimpleName();
+
+    private static final int WRITE_ROWS = 20000;
+    private static final int MAX_READS = 10000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLogEnabled() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        assertTrue(WeatherContract.checkpoint(mContext.getContentResolver()));
+        db.close();
+    }
+
+    public void testReadersDontWaitForWriter() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        final ContentResolver resolver = mContext.getContentResolver();
+        long locationId = ContentUris.parseId(resolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+
+        // Two weeks already stored, and the writer adds a lot more behind them
+        final ContentValues[] stored = new ContentValues[14];
+        final ContentValues[] values = new ContentValues[WRITE_ROWS];
+        long firstDate = System.currentTimeMillis();
+        for (int i = 0; i < stored.length + values.length; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, firstDate + i * DAY_IN_MILLIS);
+            if (i < stored.length) {
+                stored[i] = weatherValues;
+            } else {
+                values[i - stored.length] = weatherValues;
+            }
+        }
+        assertEquals(stored.length, resolver.bulkInsert(WeatherEntry.CONTENT_URI, stored));
+
+        final long[] writeMillis = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                resolver.bulkInsert(WeatherEntry.CONTENT_URI, values);
+                writeMillis[0] = SystemClock.elapsedRealtime() - start;
+            }
+        });
+
+        long[] latencies = new long[MAX_READS];
+        int reads = 0;
+        writer.start();
+        while (writer.isAlive() && reads < MAX_READS) {
+            // A first day further back each time, which matches the same rows but isn't in
+            // the provider's query result cache, so every read goes to the database
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = resolver.query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(
+                            TestUtilities.TEST_LOCATION, firstDate - reads * DAY_IN_MILLIS),
+                    FORECAST_COLUMNS, null, null, null);
+            int count = cursor.getCount();
+            cursor.close();
+            latencies[reads++] = SystemClock.elapsedRealtime() - start;
+            assertTrue("A reader saw " + count + " rows of an unfinished insert",
+                    count == stored.length || count == stored.length + values.length);
+        }
+        writer.join();
+
+        Arrays.sort(latencies, 0, reads);
+        long median = reads > 0 ? latencies[reads / 2] : 0;
+        long max = reads > 0 ? latencies[reads - 1] : 0;
+        Log.i(LOG_TAG, reads + " reads during a " + writeMillis[0] + " ms insert of "
+                + WRITE_ROWS + " rows: median " + median + " ms, max " + max + " ms");
+
+        // Behind a rollback journal the first read would have waited out the whole insert
+        assertTrue("Only " + reads + " reads during the insert", reads > 1);
+        assertTrue("A read took " + max + " ms of a " + writeMillis[0] + " ms insert",
+                max < writeMillis[0] / 2);
+    }
+}
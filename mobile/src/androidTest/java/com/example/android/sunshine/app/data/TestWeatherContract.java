@@ -42,4 +42,25 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testPackHourly() {
+        long packed = WeatherContract.HourlyEntry.pack(802, -12.34, 87, 1013.27, 7.26, 359.6);
+        assertEquals(802, WeatherContract.HourlyEntry.getWeatherId(packed));
+        assertEquals(-12.3, WeatherContract.HourlyEntry.getTemperature(packed), 0.001);
+        assertEquals(87, WeatherContract.HourlyEntry.getHumidity(packed));
+        assertEquals(1013.3, WeatherContract.HourlyEntry.getPressure(packed), 0.001);
+        assertEquals(7.3, WeatherContract.HourlyEntry.getWindSpeed(packed), 0.001);
+        assertEquals("360 degrees is north again",
+                0.0, WeatherContract.HourlyEntry.getDegrees(packed));
+        assertTrue("Packed values must stay positive to be stored compactly", packed > 0);
+
+        // Values out of range are clamped rather than spilling into the next field
+        packed = WeatherContract.HourlyEntry.pack(800, 150, 100, 1500, -1, 90);
+        assertEquals(800, WeatherContract.HourlyEntry.getWeatherId(packed));
+        assertEquals(102.3, WeatherContract.HourlyEntry.getTemperature(packed), 0.001);
+        assertEquals(100, WeatherContract.HourlyEntry.getHumidity(packed));
+        assertEquals(1209.5, WeatherContract.HourlyEntry.getPressure(packed), 0.001);
+        assertEquals(0.0, WeatherContract.HourlyEntry.getWindSpeed(packed));
+        assertEquals(90.0, WeatherContract.HourlyEntry.getDegrees(packed));
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that WeatherDataClient returns the same forecast as a query, and compares how long
+    the widgets take to read it either way.  testBenchmarkReads only logs its numbers, it
+    doesn't assert on them.
+ */
+public class TestWeatherDataClient extends AndroidTestCase {
+    private static final String LOG_TAG = TestWeatherDataClient.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int DAYS = 14;
+    private static final int READS = 1000;
+
+    // What DetailWidgetRemoteViewsService read before WeatherDataClient
+    private static final String[] WIDGET_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private ContentResolver mResolver;
+    private long mFirstDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        TestUtilities.deleteAllRecords(mContext);
+        long locationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mFirstDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mFirstDate + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75.5 + i);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+        }
+        assertEquals(DAYS, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private Cursor queryForecast(long startDate) {
+        return mResolver.query(WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, startDate), WIDGET_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    public void testSameForecastAsQuery() {
+        WeatherDataClient.Forecast forecast = new WeatherDataClient(mContext).getForecast(
+                TestUtilities.TEST_LOCATION, mFirstDate + DAY_IN_MILLIS, 0);
+        Cursor cursor = queryForecast(mFirstDate + DAY_IN_MILLIS);
+        assertEquals(DAYS - 1, forecast.count);
+        assertEquals(cursor.getCount(), forecast.count);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(cursor.getLong(1), forecast.dates[i]);
+            assertEquals(cursor.getInt(2), forecast.weatherIds[i]);
+            assertEquals(cursor.getString(3), forecast.descriptions[i]);
+            assertEquals(cursor.getFloat(4), forecast.highs[i]);
+            assertEquals(cursor.getFloat(5), forecast.lows[i]);
+        }
+        cursor.close();
+    }
+
+    public void testLimitAndMissingDays() {
+        WeatherDataClient client = new WeatherDataClient(mContext);
+        WeatherDataClient.Forecast forecast =
+                client.getForecast(TestUtilities.TEST_LOCATION, mFirstDate, 1);
+        assertEquals(1, forecast.count);
+        assertEquals(mFirstDate, forecast.dates[0]);
+        assertEquals(800, forecast.weatherIds[0]);
+
+        forecast = client.getDay(TestUtilities.TEST_LOCATION, mFirstDate + 2 * DAY_IN_MILLIS);
+        assertEquals(1, forecast.count);
+        assertEquals(802, forecast.weatherIds[0]);
+
+        assertEquals(0, client.getDay(TestUtilities.TEST_LOCATION,
+                mFirstDate - DAY_IN_MILLIS).count);
+        assertEquals(0, client.getForecast(TestUtilities.TEST_LOCATION,
+                mFirstDate + DAYS * DAY_IN_MILLIS, 0).count);
+        assertEquals(0, client.getForecast("no such location", mFirstDate, 0).count);
+    }
+
+    // Reads every value of every row, the way the detail widget does
+    private static double readAll(Cursor cursor) {
+        double sum = 0;
+        int date = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        int weatherId = cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID);
+        int description = cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC);
+        int high = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        int low = cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP);
+        while (cursor.moveToNext()) {
+            sum += cursor.getLong(date) + cursor.getInt(weatherId)
+                    + cursor.getString(description).length()
+                    + cursor.getDouble(high) + cursor.getDouble(low);
+        }
+        cursor.close();
+        return sum;
+    }
+
+    private static double readAll(WeatherDataClient.Forecast forecast) {
+        double sum = 0;
+        for (int i = 0; i < forecast.count; i++) {
+            sum += forecast.dates[i] + forecast.weatherIds[i] + forecast.descriptions[i].length()
+                    + forecast.highs[i] + forecast.lows[i];
+        }
+        return sum;
+    }
+
+    public void testBenchmarkReads() {
+        WeatherDataClient client = new WeatherDataClient(mContext);
+
+        // The same query every time, which the provider answers from its query result cache
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < READS; i++) {
+            readAll(queryForecast(mFirstDate));
+        }
+        long cachedCursorMillis = SystemClock.elapsedRealtime() - start;
+
+        // A different first day every time, which goes to the database
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < READS; i++) {
+            readAll(queryForecast(mFirstDate - i * DAY_IN_MILLIS));
+        }
+        long cursorMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < READS; i++) {
+            readAll(client.getForecast(TestUtilities.TEST_LOCATION, mFirstDate, 0));
+        }
+        long clientMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(LOG_TAG, READS + " reads of " + DAYS + " days: cursor " + cursorMillis
+                + " ms, cursor from the query result cache " + cachedCursorMillis
+                + " ms, WeatherDataClient " + clientMillis + " ms");
+    }
+}
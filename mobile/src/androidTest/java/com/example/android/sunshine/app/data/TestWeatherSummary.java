@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the summary row of a location follows every kind of write to its forecast, and
+    that a summary written on an earlier day is worked out again when it is read.
+ */
+public class TestWeatherSummary extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int DAYS = 16;
+
+    //location_id = ? AND date = ?
+    private static final String sDaySelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private ContentResolver mResolver;
+    private WeatherDataClient mClient;
+    private long mLocationId;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mClient = new WeatherDataClient(mContext);
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        // Today and the days after it, each a degree warmer at the top and colder at the bottom
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, getDay(i));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 10 + i);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, -i);
+        }
+        assertEquals(DAYS, mResolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    // Day i from today, at noon before normalizing so a daylight saving change can't move it
+    private long getDay(int i) {
+        return WeatherContract.normalizeDate(mToday + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    private String[] getDaySelectionArgs(int i) {
+        return new String[]{Long.toString(mLocationId), Long.toString(getDay(i))};
+    }
+
+    public void testSummaryOfInsertedDays() {
+        WeatherDataClient.Summary summary = mClient.getSummary(TestUtilities.TEST_LOCATION);
+        assertNotNull(summary);
+        assertEquals(mToday, summary.date);
+        assertEquals(321, summary.weatherId);
+        assertEquals("Asteroids", summary.description);
+        assertEquals(10, summary.high, 0);
+        assertEquals(0, summary.low, 0);
+
+        assertTrue(summary.hasTomorrow);
+        assertEquals(11, summary.tomorrowHigh, 0);
+        assertEquals(-1, summary.tomorrowLow, 0);
+
+        assertEquals(16, summary.weekHigh, 0);
+        assertEquals(-6, summary.weekLow, 0);
+        assertEquals(23, summary.fortnightHigh, 0);
+        assertEquals(-13, summary.fortnightLow, 0);
+        assertEquals(WeatherSummary.FORTNIGHT_DAYS, summary.days);
+
+        // A location with nothing stored has no summary
+        Cursor cursor = mResolver.query(SummaryEntry.buildSummaryLocation("nowhere"),
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSummaryFollowsWrites() {
+        // Day 3 again, as the coldest of the week
+        mResolver.delete(WeatherEntry.CONTENT_URI, sDaySelection, getDaySelectionArgs(3));
+        ContentValues value = TestUtilities.createWeatherValues(mLocationId);
+        value.put(WeatherEntry.COLUMN_DATE, getDay(3));
+        value.put(WeatherEntry.COLUMN_MIN_TEMP, -40);
+        mResolver.insert(WeatherEntry.CONTENT_URI, value);
+        assertEquals(-40, mClient.getSummary(TestUtilities.TEST_LOCATION).weekLow, 0);
+
+        // Tomorrow, updated
+        ContentValues hot = new ContentValues();
+        hot.put(WeatherEntry.COLUMN_MAX_TEMP, 50);
+        assertEquals(1, mResolver.update(WeatherEntry.CONTENT_URI, hot, sDaySelection,
+                getDaySelectionArgs(1)));
+        WeatherDataClient.Summary summary = mClient.getSummary(TestUtilities.TEST_LOCATION);
+        assertEquals(50, summary.tomorrowHigh, 0);
+        assertEquals(50, summary.weekHigh, 0);
+
+        // Without today there's still a row, but nothing to show for today
+        mResolver.delete(WeatherEntry.CONTENT_URI, sDaySelection, getDaySelectionArgs(0));
+        assertNull(mClient.getSummary(TestUtilities.TEST_LOCATION));
+        // The widget and Muzei show tomorrow instead
+        summary = mClient.getSummaryOrFirstDay(TestUtilities.TEST_LOCATION);
+        assertEquals(getDay(1), summary.date);
+        assertEquals(50, summary.high, 0);
+        Cursor cursor = mResolver.query(
+                SummaryEntry.buildSummaryLocation(TestUtilities.TEST_LOCATION),
+                new String[]{SummaryEntry.COLUMN_DAYS, SummaryEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherSummary.FORTNIGHT_DAYS - 1, cursor.getInt(0));
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+
+        // Nor is there one once the forecast is gone
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = mResolver.query(SummaryEntry.buildSummaryLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSummaryFollowsReplacedWindow() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ForecastBatch batch = new ForecastBatch();
+        int day = batch.append();
+        batch.dates[day] = mToday;
+        batch.weatherId[day] = 800;
+        batch.description[day] = "Clear";
+        batch.high[day] = 99;
+        batch.low[day] = 1;
+        WeatherEntry.replaceForecastWindow(mResolver, mLocationId, batch, mToday);
+
+        WeatherDataClient.Summary summary = mClient.getSummary(TestUtilities.TEST_LOCATION);
+        assertEquals(800, summary.weatherId);
+        assertEquals("Clear", summary.description);
+        assertEquals(99, summary.high, 0);
+        assertEquals(99, summary.fortnightHigh, 0);
+    }
+
+    public void testSummaryFromAnEarlierDayIsWorkedOutAgain() {
+        // As if the summary had been written yesterday
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        ContentValues stale = new ContentValues();
+        stale.put(SummaryEntry.COLUMN_DATE, mToday - DAY_IN_MILLIS);
+        stale.put(SummaryEntry.COLUMN_MAX_TEMP, -100);
+        assertEquals(1, db.update(SummaryEntry.TABLE_NAME, stale, null, null));
+        db.close();
+
+        WeatherDataClient.Summary summary = mClient.getSummary(TestUtilities.TEST_LOCATION);
+        assertEquals(mToday, summary.date);
+        assertEquals(10, summary.high, 0);
+
+        // Reading doesn't write: the stored row waits for the next write to the location
+        db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor cursor = db.query(SummaryEntry.TABLE_NAME, new String[]{SummaryEntry.COLUMN_DATE},
+                null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(mToday - DAY_IN_MILLIS, cursor.getLong(0));
+        cursor.close();
+        db.close();
+    }
+
+    public void testDeletedLocationTakesItsSummary() {
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor cursor = db.query(SummaryEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the diff stage only writes the days that changed, and keeps the _ID of rows it
+    updates.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+
+    private ContentResolver mResolver;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(mResolver.insert(LocationEntry.CONTENT_URI, location));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    // A forecast starting today, with dates filled in the way the sync adapter does it
+    private static ForecastBatch createBatch(int days) {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+
+        ForecastBatch batch = new ForecastBatch();
+        for (int i = 0; i < days; i++) {
+            int day = batch.append();
+            batch.dates[day] = dayTime.setJulianDay(julianStartDay + i);
+            batch.high[day] = 20.5 + i;
+            batch.low[day] = 10.25 + i;
+            batch.humidity[day] = 60 + i;
+            batch.pressure[day] = 1013.2;
+            batch.windSpeed[day] = 3.5;
+            batch.windDirection[day] = 180;
+            batch.weatherId[day] = 800;
+            batch.description[day] = "Clear";
+        }
+        return batch;
+    }
+
+    private void apply(ForecastDiff diff) {
+        WeatherEntry.replaceForecastWindow(mResolver, mLocationId, diff.changes, 0);
+    }
+
+    private long getRowId(long date) {
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(date))}, null);
+        assertTrue(cursor.moveToFirst());
+        long id = cursor.getLong(0);
+        cursor.close();
+        return id;
+    }
+
+    public void testFirstSyncInsertsEverything() throws Exception {
+        ForecastDiff diff = ForecastDiff.compute(mResolver, mLocationId, createBatch(14));
+        assertEquals(14, diff.inserted);
+        assertEquals(0, diff.updated);
+        assertEquals(0, diff.unchanged);
+        apply(diff);
+
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(14, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSameForecastWritesNothing() throws Exception {
+        apply(ForecastDiff.compute(mResolver, mLocationId, createBatch(14)));
+
+        ForecastDiff diff = ForecastDiff.compute(mResolver, mLocationId, createBatch(14));
+        assertFalse("An identical forecast shouldn't write anything", diff.hasChanges());
+        assertEquals(14, diff.unchanged);
+    }
+
+    public void testOnlyChangedDaysAreWritten() throws Exception {
+        apply(ForecastDiff.compute(mResolver, mLocationId, createBatch(14)));
+
+        ForecastBatch batch = createBatch(15);
+        batch.high[3] += 1.5;
+        batch.description[5] = "Rain";
+        long changedRowId = getRowId(batch.dates[3]);
+
+        ForecastDiff diff = ForecastDiff.compute(mResolver, mLocationId, batch);
+        assertEquals("The 15th day is new", 1, diff.inserted);
+        assertEquals(2, diff.updated);
+        assertEquals(12, diff.unchanged);
+        apply(diff);
+
+        assertEquals("An updated day should keep its row", changedRowId, getRowId(batch.dates[3]));
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(changedRowId)}, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(batch.high[3], cursor.getDouble(0));
+        cursor.close();
+
+        assertFalse(ForecastDiff.compute(mResolver, mLocationId, batch).hasChanges());
+    }
+}
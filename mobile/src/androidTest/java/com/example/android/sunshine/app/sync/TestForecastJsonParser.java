@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming parser produces exactly what the org.json tree parser produces.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    static final String TEST_CITY_NAME = "Mountain View";
+
+    // One day in the shape OWM returns from forecast/daily, with fields the parser must skip.
+    static String createDayJson(int i) {
+        return "{\"dt\":" + (1419033600L + i * 86400L) + "," +
+                "\"temp\":{\"day\":12.5,\"min\":" + (5.25 - i) + ",\"max\":" + (15.5 + i) + "," +
+                "\"night\":7.1,\"eve\":11,\"morn\":6}," +
+                "\"pressure\":" + (1013.2 + i) + ",\"humidity\":" + (80 + i % 20) + "," +
+                "\"weather\":[{\"id\":" + (800 + i % 4) + ",\"main\":\"Clear\"," +
+                "\"description\":\"sky is clear\",\"icon\":\"01d\"},{\"id\":1,\"main\":\"x\"}]," +
+                "\"speed\":" + (1.5 + i) + ",\"deg\":" + (i * 10 % 360) + ",\"clouds\":0}";
+    }
+
+    static String createForecastJson(int days) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(TEST_CITY_NAME).append("\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append(createDayJson(i));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static InputStream stream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testStreamMatchesTree() throws Exception {
+        ForecastJsonParser parser = new ForecastJsonParser();
+        String json = createForecastJson(16);
+
+        ForecastBatch streamed = new ForecastBatch();
+        ForecastBatch tree = new ForecastBatch();
+        assertEquals(HttpURLConnection.HTTP_OK, parser.parseStream(stream(json), streamed));
+        assertEquals(HttpURLConnection.HTTP_OK, parser.parseTree(stream(json), tree));
+
+        assertEquals(TEST_CITY_NAME, streamed.cityName);
+        assertEquals(tree.cityName, streamed.cityName);
+        assertEquals(tree.cityLatitude, streamed.cityLatitude);
+        assertEquals(tree.cityLongitude, streamed.cityLongitude);
+        assertEquals(16, streamed.count);
+        assertEquals(tree.count, streamed.count);
+        for (int i = 0; i < tree.count; i++) {
+            assertEquals("high " + i, tree.high[i], streamed.high[i]);
+            assertEquals("low " + i, tree.low[i], streamed.low[i]);
+            assertEquals("humidity " + i, tree.humidity[i], streamed.humidity[i]);
+            assertEquals("pressure " + i, tree.pressure[i], streamed.pressure[i]);
+            assertEquals("wind " + i, tree.windSpeed[i], streamed.windSpeed[i]);
+            assertEquals("degrees " + i, tree.windDirection[i], streamed.windDirection[i]);
+            assertEquals("weather id " + i, tree.weatherId[i], streamed.weatherId[i]);
+            assertEquals("description " + i, tree.description[i], streamed.description[i]);
+        }
+    }
+
+    public void testBatchIsReused() throws Exception {
+        ForecastJsonParser parser = new ForecastJsonParser();
+        ForecastBatch batch = new ForecastBatch();
+
+        parser.parseStream(stream(createForecastJson(40)), batch);
+        assertEquals(40, batch.count);
+        long[] grownDates = batch.dates;
+
+        parser.parseStream(stream(createForecastJson(14)), batch);
+        assertEquals(14, batch.count);
+        assertSame("A shorter forecast shouldn't reallocate the batch", grownDates, batch.dates);
+    }
+
+    public void testErrorCode() throws Exception {
+        ForecastJsonParser parser = new ForecastJsonParser();
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                parser.parseStream(stream(json), new ForecastBatch()));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                parser.parseTree(stream(json), new ForecastBatch()));
+    }
+
+    public void testMissingFieldIsInvalid() throws Exception {
+        ForecastJsonParser parser = new ForecastJsonParser();
+        String json = createForecastJson(2).replace("\"pressure\":", "\"sea_level\":");
+
+        try {
+            parser.parseStream(stream(json), new ForecastBatch());
+            fail("Streaming parser accepted a day without pressure");
+        } catch (JSONException expected) {
+        }
+        try {
+            parser.parseTree(stream(json), new ForecastBatch());
+            fail("Tree parser accepted a day without pressure");
+        } catch (JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Runs conditional requests against a local stub server and checks that the validators are
+    sent back and that hits and saved bytes are counted.
+ */
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private static final String TEST_ETAG = "\"forecast-v1\"";
+    private static final long TEST_LAST_MODIFIED = 1419033600000L;  // December 20th, 2014
+
+    private StubHttpServer mServer;
+    private ForecastResponseCache mCache;
+    private ForecastTransport mTransport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Start every test with an empty cache and zeroed counters
+        mContext.getSharedPreferences("forecast_response_cache", 0).edit().clear().commit();
+        File[] entries = new File(mContext.getCacheDir(), "forecast_validators").listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                entry.delete();
+            }
+        }
+        mCache = new ForecastResponseCache(mContext);
+        mServer = new StubHttpServer(null);
+        mServer.start();
+        mTransport = new HttpUrlConnectionTransport();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    // Reads the whole body and closes the response, like a sync that stored the forecast
+    private static void consume(ForecastResponse response) throws Exception {
+        InputStream in = response.getBody();
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+        }
+        response.close();
+    }
+
+    public void testEtagRoundTrip() throws Exception {
+        final String body = TestForecastJsonParser.createForecastJson(14);
+        mServer.setHandler(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (TEST_ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return StubHttpServer.Response.notModified().header("ETag", TEST_ETAG);
+                }
+                return StubHttpServer.Response.ok(body).header("ETag", TEST_ETAG);
+            }
+        });
+        String key = mServer.getUrl("/forecast/daily?q=94043");
+
+        // First sync: nothing to validate against, full download
+        ForecastRequest request = new ForecastRequest(key);
+        assertFalse("Empty cache shouldn't make the request conditional",
+                mCache.addValidators(request));
+        ForecastResponse response = mTransport.execute(request);
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        consume(response);
+        mCache.onResponse(request, response);
+
+        // Second sync: conditional, answered with 304
+        request = new ForecastRequest(key);
+        assertTrue(mCache.addValidators(request));
+        response = mTransport.execute(request);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.getCode());
+        assertEquals(TEST_ETAG, mServer.getLastRequest().getHeader("If-None-Match"));
+        mCache.onNotModified(request, response);
+        response.close();
+
+        assertEquals(2, mCache.getRequestCount());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(body.getBytes("UTF-8").length, mCache.getBytesSaved());
+
+        // The counters are persistent
+        ForecastResponseCache reopened = new ForecastResponseCache(mContext);
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    public void testLastModifiedOnly() throws Exception {
+        final String body = TestForecastJsonParser.createForecastJson(7);
+        mServer.setHandler(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (request.getHeader("If-Modified-Since") != null) {
+                    return StubHttpServer.Response.notModified();
+                }
+                return StubHttpServer.Response.ok(body)
+                        .header("Last-Modified", "Sat, 20 Dec 2014 00:00:00 GMT");
+            }
+        });
+        String key = mServer.getUrl("/forecast/daily?q=London");
+
+        ForecastRequest request = new ForecastRequest(key);
+        mCache.addValidators(request);
+        ForecastResponse response = mTransport.execute(request);
+        consume(response);
+        mCache.onResponse(request, response);
+
+        request = new ForecastRequest(key);
+        assertTrue(mCache.addValidators(request));
+        assertEquals(TEST_LAST_MODIFIED, request.getIfModifiedSince());
+        response = mTransport.execute(request);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.getCode());
+        mCache.onNotModified(request, response);
+        response.close();
+
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    public void testNoValidatorsNoEntry() throws Exception {
+        mServer.setHandler(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                return StubHttpServer.Response.ok("{}");
+            }
+        });
+        String key = mServer.getUrl("/forecast/daily?q=Paris");
+
+        ForecastRequest request = new ForecastRequest(key);
+        ForecastResponse response = mTransport.execute(request);
+        consume(response);
+        mCache.onResponse(request, response);
+
+        assertFalse("A response without validators can't be revalidated",
+                mCache.addValidators(new ForecastRequest(key)));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.HourlyForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks both paths of the 3-hourly parser against each other and against the values sent.
+ */
+public class TestHourlyForecastJsonParser extends AndroidTestCase {
+
+    private static final long TEST_TIME = 1419033600L;  // December 20th, 2014, in seconds
+
+    // One point in the shape OWM returns from forecast, with fields the parser must skip
+    static String createPointJson(int i) {
+        return "{\"dt\":" + (TEST_TIME + i * 3 * 3600L) + "," +
+                "\"main\":{\"temp\":" + (-5.5 + i) + ",\"temp_min\":-6,\"temp_max\":3," +
+                "\"pressure\":" + (1013.2 + i) + ",\"sea_level\":1030.1," +
+                "\"humidity\":" + (60 + i % 40) + "}," +
+                "\"weather\":[{\"id\":" + (500 + i % 4) + ",\"main\":\"Rain\"," +
+                "\"description\":\"light rain\",\"icon\":\"10d\"}]," +
+                "\"clouds\":{\"all\":92}," +
+                (i % 5 == 4 ? "" : "\"wind\":{\"speed\":" + (2.5 + i) + ",\"deg\":" + (i * 20 % 360) + "},") +
+                "\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"2014-12-20 00:00:00\"}";
+    }
+
+    static String createHourlyForecastJson(int points) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"cod\":\"200\",\"message\":0.0032,\"cnt\":").append(points)
+                .append(",\"list\":[");
+        for (int i = 0; i < points; i++) {
+            if (i > 0) json.append(',');
+            json.append(createPointJson(i));
+        }
+        json.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051}}}");
+        return json.toString();
+    }
+
+    private static InputStream stream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testStreamMatchesTree() throws Exception {
+        HourlyForecastJsonParser parser = new HourlyForecastJsonParser();
+        String json = createHourlyForecastJson(40);
+
+        HourlyForecastBatch streamed = new HourlyForecastBatch();
+        HourlyForecastBatch tree = new HourlyForecastBatch();
+        assertEquals(HttpURLConnection.HTTP_OK, parser.parseStream(stream(json), streamed));
+        assertEquals(HttpURLConnection.HTTP_OK, parser.parseTree(stream(json), tree));
+
+        assertEquals(40, streamed.count);
+        assertEquals(tree.count, streamed.count);
+        for (int i = 0; i < tree.count; i++) {
+            assertEquals("time " + i, TEST_TIME + i * 3 * 3600L, streamed.times[i]);
+            assertEquals("time " + i, tree.times[i], streamed.times[i]);
+            assertEquals("packed " + i, tree.packed[i], streamed.packed[i]);
+
+            long packed = streamed.packed[i];
+            assertEquals(500 + i % 4, HourlyEntry.getWeatherId(packed));
+            assertEquals(-5.5 + i, HourlyEntry.getTemperature(packed), 0.05);
+            assertEquals(60 + i % 40, HourlyEntry.getHumidity(packed));
+            assertEquals(1013.2 + i, HourlyEntry.getPressure(packed), 0.05);
+            if (i % 5 == 4) {
+                assertEquals("A point without wind is calm", 0.0, HourlyEntry.getWindSpeed(packed));
+            } else {
+                assertEquals(2.5 + i, HourlyEntry.getWindSpeed(packed), 0.05);
+                assertEquals(i * 20 % 360, HourlyEntry.getDegrees(packed), 0.5);
+            }
+        }
+    }
+
+    public void testErrorCode() throws Exception {
+        HourlyForecastJsonParser parser = new HourlyForecastJsonParser();
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                parser.parseStream(stream(json), new HourlyForecastBatch()));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                parser.parseTree(stream(json), new HourlyForecastBatch()));
+    }
+
+    public void testMissingFieldIsInvalid() throws Exception {
+        HourlyForecastJsonParser parser = new HourlyForecastJsonParser();
+        String json = createHourlyForecastJson(2).replace("\"humidity\":", "\"grnd_level\":");
+
+        try {
+            parser.parseStream(stream(json), new HourlyForecastBatch());
+            fail("Streaming parser accepted a point without humidity");
+        } catch (JSONException expected) {
+        }
+        try {
+            parser.parseTree(stream(json), new HourlyForecastBatch());
+            fail("Tree parser accepted a point without humidity");
+        } catch (JSONException expected) {
+        }
+    }
+}
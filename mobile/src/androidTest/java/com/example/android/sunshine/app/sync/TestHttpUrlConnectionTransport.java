@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+
+/*
+    Runs the HttpURLConnection transport against a local stub server: compression, connection
+    reuse and timeouts.  testBenchmarkConnectionReuse only logs its numbers, it doesn't assert on
+    them.
+ */
+public class TestHttpUrlConnectionTransport extends AndroidTestCase {
+    private static final String LOG_TAG = TestHttpUrlConnectionTransport.class.getSimpleName();
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer(null);
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String readBody(ForecastResponse response) throws Exception {
+        InputStream in = response.getBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        response.close();
+        return body.toString("UTF-8");
+    }
+
+    private void serveForecast(final String json, final boolean gzip) {
+        mServer.setHandler(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                StubHttpServer.Response response = StubHttpServer.Response.ok(json);
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response.gzip();
+                }
+                return response;
+            }
+        });
+    }
+
+    public void testGzipResponse() throws Exception {
+        String json = TestForecastJsonParser.createForecastJson(14);
+        serveForecast(json, true);
+        ForecastTransport transport = new HttpUrlConnectionTransport();
+
+        ForecastResponse response =
+                transport.execute(new ForecastRequest(mServer.getUrl("/forecast/daily")));
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        assertEquals(json, readBody(response));
+        assertTrue("Compressed body should be smaller on the wire than decompressed",
+                response.getBytesReceived() < json.getBytes("UTF-8").length);
+
+        // The body parses straight off the decompressing stream
+        response = transport.execute(new ForecastRequest(mServer.getUrl("/forecast/daily")));
+        ForecastBatch batch = new ForecastBatch();
+        assertEquals(HttpURLConnection.HTTP_OK,
+                new ForecastJsonParser().parse(response.getBody(), batch));
+        response.close();
+        assertEquals(14, batch.count);
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        serveForecast(TestForecastJsonParser.createForecastJson(14), true);
+        ForecastTransport transport = new HttpUrlConnectionTransport();
+
+        for (int i = 0; i < 5; i++) {
+            ForecastResponse response =
+                    transport.execute(new ForecastRequest(mServer.getUrl("/forecast/daily?q=" + i)));
+            // Parse only part of the body; closing must still leave the connection reusable
+            response.getBody().read();
+            response.close();
+        }
+        assertEquals(5, mServer.getRequestCount());
+        assertEquals("Back-to-back requests should share one connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws Exception {
+        mServer.setHandler(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                StubHttpServer.Response response = StubHttpServer.Response.ok("{}");
+                response.delayMillis = 2000;
+                return response;
+            }
+        });
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport(1000, 200);
+        assertEquals(200, transport.getReadTimeoutMillis());
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            transport.execute(new ForecastRequest(mServer.getUrl("/forecast/daily")));
+            fail("A server slower than the read timeout should fail the request");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertTrue(SystemClock.elapsedRealtime() - start < 2000);
+    }
+
+    public void testLatencyIsReported() throws Exception {
+        mServer.setHandler(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                StubHttpServer.Response response = StubHttpServer.Response.ok("{}");
+                response.delayMillis = 100;
+                return response;
+            }
+        });
+        ForecastResponse response = new HttpUrlConnectionTransport()
+                .execute(new ForecastRequest(mServer.getUrl("/forecast/daily")));
+        response.close();
+        assertTrue("Latency " + response.getLatencyMillis() + " shorter than the server delay",
+                response.getLatencyMillis() >= 100);
+    }
+
+    public void testBenchmarkConnectionReuse() throws Exception {
+        final String json = TestForecastJsonParser.createForecastJson(14);
+        final boolean[] closeConnection = new boolean[1];
+        mServer.setHandler(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                StubHttpServer.Response response = StubHttpServer.Response.ok(json).gzip();
+                if (closeConnection[0]) {
+                    response.header("Connection", "close");
+                }
+                return response;
+            }
+        });
+        ForecastTransport transport = new HttpUrlConnectionTransport();
+        final int requests = 50;
+
+        closeConnection[0] = true;
+        long totalLatency = 0;
+        for (int i = 0; i < requests; i++) {
+            ForecastResponse response =
+                    transport.execute(new ForecastRequest(mServer.getUrl("/forecast/daily")));
+            readBody(response);
+            totalLatency += response.getLatencyMillis();
+        }
+        int connections = mServer.getConnectionCount();
+        Log.i(LOG_TAG, "New connection per request: " + connections + " connections, "
+                + (totalLatency / (double) requests) + " ms average latency");
+
+        closeConnection[0] = false;
+        totalLatency = 0;
+        for (int i = 0; i < requests; i++) {
+            ForecastResponse response =
+                    transport.execute(new ForecastRequest(mServer.getUrl("/forecast/daily")));
+            readBody(response);
+            totalLatency += response.getLatencyMillis();
+        }
+        Log.i(LOG_TAG, "Pooled connections: " + (mServer.getConnectionCount() - connections)
+                + " connections, " + (totalLatency / (double) requests) + " ms average latency");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.SyncResult;
+import android.net.Uri;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.util.Random;
+
+/*
+    Points the sync adapter at a local server that keeps failing, and checks that the circuit
+    opens and then keeps syncs off the network.
+ */
+public class TestSyncBackoff extends AndroidTestCase {
+
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    /**
+     * Sends the adapter's requests to the stub server instead of OpenWeatherMap, keeping the
+     * path and query.
+     */
+    static class StubServerTransport implements ForecastTransport {
+        private final StubHttpServer mServer;
+        private final ForecastTransport mTransport = new HttpUrlConnectionTransport(1000, 1000);
+
+        StubServerTransport(StubHttpServer server) {
+            mServer = server;
+        }
+
+        @Override
+        public ForecastResponse execute(ForecastRequest request) throws IOException {
+            Uri uri = Uri.parse(request.getUrl());
+            ForecastRequest redirected = new ForecastRequest(
+                    mServer.getUrl(uri.getEncodedPath() + "?" + uri.getEncodedQuery()));
+            redirected.setIfNoneMatch(request.getIfNoneMatch());
+            redirected.setIfModifiedSince(request.getIfModifiedSince());
+            return mTransport.execute(redirected);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("sync_backoff", 0).edit().clear().commit();
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            // Fail in a different way every time
+            private int mRequest;
+
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                switch (mRequest++ % 3) {
+                    case 0:
+                        return new StubHttpServer.Response(503);
+                    case 1:
+                        return StubHttpServer.Response.ok("<html>Bad gateway</html>");
+                    default:
+                        return new StubHttpServer.Response(500);
+                }
+            }
+        });
+        mServer.start();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setTransport(new StubServerTransport(mServer));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mContext.getSharedPreferences("sync_backoff", 0).edit().clear().commit();
+        super.tearDown();
+    }
+
+    private SyncResult sync() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, extras, mContext.getString(R.string.content_authority),
+                null, syncResult);
+        return syncResult;
+    }
+
+    private int getLocationStatus() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext).getInt(
+                mContext.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    public void testCircuitOpensAfterRepeatedFailures() {
+        SyncBackoff backoff = new SyncBackoff(mContext);
+
+        long start = System.currentTimeMillis();
+        SyncResult syncResult = sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, getLocationStatus());
+        assertTrue("The framework should be told to hold off",
+                syncResult.delayUntil * 1000 >= start);
+
+        sync();
+        assertEquals("Garbage from the server is reported as such",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, getLocationStatus());
+        assertFalse(backoff.isOpen(System.currentTimeMillis()));
+
+        sync();
+        assertEquals(SyncBackoff.FAILURE_THRESHOLD, backoff.getFailureCount());
+        assertTrue(backoff.isOpen(System.currentTimeMillis()));
+        assertEquals(3, mServer.getRequestCount());
+
+        // The circuit is open: no request, same status as the last failure
+        syncResult = sync();
+        sync();
+        assertEquals("An open circuit must not reach the server", 3, mServer.getRequestCount());
+        assertEquals(2, backoff.getAvoidedRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, getLocationStatus());
+        assertEquals(backoff.getRetryAt() / 1000, syncResult.delayUntil);
+    }
+
+    public void testTrialAfterDelay() {
+        SyncBackoff backoff = new SyncBackoff(mContext, new Random(42));
+        long now = 1000000;
+        for (int i = 0; i < SyncBackoff.FAILURE_THRESHOLD; i++) {
+            assertTrue(backoff.allowRequest(now));
+            now += backoff.onFailure(now, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN) / 2;
+        }
+        assertFalse(backoff.allowRequest(now));
+
+        // Once the delay has passed one trial goes through; failing it opens the circuit again
+        now = backoff.getRetryAt();
+        assertTrue(backoff.allowRequest(now));
+        long delay = backoff.onFailure(now, SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID);
+        assertTrue(delay >= SyncBackoff.getDelayMillis(SyncBackoff.FAILURE_THRESHOLD + 1) / 2);
+        assertFalse(backoff.allowRequest(now + 1));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                backoff.getLastFailureStatus());
+
+        // A successful trial closes it
+        backoff.onSuccess();
+        assertTrue(backoff.allowRequest(now + 1));
+        assertEquals(0, backoff.getFailureCount());
+    }
+
+    public void testDelayGrowsExponentiallyWithJitter() {
+        assertEquals(SyncBackoff.BASE_DELAY_MILLIS, SyncBackoff.getDelayMillis(1));
+        assertEquals(SyncBackoff.BASE_DELAY_MILLIS * 4, SyncBackoff.getDelayMillis(3));
+        assertEquals(SyncBackoff.MAX_DELAY_MILLIS, SyncBackoff.getDelayMillis(50));
+
+        SyncBackoff backoff = new SyncBackoff(mContext, new Random(7));
+        long delay = backoff.onFailure(0, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        assertTrue(delay >= SyncBackoff.BASE_DELAY_MILLIS / 2);
+        assertTrue(delay <= SyncBackoff.BASE_DELAY_MILLIS);
+    }
+}
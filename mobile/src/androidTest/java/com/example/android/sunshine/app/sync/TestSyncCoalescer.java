@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Fires bursts of sync requests at a SyncCoalescer with a short window and checks how many
+    syncs come out the other end.
+ */
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    private static final long TEST_WINDOW_MILLIS = 200;
+
+    private final List<List<String>> mSyncs =
+            Collections.synchronizedList(new ArrayList<List<String>>());
+    private SyncCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSyncs.clear();
+        mCoalescer = new SyncCoalescer(new SyncCoalescer.SyncRequester() {
+            @Override
+            public void requestSync(Collection<String> locations) {
+                mSyncs.add(new ArrayList<String>(locations));
+            }
+        });
+        mCoalescer.setWindowMillis(TEST_WINDOW_MILLIS);
+    }
+
+    private void waitForSyncs(final int count) {
+        new PollingCheck(TEST_WINDOW_MILLIS * 10) {
+            @Override
+            protected boolean check() {
+                return mSyncs.size() >= count;
+            }
+        }.run();
+    }
+
+    public void testBurstBecomesOneSync() throws Exception {
+        mCoalescer.request("94043");
+        mCoalescer.request("94043");
+        mCoalescer.request("London");
+        mCoalescer.request("94043");
+        mCoalescer.request("Paris");
+        assertTrue("Nothing should be sent before the window closes", mSyncs.isEmpty());
+
+        waitForSyncs(1);
+        Thread.sleep(TEST_WINDOW_MILLIS);
+        assertEquals(1, mSyncs.size());
+        assertEquals(Arrays.asList("94043", "London", "Paris"), mSyncs.get(0));
+        assertEquals(5, mCoalescer.getRequestCount());
+        assertEquals(2, mCoalescer.getMergedCount());
+        assertEquals(2, mCoalescer.getDroppedCount());
+        assertEquals(1, mCoalescer.getSyncCount());
+    }
+
+    public void testRequestsDuringSyncWaitForIt() throws Exception {
+        mCoalescer.request("94043");
+        waitForSyncs(1);
+
+        mCoalescer.onSyncStarted();
+        mCoalescer.request("London");
+        mCoalescer.request("London");
+        Thread.sleep(TEST_WINDOW_MILLIS * 2);
+        assertEquals("A running sync should hold back new requests", 1, mSyncs.size());
+
+        mCoalescer.onSyncFinished();
+        assertEquals(2, mSyncs.size());
+        assertEquals(Collections.singletonList("London"), mSyncs.get(1));
+        assertEquals(1, mCoalescer.getDroppedCount());
+    }
+
+    public void testRequestsForAnAwaitedSyncAreDropped() throws Exception {
+        mCoalescer.request("94043");
+        waitForSyncs(1);
+
+        // Requested from the framework, but not started yet
+        mCoalescer.request("94043");
+        mCoalescer.request("London");
+        assertEquals(1, mCoalescer.getDroppedCount());
+        assertEquals(1, mCoalescer.getMergedCount());
+
+        mCoalescer.onSyncStarted();
+        mCoalescer.onSyncFinished();
+        assertEquals(2, mSyncs.size());
+        assertEquals("The awaited sync already covers 94043",
+                Collections.singletonList("London"), mSyncs.get(1));
+    }
+
+    public void testLocationsRoundTripThroughExtras() {
+        Bundle extras = new Bundle();
+        extras.putString(SunshineSyncAdapter.SYNC_EXTRA_LOCATIONS, "94043\nLondon, UK");
+        assertEquals(Arrays.asList("94043", "London, UK"), SyncCoalescer.getLocations(extras));
+        assertTrue(SyncCoalescer.getLocations(new Bundle()).isEmpty());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+/*
+    Runs whole syncs against a local server and checks that every stage of the pipeline ran,
+    and that the fan-out only happens when something changed.
+ */
+public class TestSyncPipeline extends AndroidTestCase {
+
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mContext.getSharedPreferences("sync_backoff", 0).edit().clear().commit();
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (request.path.startsWith("/data/2.5/forecast/daily")) {
+                    return StubHttpServer.Response.ok(
+                            TestForecastJsonParser.createForecastJson(14));
+                }
+                return StubHttpServer.Response.ok(
+                        TestHourlyForecastJsonParser.createHourlyForecastJson(40));
+            }
+        });
+        mServer.start();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setTransport(new TestSyncBackoff.StubServerTransport(mServer));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private SyncResult sync() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, extras, mContext.getString(R.string.content_authority),
+                null, syncResult);
+        return syncResult;
+    }
+
+    public void testStages() {
+        SyncResult syncResult = sync();
+        assertEquals(14, syncResult.stats.numInserts);
+
+        SyncTimings timings = mSyncAdapter.getLastSyncTimings();
+        assertEquals("Daily and 3-hourly requests", 2, timings.getCount(SyncTimings.STAGE_FETCH));
+        assertEquals(2, timings.getCount(SyncTimings.STAGE_PARSE));
+        assertEquals(1, timings.getCount(SyncTimings.STAGE_DIFF));
+        assertTrue(timings.getCount(SyncTimings.STAGE_PERSIST) >= 1);
+        assertEquals("A changed forecast is fanned out",
+                1, timings.getCount(SyncTimings.STAGE_FAN_OUT));
+
+        // The same forecast again is parsed and compared, but there is nobody to tell
+        syncResult = sync();
+        assertEquals(14, syncResult.stats.numSkippedEntries);
+        timings = mSyncAdapter.getLastSyncTimings();
+        assertEquals(1, timings.getCount(SyncTimings.STAGE_DIFF));
+        assertEquals(0, timings.getCount(SyncTimings.STAGE_FAN_OUT));
+    }
+}
@@ -34,6 +34,7 @@ import android.view.View;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduleUpdater;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
@@ -150,6 +151,8 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             }
             mLocation = location;
         }
+        // The sync schedule relaxes when the app goes unused and tightens again from here
+        SyncScheduleUpdater.noteAppOpened(this);
         mWeatherBroadcastReceiver = new WeatherBroadcastReceiver();
         registerReceiver(mWeatherBroadcastReceiver, new IntentFilter("com.example.android.sunshine.app.WEATHER_UPDATE"));
     }
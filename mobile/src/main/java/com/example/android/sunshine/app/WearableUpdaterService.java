@@ -6,12 +6,14 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.example.android.sunshine.app.sync.SyncScheduleUpdater;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
@@ -47,6 +49,15 @@ public class WearableUpdaterService extends Service implements GoogleApiClient.C
     @Override
     public void onConnected(Bundle bundle) {
         sendDataToWearable();
+        // Whether a watch is around feeds into how often we sync
+        Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+            @Override
+            public void onResult(NodeApi.GetConnectedNodesResult result) {
+                if (!result.getNodes().isEmpty()) {
+                    SyncScheduleUpdater.noteWearableConnected(WearableUpdaterService.this);
+                }
+            }
+        });
     }
 
     @Override
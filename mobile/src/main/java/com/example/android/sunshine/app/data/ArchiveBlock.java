@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * The encoding of one block of {@link WeatherContract.ArchiveEntry}: the past days of one
+ * location in one month, in about ten bytes per day instead of a weather row and its index
+ * entries.
+ * <p/>
+ * A block is a version byte, the number of days and the unit the dates are counted in, followed
+ * by one column after the other.  Dates are the first date and then the difference to the day
+ * before, in the unit; with dates at local midnight that is 24 hours, or 23 and 25 across a
+ * daylight saving change, in one byte each.  Temperatures, pressure and wind speed are stored as
+ * integer tenths, humidity and wind direction as whole numbers, and temperatures and pressure as
+ * the difference to the day before.  Every number is a variable-length integer, signed ones
+ * zigzag encoded, so small values take one byte.
+ * <p/>
+ * The descriptions aren't kept: the weather id says the same, and is what the app turns into
+ * the text it shows.
+ */
+class ArchiveBlock {
+
+    private static final int VERSION = 1;
+
+    // The units dates may be counted in, largest first
+    private static final long[] DATE_UNITS = {60 * 60 * 1000L, 60 * 1000L, 1000L, 1L};
+
+    private static final double TENTHS = 10.0;
+
+    // See getMonth()
+    private static final long MONTH_SHIFT_MILLIS = 13 * 60 * 60 * 1000L;
+
+    private ArchiveBlock() {
+    }
+
+    /**
+     * The month whose block a day goes into, as year * 100 + month, e.g. 201512.  It is the
+     * UTC month of the date 13 hours on: for a date at local midnight that is the same calendar
+     * day in every time zone from UTC-10 to UTC+13, which is everywhere people live but a few
+     * islands, and unlike the local month it doesn't change when the user moves to another
+     * time zone.
+     */
+    static int getMonth(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(date + MONTH_SHIFT_MILLIS);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * Encodes the days of the batch, which must be in ascending order of date with no date
+     * twice.
+     */
+    static byte[] encode(ForecastBatch days) {
+        int count = days.count;
+        long unit = getDateUnit(days);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + 14 * count);
+        out.write(VERSION);
+        writeUnsigned(out, count);
+        writeUnsigned(out, unit);
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                writeSigned(out, days.dates[0] / unit);
+            } else {
+                writeUnsigned(out, (days.dates[i] - days.dates[i - 1]) / unit);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            writeUnsigned(out, days.weatherId[i]);
+        }
+        writeDeltas(out, days.high, count);
+        writeDeltas(out, days.low, count);
+        for (int i = 0; i < count; i++) {
+            writeUnsigned(out, Math.max(0, days.humidity[i]));
+        }
+        writeDeltas(out, days.pressure, count);
+        for (int i = 0; i < count; i++) {
+            writeUnsigned(out, Math.max(0, Math.round(days.windSpeed[i] * TENTHS)));
+        }
+        for (int i = 0; i < count; i++) {
+            long degrees = Math.round(days.windDirection[i]) % 360;
+            writeUnsigned(out, degrees < 0 ? degrees + 360 : degrees);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends the days of a block to the batch, in the order they were encoded.
+     *
+     * @throws IllegalArgumentException if the data isn't a block this version can read.
+     */
+    static void decode(byte[] data, ForecastBatch into) {
+        Reader in = new Reader(data);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown archive block version " + version);
+        }
+        int count = (int) in.readUnsigned();
+        long unit = in.readUnsigned();
+        if (count < 0 || unit <= 0) {
+            throw new IllegalArgumentException("Corrupt archive block");
+        }
+        int first = into.count;
+        for (int i = 0; i < count; i++) {
+            into.append();
+        }
+        long date = 0;
+        for (int i = 0; i < count; i++) {
+            date = i == 0 ? in.readSigned() * unit : date + in.readUnsigned() * unit;
+            into.dates[first + i] = date;
+            into.description[first + i] = null;
+        }
+        for (int i = 0; i < count; i++) {
+            into.weatherId[first + i] = (int) in.readUnsigned();
+        }
+        readDeltas(in, into.high, first, count);
+        readDeltas(in, into.low, first, count);
+        for (int i = 0; i < count; i++) {
+            into.humidity[first + i] = (int) in.readUnsigned();
+        }
+        readDeltas(in, into.pressure, first, count);
+        for (int i = 0; i < count; i++) {
+            into.windSpeed[first + i] = in.readUnsigned() / TENTHS;
+        }
+        for (int i = 0; i < count; i++) {
+            into.windDirection[first + i] = in.readUnsigned();
+        }
+    }
+
+    /**
+     * Merges two runs of days, each in ascending order of date.  Where both have a day, the
+     * one from newer wins.
+     */
+    static ForecastBatch merge(ForecastBatch older, ForecastBatch newer) {
+        ForecastBatch merged = new ForecastBatch(older.count + newer.count);
+        int i = 0;
+        int j = 0;
+        while (i < older.count || j < newer.count) {
+            if (j == newer.count
+                    || (i < older.count && older.dates[i] < newer.dates[j])) {
+                merged.appendFrom(older, i++);
+            } else {
+                if (i < older.count && older.dates[i] == newer.dates[j]) {
+                    i++;
+                }
+                merged.appendFrom(newer, j++);
+            }
+        }
+        return merged;
+    }
+
+    // The largest unit the first date and every difference between dates are a multiple of
+    private static long getDateUnit(ForecastBatch days) {
+        for (long unit : DATE_UNITS) {
+            boolean fits = days.count == 0 || days.dates[0] % unit == 0;
+            for (int i = 1; fits && i < days.count; i++) {
+                fits = (days.dates[i] - days.dates[i - 1]) % unit == 0;
+            }
+            if (fits) {
+                return unit;
+            }
+        }
+        return 1;
+    }
+
+    private static void writeDeltas(ByteArrayOutputStream out, double[] values, int count) {
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long value = Math.round(values[i] * TENTHS);
+            writeSigned(out, value - previous);
+            previous = value;
+        }
+    }
+
+    private static void readDeltas(Reader in, double[] values, int first, int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value += in.readSigned();
+            values[first + i] = value / TENTHS;
+        }
+    }
+
+    // Seven bits per byte, lowest first, with the high bit set on every byte but the last
+    private static void writeUnsigned(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // Zigzag: 0, -1, 1, -2, 2... become 0, 1, 2, 3, 4...
+    private static void writeSigned(ByteArrayOutputStream out, long value) {
+        writeUnsigned(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static final class Reader {
+        private final byte[] mData;
+        private int mPosition;
+
+        Reader(byte[] data) {
+            mData = data;
+        }
+
+        int readByte() {
+            if (mPosition == mData.length) {
+                throw new IllegalArgumentException("Truncated archive block");
+            }
+            return mData[mPosition++] & 0xFF;
+        }
+
+        long readUnsigned() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Corrupt archive block");
+        }
+
+        long readSigned() {
+            long value = readUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * A forecast for a single location, held as parallel primitive arrays instead of one
+ * ContentValues per day.  Index i of every array describes the same day.
+ * <p/>
+ * A batch is meant to be reused: {@link #clear()} keeps the arrays around, so parsing the next
+ * sync into the same instance does not allocate again unless the forecast got longer.
+ */
+public class ForecastBatch {
+
+    // OWM never returns more than 16 daily entries, so this is enough for the common case.
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Location information, as reported by the server
+    public String cityName;
+    public double cityLatitude;
+    public double cityLongitude;
+
+    // Number of valid entries in the arrays below
+    public int count;
+
+    public long[] dates;
+    public double[] high;
+    public double[] low;
+    public int[] humidity;
+    public double[] pressure;
+    public double[] windSpeed;
+    public double[] windDirection;
+    public int[] weatherId;
+    public String[] description;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        dates = new long[capacity];
+        high = new double[capacity];
+        low = new double[capacity];
+        humidity = new int[capacity];
+        pressure = new double[capacity];
+        windSpeed = new double[capacity];
+        windDirection = new double[capacity];
+        weatherId = new int[capacity];
+        description = new String[capacity];
+    }
+
+    /**
+     * Forgets the current contents without releasing the backing arrays.
+     */
+    public void clear() {
+        cityName = null;
+        cityLatitude = 0;
+        cityLongitude = 0;
+        Arrays.fill(description, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Makes room for one more day and returns its index.  The caller fills in the arrays.
+     */
+    public int append() {
+        if (count == dates.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, dates.length * 2);
+            dates = Arrays.copyOf(dates, capacity);
+            high = Arrays.copyOf(high, capacity);
+            low = Arrays.copyOf(low, capacity);
+            humidity = Arrays.copyOf(humidity, capacity);
+            pressure = Arrays.copyOf(pressure, capacity);
+            windSpeed = Arrays.copyOf(windSpeed, capacity);
+            windDirection = Arrays.copyOf(windDirection, capacity);
+            weatherId = Arrays.copyOf(weatherId, capacity);
+            description = Arrays.copyOf(description, capacity);
+        }
+        return count++;
+    }
+
+    /**
+     * Appends a copy of one day of another batch and returns its index.
+     */
+    public int appendFrom(ForecastBatch source, int index) {
+        int day = append();
+        dates[day] = source.dates[index];
+        high[day] = source.high[index];
+        low[day] = source.low[index];
+        humidity[day] = source.humidity[index];
+        pressure[day] = source.pressure[index];
+        windSpeed[day] = source.windSpeed[index];
+        windDirection[day] = source.windDirection[index];
+        weatherId[day] = source.weatherId[index];
+        description[day] = source.description[index];
+        return day;
+    }
+
+    /**
+     * Puts the arrays themselves, not copies, into a Bundle for
+     * {@link WeatherContract#METHOD_BULK_INSERT_WEATHER}.  The batch must not change until the
+     * call returns.
+     */
+    public Bundle toBundle(long locationId) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_LOCATION_ID, locationId);
+        extras.putInt(WeatherContract.EXTRA_COUNT, count);
+        extras.putLongArray(WeatherContract.WeatherEntry.COLUMN_DATE, dates);
+        extras.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        extras.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        extras.putIntArray(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        extras.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        extras.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        extras.putDoubleArray(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        extras.putIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        extras.putStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        return extras;
+    }
+
+    /**
+     * The other end of {@link #toBundle}: a batch around the arrays in the Bundle.
+     *
+     * @throws IllegalArgumentException if an array is missing or too short.
+     */
+    public static ForecastBatch fromBundle(Bundle extras) {
+        ForecastBatch batch = new ForecastBatch(0);
+        batch.count = extras.getInt(WeatherContract.EXTRA_COUNT);
+        batch.dates = extras.getLongArray(WeatherContract.WeatherEntry.COLUMN_DATE);
+        batch.high = extras.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        batch.low = extras.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        batch.humidity = extras.getIntArray(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        batch.pressure = extras.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        batch.windSpeed = extras.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        batch.windDirection = extras.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        batch.weatherId = extras.getIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        batch.description = extras.getStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        if (batch.dates == null || batch.high == null || batch.low == null
+                || batch.humidity == null || batch.pressure == null || batch.windSpeed == null
+                || batch.windDirection == null || batch.weatherId == null
+                || batch.description == null) {
+            throw new IllegalArgumentException("Incomplete forecast batch");
+        }
+        int[] lengths = {batch.dates.length, batch.high.length, batch.low.length,
+                batch.humidity.length, batch.pressure.length, batch.windSpeed.length,
+                batch.windDirection.length, batch.weatherId.length, batch.description.length};
+        for (int length : lengths) {
+            if (batch.count < 0 || batch.count > length) {
+                throw new IllegalArgumentException("Forecast batch count " + batch.count
+                        + " doesn't fit its arrays");
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Builds the rows the weather table expects for this batch, in the same shape the provider
+     * has always been given by the sync adapter.
+     */
+    public ContentValues[] toContentValues(long locationId) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dates[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId[i]);
+
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A location's daily forecast as a file the widgets, Muzei and the wear bridge can read
+ * without opening the provider or the database.  The sync writes one per location after
+ * storing its forecast, and {@link WeatherDataClient} reads it before asking the provider.
+ * <p/>
+ * The layout is fixed, big-endian:
+ * <pre>
+ *   header     magic, version, record size, CRC32 of everything after it, day count, time
+ *              written, setting length and descriptions length, 32 bytes in all
+ *   records    per day: date, weather id, high, low, and the offset and length of the
+ *              description, 28 bytes each
+ *   setting    the location setting, UTF-8
+ *   strings    the descriptions, UTF-8, one after the other
+ * </pre>
+ * The file is replaced through an AtomicFile, and is read by mapping it.  One that is missing,
+ * of another version, fails its checksum, belongs to another location or is older than
+ * {@link #MAX_AGE_MILLIS} reads as null, and the caller asks the provider instead.
+ */
+public final class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final int MAGIC = 0x534e5346;  // "SNSF"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 28;
+    // Where the checksummed part starts: right after the CRC
+    private static final int CHECKED_OFFSET = 12;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    // A snapshot older than this goes unread, in case something other than a sync changed the
+    // forecast since
+    static final long MAX_AGE_MILLIS = DAY_IN_MILLIS;
+
+    private static final String FILE_PREFIX = "forecast-";
+    private static final String FILE_SUFFIX = ".snapshot";
+    // What AtomicFile names the old file while it writes the new one
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * Replaces the location's snapshot with the given forecast, or deletes it if it can't.  Must
+     * not be called from the UI thread.
+     *
+     * @return whether the snapshot was written.
+     */
+    public static boolean write(Context context, String locationSetting,
+                                WeatherDataClient.Forecast forecast) {
+        AtomicFile file = new AtomicFile(getFile(context, locationSetting));
+        FileOutputStream out = null;
+        try {
+            byte[] data = encode(locationSetting, forecast, System.currentTimeMillis());
+            out = file.startWrite();
+            out.write(data);
+            file.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't write the snapshot of " + locationSetting, e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+            // The old one no longer matches what is stored
+            file.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the snapshots of every location but the given ones.
+     */
+    public static void retain(Context context, Collection<String> locationSettings) {
+        Set<String> names = new HashSet<>();
+        for (String locationSetting : locationSettings) {
+            names.add(getFile(context, locationSetting).getName());
+        }
+        File[] files = context.getFilesDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(FILE_PREFIX)) {
+                continue;
+            }
+            // Along with any backup an interrupted write left next to it
+            if (name.endsWith(BACKUP_SUFFIX)) {
+                name = name.substring(0, name.length() - BACKUP_SUFFIX.length());
+            }
+            if (!names.contains(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param startDate the first day to return; any time of the day will do.
+     * @param limit     the most days to return, or 0 for all of them.
+     * @return the location's forecast from startDate on, or null if there is no usable
+     * snapshot or it has no days from startDate on.
+     */
+    public static WeatherDataClient.Forecast read(Context context, String locationSetting,
+                                                  long startDate, int limit) {
+        File file = getFile(context, locationSetting);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return decode(map(file), locationSetting, WeatherContract.normalizeDate(startDate),
+                    limit, System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            // Being written, or cut short by a crash; the provider has it
+            Log.d(LOG_TAG, "Couldn't read the snapshot of " + locationSetting + ": " + e);
+            return null;
+        }
+    }
+
+    static File getFile(Context context, String locationSetting) {
+        // The setting in the header tells two locations with the same hash apart
+        return new File(context.getFilesDir(),
+                FILE_PREFIX + Integer.toHexString(locationSetting.hashCode()) + FILE_SUFFIX);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid once the file is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] encode(String locationSetting, WeatherDataClient.Forecast forecast,
+                         long writtenAt) {
+        byte[] setting = locationSetting.getBytes(UTF_8);
+        byte[][] descriptions = new byte[forecast.count][];
+        int descriptionsLength = 0;
+        for (int i = 0; i < forecast.count; i++) {
+            descriptions[i] = forecast.descriptions[i] != null
+                    ? forecast.descriptions[i].getBytes(UTF_8) : new byte[0];
+            descriptionsLength += descriptions[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + forecast.count * RECORD_SIZE
+                + setting.length + descriptionsLength);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) RECORD_SIZE);
+        buffer.putInt(0);  // the CRC, once the rest is written
+        buffer.putInt(forecast.count);
+        buffer.putLong(writtenAt);
+        buffer.putShort((short) setting.length);
+        buffer.putInt(descriptionsLength);
+        buffer.putShort((short) 0);
+
+        int offset = 0;
+        for (int i = 0; i < forecast.count; i++) {
+            buffer.putLong(forecast.dates[i]);
+            buffer.putInt(forecast.weatherIds[i]);
+            buffer.putFloat(forecast.highs[i]);
+            buffer.putFloat(forecast.lows[i]);
+            buffer.putInt(offset);
+            buffer.putShort((short) descriptions[i].length);
+            buffer.putShort((short) 0);
+            offset += descriptions[i].length;
+        }
+        buffer.put(setting);
+        for (byte[] description : descriptions) {
+            buffer.put(description);
+        }
+
+        byte[] data = buffer.array();
+        CRC32 crc = new CRC32();
+        crc.update(data, CHECKED_OFFSET, data.length - CHECKED_OFFSET);
+        buffer.putInt(8, (int) crc.getValue());
+        return data;
+    }
+
+    /**
+     * @return the days from startDate on, or null if the snapshot is too old, belongs to another
+     * location or has none of them.
+     * @throws IllegalArgumentException if the snapshot is of another version or corrupt.
+     */
+    static WeatherDataClient.Forecast decode(ByteBuffer buffer, String locationSetting,
+                                             long startDate, int limit, long now) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a forecast snapshot");
+        }
+        if (buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+            throw new IllegalArgumentException("Snapshot version " + buffer.getShort(4));
+        }
+        if (buffer.getInt(8) != (int) checksum(buffer)) {
+            throw new IllegalArgumentException("Snapshot checksum mismatch");
+        }
+        int count = buffer.getInt(12);
+        long writtenAt = buffer.getLong(16);
+        int settingLength = buffer.getShort(24) & 0xffff;
+        int descriptionsLength = buffer.getInt(26);
+        int settingOffset = HEADER_SIZE + count * RECORD_SIZE;
+        int descriptionsOffset = settingOffset + settingLength;
+        if (count < 0 || descriptionsLength < 0
+                || descriptionsOffset + descriptionsLength != buffer.limit()) {
+            throw new IllegalArgumentException("Snapshot sizes don't add up");
+        }
+        if (writtenAt > now || now - writtenAt >= MAX_AGE_MILLIS) {
+            return null;
+        }
+        if (!locationSetting.equals(getString(buffer, settingOffset, settingLength))) {
+            return null;
+        }
+
+        // The days are in order, so skip the ones before startDate
+        int first = 0;
+        while (first < count && buffer.getLong(HEADER_SIZE + first * RECORD_SIZE) < startDate) {
+            first++;
+        }
+        int days = count - first;
+        if (limit > 0) {
+            days = Math.min(days, limit);
+        }
+        if (days == 0) {
+            return null;
+        }
+        WeatherDataClient.Forecast forecast = new WeatherDataClient.Forecast(days);
+        for (int i = 0; i < days; i++) {
+            int record = HEADER_SIZE + (first + i) * RECORD_SIZE;
+            forecast.dates[i] = buffer.getLong(record);
+            forecast.weatherIds[i] = buffer.getInt(record + 8);
+            forecast.highs[i] = buffer.getFloat(record + 12);
+            forecast.lows[i] = buffer.getFloat(record + 16);
+            int offset = buffer.getInt(record + 20);
+            int length = buffer.getShort(record + 24) & 0xffff;
+            if (offset < 0 || offset + length > descriptionsLength) {
+                throw new IllegalArgumentException("Description out of range");
+            }
+            forecast.descriptions[i] = getString(buffer, descriptionsOffset + offset, length);
+        }
+        return forecast;
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        // CRC32.update(ByteBuffer) needs API 26, so the mapped bytes go through a small array
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[512];
+        ByteBuffer checked = buffer.duplicate();
+        checked.position(CHECKED_OFFSET);
+        while (checked.hasRemaining()) {
+            int length = Math.min(chunk.length, checked.remaining());
+            checked.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static String getString(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
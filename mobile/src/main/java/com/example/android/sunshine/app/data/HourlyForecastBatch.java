@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * The 3-hourly forecast for a single location, in the shape of the hourly table: a time in
+ * seconds and a value packed by {@link WeatherContract.HourlyEntry#pack} per point.
+ * <p/>
+ * Reused across syncs the same way as {@link ForecastBatch}.
+ */
+public class HourlyForecastBatch {
+
+    // OWM returns five days of 3-hourly points
+    private static final int DEFAULT_CAPACITY = 40;
+
+    // Number of valid entries in the arrays below
+    public int count;
+
+    public long[] times;
+    public long[] packed;
+
+    public HourlyForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HourlyForecastBatch(int capacity) {
+        times = new long[capacity];
+        packed = new long[capacity];
+    }
+
+    /**
+     * Forgets the current contents without releasing the backing arrays.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Makes room for one more point and returns its index.  The caller fills in the arrays.
+     */
+    public int append() {
+        if (count == times.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, times.length * 2);
+            times = Arrays.copyOf(times, capacity);
+            packed = Arrays.copyOf(packed, capacity);
+        }
+        return count++;
+    }
+
+    /**
+     * Puts the arrays themselves into a Bundle for
+     * {@link WeatherContract#METHOD_BULK_INSERT_HOURLY}, like {@link ForecastBatch#toBundle}.
+     */
+    public Bundle toBundle(long locationId) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_LOCATION_ID, locationId);
+        extras.putInt(WeatherContract.EXTRA_COUNT, count);
+        extras.putLongArray(WeatherContract.HourlyEntry.COLUMN_TIME, times);
+        extras.putLongArray(WeatherContract.HourlyEntry.COLUMN_PACKED, packed);
+        return extras;
+    }
+
+    /**
+     * The other end of {@link #toBundle}: a batch around the arrays in the Bundle.
+     *
+     * @throws IllegalArgumentException if an array is missing or too short.
+     */
+    public static HourlyForecastBatch fromBundle(Bundle extras) {
+        HourlyForecastBatch batch = new HourlyForecastBatch(0);
+        batch.count = extras.getInt(WeatherContract.EXTRA_COUNT);
+        batch.times = extras.getLongArray(WeatherContract.HourlyEntry.COLUMN_TIME);
+        batch.packed = extras.getLongArray(WeatherContract.HourlyEntry.COLUMN_PACKED);
+        if (batch.times == null || batch.packed == null) {
+            throw new IllegalArgumentException("Incomplete hourly forecast batch");
+        }
+        if (batch.count < 0 || batch.count > Math.min(batch.times.length, batch.packed.length)) {
+            throw new IllegalArgumentException("Hourly forecast batch count " + batch.count
+                    + " doesn't fit its arrays");
+        }
+        return batch;
+    }
+
+    /**
+     * Builds the rows the hourly table expects for this batch.
+     */
+    public ContentValues[] toContentValues(long locationId) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TIME, times[i]);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_PACKED, packed[i]);
+            values[i] = hourlyValues;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Julian day numbers and local midnights in the default time zone, the same ones
+ * android.text.format.Time's getJulianDay() and setJulianDay() give, without a Time per call.
+ * <p/>
+ * Today is cached along with the default time zone, and both are looked up again once a
+ * minute or once today is over.  Code that stores dates calls {@link #reset} before it
+ * starts, so a time zone changed within that minute never makes it into the database.  A
+ * date within today is answered with two comparisons, and any other date with a few
+ * TimeZone.getOffset() calls on the cached zone.  Neither allocates, so a whole forecast can
+ * be normalized without creating any garbage.
+ * <p/>
+ * Dates before 1970 are not supported.
+ */
+public final class JulianDays {
+
+    // The Julian day of January 1st, 1970, as in Time.EPOCH_JULIAN_DAY
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    // How long the cached time zone is used before the default is looked at again
+    static final long ZONE_CHECK_INTERVAL_MILLIS = 60 * 1000L;
+    // No time zone is further from UTC than this
+    private static final long MAX_OFFSET_MILLIS = 14 * 60 * 60 * 1000L;
+
+    /**
+     * Today in the time zone that was the default at zoneCheckedAt: julianDay runs from start
+     * up to end.
+     */
+    private static final class Today {
+        final TimeZone zone;
+        final long zoneCheckedAt;
+        final int julianDay;
+        final long start;
+        final long end;
+
+        Today(TimeZone zone, long zoneCheckedAt, int julianDay, long start, long end) {
+            this.zone = zone;
+            this.zoneCheckedAt = zoneCheckedAt;
+            this.julianDay = julianDay;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static volatile Today sToday;
+
+    private JulianDays() {
+    }
+
+    /**
+     * @return the local Julian day the date falls on, like
+     * Time.getJulianDay(millis, offset of the default time zone at millis).
+     */
+    public static int getJulianDay(long millis) {
+        Today today = getToday();
+        if (millis >= today.start && millis < today.end) {
+            return today.julianDay;
+        }
+        return getJulianDay(today.zone, millis);
+    }
+
+    /**
+     * @return the first moment of the local Julian day, like Time.setJulianDay().  That is
+     * midnight, unless the clocks skipped midnight that day.
+     */
+    public static long getDayStart(int julianDay) {
+        Today today = getToday();
+        if (julianDay == today.julianDay) {
+            return today.start;
+        }
+        return getDayStart(today.zone, julianDay);
+    }
+
+    /**
+     * @return the start of the local day the date falls on; what
+     * {@link WeatherContract#normalizeDate} returns.
+     */
+    public static long normalizeDate(long millis) {
+        Today today = getToday();
+        if (millis >= today.start && millis < today.end) {
+            return today.start;
+        }
+        return getDayStart(today.zone, getJulianDay(today.zone, millis));
+    }
+
+    /**
+     * Forgets today and the time zone, so the next call looks at the default time zone again.
+     */
+    public static void reset() {
+        sToday = null;
+    }
+
+    private static Today getToday() {
+        Today today = sToday;
+        long now = System.currentTimeMillis();
+        if (today != null && now >= today.start && now < today.end
+                && now >= today.zoneCheckedAt
+                && now - today.zoneCheckedAt < ZONE_CHECK_INTERVAL_MILLIS) {
+            return today;
+        }
+        TimeZone zone = TimeZone.getDefault();
+        int julianDay = getJulianDay(zone, now);
+        today = new Today(zone, now, julianDay, getDayStart(zone, julianDay),
+                getDayStart(zone, julianDay + 1));
+        sToday = today;
+        return today;
+    }
+
+    // Time.getJulianDay(), with the offset the zone has at that moment
+    static int getJulianDay(TimeZone zone, long millis) {
+        return (int) ((millis + zone.getOffset(millis)) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * Finds the moment the zone's clocks read midnight of the day.  That is midnight UTC less
+     * the zone's offset, but the offset may be a different one on either side of the day
+     * boundary, so the offsets from 14 hours before and after are both tried.
+     */
+    static long getDayStart(TimeZone zone, int julianDay) {
+        long utcMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        long before = utcMidnight - zone.getOffset(utcMidnight - MAX_OFFSET_MILLIS);
+        long after = utcMidnight - zone.getOffset(utcMidnight + MAX_OFFSET_MILLIS);
+        boolean beforeIsMidnight = utcMidnight - zone.getOffset(before) == before;
+        boolean afterIsMidnight = utcMidnight - zone.getOffset(after) == after;
+        if (beforeIsMidnight && afterIsMidnight) {
+            // Midnight came twice, the day starts with the first
+            return Math.min(before, after);
+        } else if (beforeIsMidnight) {
+            return before;
+        } else if (afterIsMidnight) {
+            return after;
+        }
+        // The clocks skipped midnight, the day starts when they were put forward
+        return Math.max(before, after);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The _id of the location rows the provider has looked up or inserted lately, by location
+ * setting, so a sync doesn't ask the database for the same few ids every time.
+ * <p/>
+ * Holds at most a fixed number of locations and forgets the least recently used one first.  The
+ * provider clears it whenever the location table is updated or deleted from, since it can't
+ * tell which settings that touched.
+ */
+class LocationIdCache {
+
+    // Far more locations than anybody syncs at once
+    static final int MAX_SIZE = 32;
+
+    static final long NOT_CACHED = -1;
+
+    private final Map<String, Long> mIds = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * @return the cached _id of the location, or {@link #NOT_CACHED}.
+     */
+    synchronized long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        return id != null ? id : NOT_CACHED;
+    }
+
+    /**
+     * @return the location setting cached for the _id, or null.
+     */
+    synchronized String getSetting(long id) {
+        // A handful of entries at most, not worth a second map to keep in step
+        for (Map.Entry<String, Long> entry : mIds.entrySet()) {
+            if (entry.getValue() == id) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    synchronized void put(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    synchronized void clear() {
+        mIds.clear();
+    }
+
+    synchronized int size() {
+        return mIds.size();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+/**
+ * Runs the maintenance jobs {@link MaintenanceScheduler} schedules from Lollipop on.  The job
+ * holds a wake lock until jobFinished(), so the maintenance runs on its own thread under it.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        new Thread("MaintenanceJobService") {
+            @Override
+            public void run() {
+                MaintenanceScheduler.runIfDue(MaintenanceJobService.this);
+                jobFinished(params, false);
+            }
+        }.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // A run can't be stopped halfway; the next job finds it due again if it didn't finish
+        return false;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceEntry;
+
+/**
+ * Decides when the database maintenance runs.  It runs at most once a day, and once a day as
+ * well while the phone is idle, meaning charging with the screen off, which is when it vacuums
+ * and checks the database.  The times of the last runs are kept in their own preferences file.
+ * <p/>
+ * {@link #schedule} sets up what starts it, apart from the sync: from Lollipop on a daily job,
+ * and a daily one that waits for the phone to be charging and idle, both run by
+ * {@link MaintenanceJobService}.  Below it an inexact alarm that doesn't wake the phone starts
+ * {@link MaintenanceService} every hour or so, which only runs the maintenance when
+ * {@link #runIfDue} finds it due.
+ */
+public final class MaintenanceScheduler {
+    private static final String LOG_TAG = MaintenanceScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "database_maintenance";
+    private static final String PREF_LAST_RUN = "last_run";
+    private static final String PREF_LAST_IDLE_RUN = "last_idle_run";
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    static final long RUN_INTERVAL_MILLIS = DAY_IN_MILLIS;
+    static final long IDLE_RUN_INTERVAL_MILLIS = DAY_IN_MILLIS;
+
+    // The ids of the jobs, unique within the app
+    static final int JOB_ID_DAILY = 1;
+    static final int JOB_ID_IDLE = 2;
+
+    private MaintenanceScheduler() {
+    }
+
+    /**
+     * Sets up the jobs or the alarm that start the maintenance, unless they are already set
+     * up.  Neither outlives a reboot, so this is called again whenever the app starts or syncs.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Below Honeycomb the provider can't be asked to run it
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJobs(context);
+            return;
+        }
+        Intent intent = new Intent(context, MaintenanceService.class);
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            // Setting it again would put the first run off by another interval
+            return;
+        }
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+                AlarmManager.INTERVAL_HOUR,
+                PendingIntent.getService(context, 0, intent, 0));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJobs(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        boolean dailyPending = false;
+        boolean idlePending = false;
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            dailyPending |= job.getId() == JOB_ID_DAILY;
+            idlePending |= job.getId() == JOB_ID_IDLE;
+        }
+        ComponentName service = new ComponentName(context, MaintenanceJobService.class);
+        if (!dailyPending) {
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_DAILY, service)
+                    .setPeriodic(RUN_INTERVAL_MILLIS)
+                    .build());
+        }
+        if (!idlePending) {
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_IDLE, service)
+                    .setRequiresCharging(true)
+                    .setRequiresDeviceIdle(true)
+                    .setPeriodic(IDLE_RUN_INTERVAL_MILLIS)
+                    .build());
+        }
+    }
+
+    /**
+     * Runs the maintenance if it hasn't run in the last day, or if the phone is idle and it
+     * hasn't run while idle in the last day.  Must not be called from the UI thread.
+     */
+    public static void runIfDue(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        boolean idle = isIdle(context);
+        boolean due = isDue(prefs.getLong(PREF_LAST_RUN, 0), now, RUN_INTERVAL_MILLIS);
+        if (idle) {
+            due |= isDue(prefs.getLong(PREF_LAST_IDLE_RUN, 0), now, IDLE_RUN_INTERVAL_MILLIS);
+        }
+        if (!due) {
+            return;
+        }
+        Bundle run = MaintenanceEntry.run(context.getContentResolver(), idle);
+        if (run == null) {
+            // Below Honeycomb there's nothing to ask
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit().putLong(PREF_LAST_RUN, now);
+        if (idle) {
+            editor.putLong(PREF_LAST_IDLE_RUN, now);
+        }
+        editor.apply();
+        Log.d(LOG_TAG, "Database maintenance took "
+                + run.getLong(MaintenanceEntry.COLUMN_DURATION) + " ms: analyzed "
+                + (run.getInt(MaintenanceEntry.COLUMN_ANALYZED) != 0)
+                + ", idle " + idle + ", " + run.getLong(MaintenanceEntry.COLUMN_VACUUMED_PAGES)
+                + " pages vacuumed, " + run.getLong(MaintenanceEntry.COLUMN_FILE_SIZE)
+                + " bytes with " + run.getLong(MaintenanceEntry.COLUMN_FREE_PAGES)
+                + " free pages, integrity " + run.getString(MaintenanceEntry.COLUMN_INTEGRITY));
+    }
+
+    // A last run in the future means the clock was put back, so it doesn't count
+    private static boolean isDue(long lastRun, long now, long interval) {
+        return lastRun > now || now - lastRun >= interval;
+    }
+
+    private static boolean isIdle(Context context) {
+        return Utility.isCharging(context) && !isInteractive(context);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isInteractive(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return isInteractiveKitKatWatch(powerManager);
+        }
+        return powerManager.isScreenOn();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT_WATCH)
+    private static boolean isInteractiveKitKatWatch(PowerManager powerManager) {
+        return powerManager.isInteractive();
+    }
+}
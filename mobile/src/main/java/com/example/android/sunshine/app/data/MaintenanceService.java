@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+/**
+ * IntentService the maintenance alarm starts below Lollipop, see {@link MaintenanceScheduler}.
+ */
+public class MaintenanceService extends IntentService {
+    public MaintenanceService() {
+        super("MaintenanceService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        MaintenanceScheduler.runIfDue(this);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The URIs changed by one write of the provider, gathered while it runs so observers hear about
+ * them once it's done.
+ * <p/>
+ * Notifying a URI wakes the observers of that URI and of everything under it, and the ones
+ * above it that asked for descendants, as every cursor of the provider does.  So a changed day
+ * is sent as weather/[location]/[date]: that reaches the location's forecast list and that
+ * day's detail view, but not the other days or the other locations.  Several days of the same
+ * location are sent as the location's URI instead, and a URI that's under another one being
+ * sent anyway is left out.
+ */
+class PendingChanges {
+
+    private final Set<Uri> mUris = new LinkedHashSet<>();
+
+    void add(Uri uri) {
+        mUris.add(uri);
+    }
+
+    void addAll(PendingChanges changes) {
+        mUris.addAll(changes.mUris);
+    }
+
+    boolean isEmpty() {
+        return mUris.isEmpty();
+    }
+
+    /**
+     * @return the URIs to notify, each once, in the order they were first added.
+     */
+    List<Uri> collapse() {
+        // How many days of each location changed
+        Map<Uri, Integer> days = new HashMap<>();
+        for (Uri uri : mUris) {
+            Uri location = getLocationOfDay(uri);
+            if (location != null) {
+                Integer count = days.get(location);
+                days.put(location, count == null ? 1 : count + 1);
+            }
+        }
+        Set<Uri> collapsed = new LinkedHashSet<>();
+        for (Uri uri : mUris) {
+            Uri location = getLocationOfDay(uri);
+            collapsed.add(location != null && days.get(location) > 1 ? location : uri);
+        }
+
+        List<Uri> uris = new ArrayList<>(collapsed.size());
+        for (Uri uri : collapsed) {
+            if (!isUnderAnyOf(uri, collapsed)) {
+                uris.add(uri);
+            }
+        }
+        return uris;
+    }
+
+    // weather/[location] for weather/[location]/[date], null for anything else
+    private static Uri getLocationOfDay(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 3 || !WeatherContract.PATH_WEATHER.equals(segments.get(0))
+                || !WeatherContract.CONTENT_AUTHORITY.equals(uri.getAuthority())) {
+            return null;
+        }
+        return WeatherContract.WeatherEntry.buildWeatherLocation(segments.get(1));
+    }
+
+    private static boolean isUnderAnyOf(Uri uri, Set<Uri> others) {
+        List<String> segments = uri.getPathSegments();
+        for (Uri other : others) {
+            List<String> otherSegments = other.getPathSegments();
+            if (otherSegments.size() < segments.size()
+                    && segments.subList(0, otherSegments.size()).equals(otherSegments)
+                    && other.getAuthority().equals(uri.getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The rows of recent forecast queries by location, so the forecast list, the widgets, Muzei
+ * and the notification asking for the same days right after a sync cost no database work.
+ * <p/>
+ * Holds at most a fixed number of bytes, by estimate, and forgets the least recently used
+ * result first.  The provider drops the results a change can have touched as it tells the
+ * observers about it: the location's results for a changed location, the ones that include
+ * the day for a changed day, and everything for anything else.
+ * <p/>
+ * A query that ran while a write was being committed may have read the rows from before it.
+ * So a result is only kept if nothing was dropped since the query started; see
+ * {@link #getGeneration()}.
+ */
+class QueryResultCache {
+
+    // A two-week forecast in the list's columns is about 2 KB
+    static final int MAX_BYTES = 256 * 1024;
+    // Larger results go straight from the database to the caller
+    static final int MAX_ROWS = 512;
+
+    // Everything the provider's answer to a forecast query depends on
+    static final class Key {
+        final int match;
+        final String locationSetting;
+        // The day of a single day, the first day of a location's forecast
+        final long date;
+        final String[] projection;
+        final String sortOrder;
+
+        Key(int match, String locationSetting, long date, String[] projection,
+            String sortOrder) {
+            this.match = match;
+            this.locationSetting = locationSetting;
+            this.date = date;
+            this.projection = projection;
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return match == other.match && date == other.date
+                    && locationSetting.equals(other.locationSetting)
+                    && Arrays.equals(projection, other.projection)
+                    && (sortOrder == null ? other.sortOrder == null
+                    : sortOrder.equals(other.sortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * match + locationSetting.hashCode();
+            result = 31 * result + (int) (date ^ (date >>> 32));
+            result = 31 * result + Arrays.hashCode(projection);
+            return 31 * result + (sortOrder != null ? sortOrder.hashCode() : 0);
+        }
+    }
+
+    static final class Result {
+        final String[] columns;
+        final Object[][] rows;
+        // What the rows hold onto, roughly
+        final int bytes;
+
+        Result(String[] columns, Object[][] rows) {
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = estimateBytes(rows);
+        }
+
+        /**
+         * Reads every row of the cursor.  Cursor.getType() is Honeycomb and higher.
+         */
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        static Result fromCursor(Cursor cursor) {
+            String[] columns = cursor.getColumnNames();
+            Object[][] rows = new Object[cursor.getCount()][];
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                Object[] row = new Object[columns.length];
+                for (int column = 0; column < columns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[column] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[column] = cursor.getBlob(column);
+                            break;
+                        default:
+                            row[column] = null;
+                    }
+                }
+                rows[i] = row;
+            }
+            return new Result(columns, rows);
+        }
+
+        /**
+         * @return a new cursor over the rows, which the caller may move and close as it likes.
+         */
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        private static int estimateBytes(Object[][] rows) {
+            // The result, the key and the map entry
+            int bytes = 128;
+            for (Object[] row : rows) {
+                bytes += 16 + 4 * row.length;
+                for (Object value : row) {
+                    if (value instanceof String) {
+                        bytes += 40 + 2 * ((String) value).length();
+                    } else if (value instanceof byte[]) {
+                        bytes += 16 + ((byte[]) value).length;
+                    } else if (value != null) {
+                        bytes += 16;
+                    }
+                }
+            }
+            return bytes;
+        }
+    }
+
+    private final int mMaxBytes;
+    private final Map<Key, Result> mResults = new LinkedHashMap<>(16, 0.75f, true);
+    private int mBytes;
+    private long mGeneration;
+    private int mHits;
+    private int mMisses;
+
+    QueryResultCache() {
+        this(MAX_BYTES);
+    }
+
+    QueryResultCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the result, or null if it has to be queried.
+     */
+    synchronized Result get(Key key) {
+        Result result = mResults.get(key);
+        if (result != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return result;
+    }
+
+    /**
+     * Changes every time results are dropped.  Read it before running the query whose result
+     * is handed to {@link #put}.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Keeps the result, unless results were dropped since generation was read: the query may
+     * have missed the change they were dropped for.
+     */
+    synchronized void put(Key key, Result result, long generation) {
+        if (generation != mGeneration || result.bytes > mMaxBytes / 4) {
+            return;
+        }
+        Result old = mResults.put(key, result);
+        if (old != null) {
+            mBytes -= old.bytes;
+        }
+        mBytes += result.bytes;
+        Iterator<Result> eldest = mResults.values().iterator();
+        while (mBytes > mMaxBytes) {
+            mBytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the results of the location that could include the day.
+     *
+     * @param date the changed day, or -1 if any of the location's days may have changed.
+     */
+    synchronized void invalidate(String locationSetting, long date) {
+        mGeneration++;
+        Iterator<Map.Entry<Key, Result>> entries = mResults.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Result> entry = entries.next();
+            Key key = entry.getKey();
+            if (key.locationSetting.equals(locationSetting) && (date < 0
+                    || (key.match == WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE
+                    ? key.date == date : key.date <= date))) {
+                mBytes -= entry.getValue().bytes;
+                entries.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mResults.clear();
+        mBytes = 0;
+    }
+
+    synchronized int size() {
+        return mResults.size();
+    }
+
+    synchronized int getSizeBytes() {
+        return mBytes;
+    }
+
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    synchronized int getMissCount() {
+        return mMisses;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves days out of the weather table into {@link ArchiveEntry} and reads them back.  The days
+ * of a month are read, merged with what the archive already has for it and written back as one
+ * block, so each location has one row per month however often days are added.
+ * <p/>
+ * The methods that write expect to run inside the caller's transaction, together with the
+ * delete of the days they archive.
+ */
+class WeatherArchive {
+    private static final String LOG_TAG = WeatherArchive.class.getSimpleName();
+
+    // The weather columns a block keeps, in the order readDays() reads them
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    //location_id = ? AND date < ?
+    private static final String sLocationBeforeSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    //location_id = ? AND month = ?
+    private static final String sLocationMonthSelection =
+            ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_MONTH + " = ?";
+
+    //location_id = ? AND month >= ? AND month <= ?
+    private static final String sLocationMonthRangeSelection =
+            ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_MONTH + " >= ? AND "
+                    + ArchiveEntry.COLUMN_MONTH + " <= ?";
+
+    //location_id NOT IN (SELECT _id FROM location)
+    private static final String sDeletedLocationSelection =
+            ArchiveEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " + LocationEntry._ID + " FROM "
+                    + LocationEntry.TABLE_NAME + ")";
+
+    //month < ? OR location_id NOT IN (SELECT _id FROM location)
+    private static final String sDropSelection =
+            ArchiveEntry.COLUMN_MONTH + " < ? OR " + sDeletedLocationSelection;
+
+    // Months, days and bytes per location and year
+    private static final String STORAGE_QUERY = "SELECT "
+            + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+            + ArchiveEntry.COLUMN_MONTH + " / 100 AS " + ArchiveEntry.COLUMN_YEAR + ", "
+            + "COUNT(*) AS " + ArchiveEntry.COLUMN_MONTHS + ", "
+            + "SUM(" + ArchiveEntry.COLUMN_DAYS + ") AS " + ArchiveEntry.COLUMN_DAYS + ", "
+            + "SUM(LENGTH(" + ArchiveEntry.COLUMN_DATA + ")) AS " + ArchiveEntry.COLUMN_BYTES
+            + " FROM " + ArchiveEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME
+            + " ON " + ArchiveEntry.TABLE_NAME + "." + ArchiveEntry.COLUMN_LOC_KEY + " = "
+            + LocationEntry.TABLE_NAME + "." + LocationEntry._ID
+            + " GROUP BY " + ArchiveEntry.TABLE_NAME + "." + ArchiveEntry.COLUMN_LOC_KEY + ", "
+            + ArchiveEntry.COLUMN_YEAR
+            + " ORDER BY " + LocationEntry.COLUMN_LOCATION_SETTING + ", " + ArchiveEntry.COLUMN_YEAR;
+
+    /**
+     * What {@link #compact} did.
+     */
+    static final class CompactCounts {
+        int archived;
+        int dropped;
+        // The locations whose days were moved
+        final List<Long> locationIds = new ArrayList<>();
+    }
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Copies the location's days before the given date into the archive.  The caller deletes
+     * them from the weather table.
+     *
+     * @param before a normalized date.
+     * @return the number of days archived.
+     */
+    static int archive(SQLiteDatabase db, long locationId, long before) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS,
+                sLocationBeforeSelection,
+                new String[]{Long.toString(locationId), Long.toString(before)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        ForecastBatch days;
+        try {
+            days = readDays(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        // One block per month, written once
+        ForecastBatch month = new ForecastBatch();
+        for (int i = 0; i < days.count; i++) {
+            month.appendFrom(days, i);
+            if (i + 1 == days.count
+                    || ArchiveBlock.getMonth(days.dates[i + 1])
+                    != ArchiveBlock.getMonth(days.dates[i])) {
+                writeMonth(db, locationId, ArchiveBlock.getMonth(days.dates[i]), month);
+                month.clear();
+            }
+        }
+        return days.count;
+    }
+
+    /**
+     * Moves the days before keepFrom of every location into the archive, and drops the
+     * archived months before archiveSince and those of locations that no longer exist.
+     *
+     * @param keepFrom a normalized date.
+     */
+    static CompactCounts compact(SQLiteDatabase db, long keepFrom, long archiveSince) {
+        CompactCounts counts = new CompactCounts();
+        Cursor cursor = db.query(true, WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY},
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(keepFrom)},
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                counts.locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (long locationId : counts.locationIds) {
+            counts.archived += archive(db, locationId, keepFrom);
+            db.delete(WeatherEntry.TABLE_NAME, sLocationBeforeSelection,
+                    new String[]{Long.toString(locationId), Long.toString(keepFrom)});
+        }
+        counts.dropped = db.delete(ArchiveEntry.TABLE_NAME, sDropSelection,
+                new String[]{Integer.toString(ArchiveBlock.getMonth(archiveSince))});
+        return counts;
+    }
+
+    /**
+     * Drops the archived months of locations that no longer exist.
+     *
+     * @return the number of months dropped.
+     */
+    static int dropDeletedLocations(SQLiteDatabase db) {
+        return db.delete(ArchiveEntry.TABLE_NAME, sDeletedLocationSelection, null);
+    }
+
+    /**
+     * Reads the archived days of a location from start, inclusive, to end, exclusive, oldest
+     * first.
+     *
+     * @param projection columns of {@link ArchiveEntry#DAY_COLUMNS}, or null for all of them.
+     * @throws IllegalArgumentException if the projection asks for any other column.
+     */
+    static Cursor query(SQLiteDatabase db, long locationId, long start, long end,
+                        String[] projection) {
+        String[] columns = projection != null ? projection : ArchiveEntry.DAY_COLUMNS;
+        int[] indices = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indices[i] = indexOf(ArchiveEntry.DAY_COLUMNS, columns[i]);
+            if (indices[i] < 0) {
+                throw new IllegalArgumentException("Unknown archive column " + columns[i]);
+            }
+        }
+        MatrixCursor result = new MatrixCursor(columns);
+        if (locationId == -1 || start >= end) {
+            return result;
+        }
+
+        // The dates at either end of the range of longs would overflow getMonth()
+        int firstMonth = start > 0 ? ArchiveBlock.getMonth(start) : 0;
+        int lastMonth = end < Long.MAX_VALUE / 2 ? ArchiveBlock.getMonth(end - 1) : Integer.MAX_VALUE;
+        Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, new String[]{ArchiveEntry.COLUMN_DATA},
+                sLocationMonthRangeSelection,
+                new String[]{Long.toString(locationId), Integer.toString(firstMonth),
+                        Integer.toString(lastMonth)},
+                null, null, ArchiveEntry.COLUMN_MONTH + " ASC");
+        ForecastBatch days = new ForecastBatch();
+        try {
+            while (cursor.moveToNext()) {
+                decode(cursor.getBlob(0), days);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < days.count; i++) {
+            if (days.dates[i] < start || days.dates[i] >= end) {
+                continue;
+            }
+            for (int column = 0; column < columns.length; column++) {
+                row[column] = getValue(days, i, indices[column]);
+            }
+            result.addRow(row);
+        }
+        return result;
+    }
+
+    /**
+     * @return the size of the archive per location and year, see
+     * {@link ArchiveEntry#COLUMN_BYTES}.
+     */
+    static Cursor queryStorage(SQLiteDatabase db) {
+        return db.rawQuery(STORAGE_QUERY, null);
+    }
+
+    private static void writeMonth(SQLiteDatabase db, long locationId, int month,
+                                   ForecastBatch days) {
+        String[] selectionArgs = {Long.toString(locationId), Integer.toString(month)};
+        Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, new String[]{ArchiveEntry.COLUMN_DATA},
+                sLocationMonthSelection, selectionArgs, null, null, null);
+        ForecastBatch stored = new ForecastBatch();
+        try {
+            if (cursor.moveToFirst()) {
+                decode(cursor.getBlob(0), stored);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ForecastBatch merged = ArchiveBlock.merge(stored, days);
+        ContentValues values = new ContentValues();
+        values.put(ArchiveEntry.COLUMN_LOC_KEY, locationId);
+        values.put(ArchiveEntry.COLUMN_MONTH, month);
+        values.put(ArchiveEntry.COLUMN_DAYS, merged.count);
+        values.put(ArchiveEntry.COLUMN_DATA, ArchiveBlock.encode(merged));
+        // The table replaces the row on conflict
+        if (db.insert(ArchiveEntry.TABLE_NAME, null, values) == -1) {
+            throw new android.database.SQLException("Failed to archive month " + month
+                    + " of location " + locationId);
+        }
+    }
+
+    // A block that can't be read is left out rather than failing every query that touches it,
+    // and is overwritten the next time days of its month come in
+    private static void decode(byte[] data, ForecastBatch into) {
+        int count = into.count;
+        try {
+            ArchiveBlock.decode(data, into);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Skipping an unreadable archive block", e);
+            into.count = count;
+        }
+    }
+
+    private static ForecastBatch readDays(Cursor cursor) {
+        ForecastBatch days = new ForecastBatch(cursor.getCount());
+        while (cursor.moveToNext()) {
+            int day = days.append();
+            days.dates[day] = cursor.getLong(0);
+            days.weatherId[day] = cursor.getInt(1);
+            days.high[day] = cursor.getDouble(2);
+            days.low[day] = cursor.getDouble(3);
+            days.humidity[day] = Math.round(cursor.getFloat(4));
+            days.pressure[day] = cursor.getDouble(5);
+            days.windSpeed[day] = cursor.getDouble(6);
+            days.windDirection[day] = cursor.getDouble(7);
+        }
+        return days;
+    }
+
+    // In the order of ArchiveEntry.DAY_COLUMNS
+    private static Object getValue(ForecastBatch days, int day, int column) {
+        switch (column) {
+            case 0:
+                return days.dates[day];
+            case 1:
+                return days.weatherId[day];
+            case 2:
+                return days.high[day];
+            case 3:
+                return days.low[day];
+            case 4:
+                return days.humidity[day];
+            case 5:
+                return days.pressure[day];
+            case 6:
+                return days.windSpeed[day];
+            default:
+                return days.windDirection[day];
+        }
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -15,11 +15,21 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.ArrayList;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +53,145 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_MAINTENANCE = "maintenance";
+
+    // Methods of ContentResolver.call() that insert a whole forecast batch, handed over as
+    // primitive arrays.  The extras are made by ForecastBatch.toBundle() and
+    // HourlyForecastBatch.toBundle(), the result holds the number of rows inserted.
+    public static final String METHOD_BULK_INSERT_WEATHER = "bulk_insert_weather";
+    public static final String METHOD_BULK_INSERT_HOURLY = "bulk_insert_hourly";
+    public static final String EXTRA_LOCATION_ID = "location_id";
+    public static final String EXTRA_COUNT = "count";
+
+    // Method of ContentResolver.call() that checkpoints the database's write-ahead log, for a
+    // sync to call once it's done writing.  The result says whether the whole log made it.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+    public static final String EXTRA_CHECKPOINTED = "checkpointed";
+
+    // Method of ContentResolver.call() that replaces a location's forecast in one transaction:
+    // the days in the batch are inserted or updated, the location's days before EXTRA_KEEP_FROM
+    // are dropped, and observers hear about it once.  The extras are made by
+    // ForecastBatch.toBundle() plus EXTRA_KEEP_FROM, the result holds the three counts.
+    public static final String METHOD_REPLACE_FORECAST_WINDOW = "replace_forecast_window";
+    public static final String EXTRA_KEEP_FROM = "keep_from";
+    public static final String EXTRA_INSERTED = "inserted";
+    public static final String EXTRA_UPDATED = "updated";
+    public static final String EXTRA_PURGED = "purged";
+
+    // Method of ContentResolver.call() that returns the _id of a location, inserting it first if
+    // it isn't stored yet.  The extras hold the location's columns, the result its
+    // EXTRA_LOCATION_ID.
+    public static final String METHOD_UPSERT_LOCATION = "upsert_location";
+
+    // Method of ContentResolver.call() that reads a location's daily forecast as primitive
+    // arrays, for readers that want a few numbers rather than a Cursor.  The arg is the
+    // location setting, the extras hold EXTRA_START_DATE and optionally EXTRA_LIMIT, and the
+    // result is made by WeatherDataClient.Forecast.toBundle().  Use WeatherDataClient.
+    public static final String METHOD_GET_FORECAST = "get_forecast";
+    public static final String EXTRA_START_DATE = "start_date";
+    public static final String EXTRA_LIMIT = "limit";
+
+    // Method of ContentResolver.call() that returns, as EXTRA_COUNT, how many change
+    // notifications the provider has sent since it was created.  Each one wakes every observer
+    // of the URI it was sent for.
+    public static final String METHOD_GET_NOTIFICATION_COUNT = "notification_count";
+
+    // Method of ContentResolver.call() that returns how the provider's cache of forecast query
+    // results is doing: EXTRA_HITS and EXTRA_MISSES since the provider was created, and the
+    // results it holds now as EXTRA_COUNT and their estimated size as EXTRA_BYTES.
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "query_cache_stats";
+    public static final String EXTRA_HITS = "hits";
+    public static final String EXTRA_MISSES = "misses";
+    public static final String EXTRA_BYTES = "bytes";
+
+    // Method of ContentResolver.call() that compacts the archive: the days of every location
+    // before EXTRA_KEEP_FROM move from the weather table into the archive, and the archive's
+    // months before EXTRA_ARCHIVE_SINCE, and those of locations that are gone, are dropped.
+    // The result holds the days moved as EXTRA_ARCHIVED and the months dropped as
+    // EXTRA_DROPPED.  Use ArchiveEntry.compact().
+    public static final String METHOD_COMPACT_ARCHIVE = "compact_archive";
+    public static final String EXTRA_ARCHIVE_SINCE = "archive_since";
+    public static final String EXTRA_ARCHIVED = "archived";
+    public static final String EXTRA_DROPPED = "dropped";
+
+    // Method of ContentResolver.call() that runs the database maintenance: ANALYZE if the
+    // tables grew or shrank enough since the last one, and with EXTRA_IDLE an incremental
+    // vacuum and an integrity check too.  Each run is recorded in MaintenanceEntry, and the
+    // result holds its row under the MaintenanceEntry column names.  Use MaintenanceEntry.run().
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+    public static final String EXTRA_IDLE = "idle";
+
+    /**
+     * Hands a batch to the provider through ContentResolver.call(), which has no ContentValues
+     * to build or unbox.  ContentResolver.call() is Honeycomb and higher.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int callBulkInsert(ContentResolver resolver, String method, Bundle extras) {
+        Bundle result = resolver.call(BASE_CONTENT_URI, method, null, extras);
+        return result != null ? result.getInt(EXTRA_COUNT) : 0;
+    }
+
+    /**
+     * Asks the provider to copy what the write-ahead log holds back into the database.  Below
+     * Honeycomb there is no write-ahead log and this does nothing.
+     *
+     * @return false if readers kept part of the log from being checkpointed.
+     */
+    public static boolean checkpoint(ContentResolver resolver) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return true;
+        }
+        return callCheckpoint(resolver);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean callCheckpoint(ContentResolver resolver) {
+        Bundle result = resolver.call(BASE_CONTENT_URI, METHOD_CHECKPOINT, null, null);
+        return result == null || result.getBoolean(EXTRA_CHECKPOINTED, true);
+    }
+
+    /**
+     * How many change notifications the provider has sent so far; the difference between two
+     * calls is what the writes in between woke observers up for.
+     *
+     * @return the count, or -1 below Honeycomb, where the provider can't be asked.
+     */
+    public static int getNotificationCount(ContentResolver resolver) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return -1;
+        }
+        return callGetNotificationCount(resolver);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int callGetNotificationCount(ContentResolver resolver) {
+        Bundle result = resolver.call(BASE_CONTENT_URI, METHOD_GET_NOTIFICATION_COUNT, null, null);
+        return result != null ? result.getInt(EXTRA_COUNT) : -1;
+    }
+
+    /**
+     * @return the counts of {@link #METHOD_GET_QUERY_CACHE_STATS}, or null below Honeycomb,
+     * where the provider has no cache and can't be asked.
+     */
+    public static Bundle getQueryCacheStats(ContentResolver resolver) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        return callGetQueryCacheStats(resolver);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle callGetQueryCacheStats(ContentResolver resolver) {
+        return resolver.call(BASE_CONTENT_URI, METHOD_GET_QUERY_CACHE_STATS, null, null);
+    }
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their local Julian day.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return JulianDays.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -84,6 +224,55 @@ public class WeatherContract {
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * Returns the _id of the location with the given setting, and inserts it first if it
+         * isn't stored yet.  A location that is already stored is left as it is.
+         * <p/>
+         * On Honeycomb and higher this is one call to the provider, which remembers the ids of
+         * the locations it has seen.  Below that it is a query and, for a new location, an
+         * insert.
+         *
+         * @param cityName only needed if the location may not be stored yet.
+         */
+        public static long upsert(ContentResolver resolver, String locationSetting,
+                                  String cityName, double lat, double lon) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                Bundle extras = new Bundle();
+                extras.putString(COLUMN_LOCATION_SETTING, locationSetting);
+                extras.putString(COLUMN_CITY_NAME, cityName);
+                extras.putDouble(COLUMN_COORD_LAT, lat);
+                extras.putDouble(COLUMN_COORD_LONG, lon);
+                return callUpsert(resolver, extras);
+            }
+
+            Cursor locationCursor = resolver.query(
+                    CONTENT_URI,
+                    new String[]{_ID},
+                    COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting},
+                    null);
+            try {
+                if (locationCursor.moveToFirst()) {
+                    return locationCursor.getLong(0);
+                }
+            } finally {
+                locationCursor.close();
+            }
+
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(COLUMN_CITY_NAME, cityName);
+            locationValues.put(COLUMN_LOCATION_SETTING, locationSetting);
+            locationValues.put(COLUMN_COORD_LAT, lat);
+            locationValues.put(COLUMN_COORD_LONG, lon);
+            return ContentUris.parseId(resolver.insert(CONTENT_URI, locationValues));
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static long callUpsert(ContentResolver resolver, Bundle extras) {
+            Bundle result = resolver.call(BASE_CONTENT_URI, METHOD_UPSERT_LOCATION, null, extras);
+            return result.getLong(EXTRA_LOCATION_ID);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -130,6 +319,85 @@ public class WeatherContract {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /**
+         * Writes a location's new forecast and drops its days before keepFrom, all in one
+         * transaction with a single change notification, so nobody sees half of it.  Days that
+         * are already stored are updated in place.
+         * <p/>
+         * On Honeycomb and higher this is {@link #METHOD_REPLACE_FORECAST_WINDOW}.  Below that
+         * it is one applyBatch() that replaces the days instead of updating them, so their _ID
+         * changes.
+         *
+         * @param batch    the days to write.  May be empty, to only drop the old days.
+         * @param keepFrom the first day to keep, in milliseconds.
+         * @return a Bundle with {@link #EXTRA_INSERTED}, {@link #EXTRA_UPDATED} and
+         * {@link #EXTRA_PURGED}.
+         * @throws android.database.SQLException if the forecast couldn't be written.
+         */
+        public static Bundle replaceForecastWindow(ContentResolver resolver, long locationId,
+                                                   ForecastBatch batch, long keepFrom) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                Bundle extras = batch.toBundle(locationId);
+                extras.putLong(EXTRA_KEEP_FROM, keepFrom);
+                return callReplaceForecastWindow(resolver, extras);
+            }
+
+            String location = Long.toString(locationId);
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>();
+            ContentValues[] values = batch.toContentValues(locationId);
+            for (int i = 0; i < batch.count; i++) {
+                operations.add(ContentProviderOperation.newDelete(CONTENT_URI)
+                        .withSelection(COLUMN_LOC_KEY + " = ? AND " + COLUMN_DATE + " = ?",
+                                new String[]{location, Long.toString(normalizeDate(batch.dates[i]))})
+                        .build());
+                operations.add(ContentProviderOperation.newInsert(CONTENT_URI)
+                        .withValues(values[i])
+                        .build());
+            }
+            operations.add(ContentProviderOperation.newDelete(CONTENT_URI)
+                    .withSelection(COLUMN_LOC_KEY + " = ? AND " + COLUMN_DATE + " < ?",
+                            new String[]{location, Long.toString(normalizeDate(keepFrom))})
+                    .build());
+
+            ContentProviderResult[] results;
+            try {
+                results = resolver.applyBatch(CONTENT_AUTHORITY, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                throw new android.database.SQLException(
+                        "Failed to replace the forecast of location " + locationId + ": " + e);
+            }
+            int replaced = 0;
+            for (int i = 0; i < batch.count; i++) {
+                replaced += results[2 * i].count;
+            }
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_INSERTED, batch.count - replaced);
+            result.putInt(EXTRA_UPDATED, replaced);
+            result.putInt(EXTRA_PURGED, results[results.length - 1].count);
+            return result;
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Bundle callReplaceForecastWindow(ContentResolver resolver, Bundle extras) {
+            return resolver.call(BASE_CONTENT_URI, METHOD_REPLACE_FORECAST_WINDOW, null, extras);
+        }
+
+        /**
+         * Inserts a parsed forecast for a location without turning it into ContentValues first,
+         * except before Honeycomb where it goes through bulkInsert().
+         *
+         * @return the number of rows inserted.
+         */
+        public static int bulkInsert(ContentResolver resolver, long locationId,
+                                     ForecastBatch batch) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return callBulkInsert(resolver, METHOD_BULK_INSERT_WEATHER,
+                        batch.toBundle(locationId));
+            }
+            return resolver.bulkInsert(CONTENT_URI, batch.toContentValues(locationId));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -165,4 +433,384 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the hourly table: the 3-hourly forecast,
+        one row per point in time per location.  Everything but the key is packed into a single
+        INTEGER column, see pack().
+     */
+    public static final class HourlyEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Time of the forecast point, stored as long in seconds (not milliseconds) since the
+        // epoch, which keeps the key small on disk
+        public static final String COLUMN_TIME = "time";
+        // Weather id, temperature, humidity, pressure, wind speed and direction, see pack()
+        public static final String COLUMN_PACKED = "packed";
+
+        // Query parameters of the range and retention URIs, in seconds since the epoch
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+        public static final String PARAM_BEFORE = "before";
+
+        // Bit layout of the packed column, lowest bits first.  Each field is stored as an
+        // unsigned integer: the value divided by its step, minus its minimum.
+        private static final int WEATHER_ID_BITS = 10;
+        private static final int TEMPERATURE_BITS = 11;
+        private static final int HUMIDITY_BITS = 7;
+        private static final int PRESSURE_BITS = 12;
+        private static final int WIND_SPEED_BITS = 10;
+        private static final int DEGREES_BITS = 9;
+
+        private static final int TEMPERATURE_SHIFT = WEATHER_ID_BITS;
+        private static final int HUMIDITY_SHIFT = TEMPERATURE_SHIFT + TEMPERATURE_BITS;
+        private static final int PRESSURE_SHIFT = HUMIDITY_SHIFT + HUMIDITY_BITS;
+        private static final int WIND_SPEED_SHIFT = PRESSURE_SHIFT + PRESSURE_BITS;
+        private static final int DEGREES_SHIFT = WIND_SPEED_SHIFT + WIND_SPEED_BITS;
+
+        // Temperatures in tenths of a degree from -102.4, pressure in tenths of a hPa from
+        // 800 hPa, wind speed in tenths of a m/s.  Values outside the range are clamped.
+        private static final double TEMPERATURE_STEP = 0.1;
+        private static final int TEMPERATURE_OFFSET = 1 << (TEMPERATURE_BITS - 1);
+        private static final double PRESSURE_STEP = 0.1;
+        private static final int PRESSURE_OFFSET = 8000;
+        private static final double WIND_SPEED_STEP = 0.1;
+
+        /**
+         * Inserts a parsed 3-hourly forecast for a location, see
+         * {@link WeatherEntry#bulkInsert(ContentResolver, long, ForecastBatch)}.
+         *
+         * @return the number of rows inserted.
+         */
+        public static int bulkInsert(ContentResolver resolver, long locationId,
+                                     HourlyForecastBatch batch) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return callBulkInsert(resolver, METHOD_BULK_INSERT_HOURLY,
+                        batch.toBundle(locationId));
+            }
+            return resolver.bulkInsert(CONTENT_URI, batch.toContentValues(locationId));
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @param start Start of the range in milliseconds since the epoch, inclusive.
+         * @param end   End of the range in milliseconds since the epoch, exclusive.
+         */
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long start,
+                                                       long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(start / 1000))
+                    .appendQueryParameter(PARAM_END, Long.toString(end / 1000)).build();
+        }
+
+        /**
+         * Deleting this URI drops every point, of every location, from before the given time.
+         *
+         * @param keepFrom Milliseconds since the epoch.
+         */
+        public static Uri buildHourlyRetentionUri(long keepFrom) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_BEFORE, Long.toString(keepFrom / 1000)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the value of a time query parameter in seconds, or the given default if the
+         * URI doesn't have it.
+         */
+        public static long getTimeFromUri(Uri uri, String parameter, long defaultValue) {
+            String timeString = uri.getQueryParameter(parameter);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return defaultValue;
+        }
+
+        /**
+         * Packs the values of one forecast point into the value of {@link #COLUMN_PACKED}.
+         * Temperatures are expected in Celsius, pressure in hPa and wind speed in m/s, which is
+         * what the sync adapter asks OWM for.
+         */
+        public static long pack(int weatherId, double temperature, int humidity, double pressure,
+                                double windSpeed, double degrees) {
+            return field(weatherId, WEATHER_ID_BITS)
+                    | field(Math.round(temperature / TEMPERATURE_STEP) + TEMPERATURE_OFFSET,
+                    TEMPERATURE_BITS) << TEMPERATURE_SHIFT
+                    | field(humidity, HUMIDITY_BITS) << HUMIDITY_SHIFT
+                    | field(Math.round(pressure / PRESSURE_STEP) - PRESSURE_OFFSET,
+                    PRESSURE_BITS) << PRESSURE_SHIFT
+                    | field(Math.round(windSpeed / WIND_SPEED_STEP), WIND_SPEED_BITS)
+                    << WIND_SPEED_SHIFT
+                    | field(Math.round(degrees) % 360, DEGREES_BITS) << DEGREES_SHIFT;
+        }
+
+        public static int getWeatherId(long packed) {
+            return (int) unpack(packed, 0, WEATHER_ID_BITS);
+        }
+
+        public static double getTemperature(long packed) {
+            return (unpack(packed, TEMPERATURE_SHIFT, TEMPERATURE_BITS) - TEMPERATURE_OFFSET)
+                    * TEMPERATURE_STEP;
+        }
+
+        public static int getHumidity(long packed) {
+            return (int) unpack(packed, HUMIDITY_SHIFT, HUMIDITY_BITS);
+        }
+
+        public static double getPressure(long packed) {
+            return (unpack(packed, PRESSURE_SHIFT, PRESSURE_BITS) + PRESSURE_OFFSET)
+                    * PRESSURE_STEP;
+        }
+
+        public static double getWindSpeed(long packed) {
+            return unpack(packed, WIND_SPEED_SHIFT, WIND_SPEED_BITS) * WIND_SPEED_STEP;
+        }
+
+        public static double getDegrees(long packed) {
+            return unpack(packed, DEGREES_SHIFT, DEGREES_BITS);
+        }
+
+        // Clamps a value to what fits in the given number of bits
+        private static long field(long value, int bits) {
+            return Math.max(0, Math.min((1L << bits) - 1, value));
+        }
+
+        private static long unpack(long packed, int shift, int bits) {
+            return (packed >>> shift) & ((1L << bits) - 1);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the summary table: one row per location
+        with what the widgets, Muzei, the notification and the watch show, today's and
+        tomorrow's forecast and the extremes of the coming week and fortnight.  The provider
+        keeps it up to date in the same transaction as every write to the weather table, so
+        reading it is a lookup of one row by its primary key.
+     */
+    public static final class SummaryEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SUMMARY).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        public static final String TABLE_NAME = "weather_summary";
+
+        // Column with the foreign key into the location table, and the primary key.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The day the summary starts at, today when it was written.  A summary from an earlier
+        // day is brought up to date when it is read.
+        public static final String COLUMN_DATE = "date";
+
+        // Today's forecast, as in the weather table.  NULL if today isn't stored.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MIN_TEMP = "min";
+
+        // Tomorrow's forecast.  NULL if tomorrow isn't stored.
+        public static final String COLUMN_TOMORROW_WEATHER_ID = "tomorrow_weather_id";
+        public static final String COLUMN_TOMORROW_SHORT_DESC = "tomorrow_short_desc";
+        public static final String COLUMN_TOMORROW_MAX_TEMP = "tomorrow_max";
+        public static final String COLUMN_TOMORROW_MIN_TEMP = "tomorrow_min";
+
+        // Highest high and lowest low of the stored days among the 7 and 14 from COLUMN_DATE
+        public static final String COLUMN_WEEK_MAX_TEMP = "week_max";
+        public static final String COLUMN_WEEK_MIN_TEMP = "week_min";
+        public static final String COLUMN_FORTNIGHT_MAX_TEMP = "fortnight_max";
+        public static final String COLUMN_FORTNIGHT_MIN_TEMP = "fortnight_min";
+
+        // How many of the 14 days from COLUMN_DATE are stored
+        public static final String COLUMN_DAYS = "days";
+
+        /**
+         * Querying this URI returns the location's summary, or no rows if none of the next 14
+         * days of the location is stored.  The cursor is notified along with the location's
+         * weather URI.
+         */
+        public static Uri buildSummaryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the archive of past days: the days that roll out of the weather
+        table are kept here, one row per location and month, with the days of the month encoded
+        into a single BLOB by ArchiveBlock.  The archive is read through the provider, which
+        decodes the days of a location as rows with the weather table's column names.
+     */
+    public static final class ArchiveEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The month of the block as year * 100 + month, e.g. 201512, see ArchiveBlock.getMonth()
+        public static final String COLUMN_MONTH = "month";
+        // How many days the block holds
+        public static final String COLUMN_DAYS = "days";
+        // The encoded days, see ArchiveBlock
+        public static final String COLUMN_DATA = "data";
+
+        // The columns of the storage report CONTENT_URI answers with, one row per location and
+        // year, along with LocationEntry.COLUMN_LOCATION_SETTING, COLUMN_DAYS and the number of
+        // months
+        public static final String COLUMN_YEAR = "year";
+        public static final String COLUMN_MONTHS = "months";
+        public static final String COLUMN_BYTES = "bytes";
+
+        // Query parameters of the range URI, in milliseconds since the epoch
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        // The columns the days of a location come back with.  There is no _ID and no
+        // description; the weather id has to do.
+        public static final String[] DAY_COLUMNS = {
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_DEGREES
+        };
+
+        /**
+         * Moves the days before keepFrom, of every location, into the archive and drops the
+         * archived months before archiveSince.  The sync does this for its locations as it
+         * goes; this catches the days of the locations it no longer asks for, and keeps the
+         * archive from growing without end.
+         *
+         * @return a Bundle with {@link #EXTRA_ARCHIVED} and {@link #EXTRA_DROPPED}, or null
+         * below Honeycomb, where the provider can't be asked.
+         */
+        public static Bundle compact(ContentResolver resolver, long keepFrom, long archiveSince) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                return null;
+            }
+            Bundle extras = new Bundle();
+            extras.putLong(EXTRA_KEEP_FROM, keepFrom);
+            extras.putLong(EXTRA_ARCHIVE_SINCE, archiveSince);
+            return callCompact(resolver, extras);
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Bundle callCompact(ContentResolver resolver, Bundle extras) {
+            return resolver.call(BASE_CONTENT_URI, METHOD_COMPACT_ARCHIVE, null, extras);
+        }
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @param start Start of the range in milliseconds since the epoch, inclusive.
+         * @param end   End of the range in milliseconds since the epoch, exclusive.
+         */
+        public static Uri buildArchiveLocationWithRange(String locationSetting, long start,
+                                                        long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(start))
+                    .appendQueryParameter(PARAM_END, Long.toString(end)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the value of a date query parameter, or the given default if the URI doesn't
+         * have it.
+         */
+        public static long getDateFromUri(Uri uri, String parameter, long defaultValue) {
+            String dateString = uri.getQueryParameter(parameter);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return defaultValue;
+        }
+    }
+
+    /*
+        The runs of the database maintenance, one row each, for keeping an eye on how the
+        database file holds up over time.  Only the most recent runs are kept.
+     */
+    public static final class MaintenanceEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_MAINTENANCE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MAINTENANCE;
+
+        public static final String TABLE_NAME = "maintenance";
+
+        // When the run started, in milliseconds since the epoch, and how long it took in
+        // milliseconds
+        public static final String COLUMN_STARTED = "started";
+        public static final String COLUMN_DURATION = "duration";
+        // 1 if the run updated the planner's statistics with ANALYZE
+        public static final String COLUMN_ANALYZED = "analyzed";
+        // 1 if the phone was idle, so the run vacuumed and checked the database
+        public static final String COLUMN_IDLE = "idle";
+        // How many pages the database file shrank by
+        public static final String COLUMN_VACUUMED_PAGES = "vacuumed_pages";
+        // "ok", or the first problem PRAGMA quick_check found.  NULL if the run didn't check.
+        public static final String COLUMN_INTEGRITY = "integrity";
+        // The database after the run: its file and write-ahead log in bytes, the size of a
+        // page, the pages in the file and how many of them are free
+        public static final String COLUMN_FILE_SIZE = "file_size";
+        public static final String COLUMN_PAGE_SIZE = "page_size";
+        public static final String COLUMN_PAGE_COUNT = "page_count";
+        public static final String COLUMN_FREE_PAGES = "free_pages";
+
+        /**
+         * Runs the database maintenance.  Must not be called from the UI thread.
+         *
+         * @param idle whether the phone is idle enough to vacuum and check the database, which
+         *             reads or rewrites all of it.
+         * @return the run's row as a Bundle, or null below Honeycomb, where the provider can't
+         * be asked.
+         */
+        public static Bundle run(ContentResolver resolver, boolean idle) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                return null;
+            }
+            Bundle extras = new Bundle();
+            extras.putBoolean(EXTRA_IDLE, idle);
+            return callRun(resolver, extras);
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Bundle callRun(ContentResolver resolver, Bundle extras) {
+            return resolver.call(BASE_CONTENT_URI, METHOD_RUN_MAINTENANCE, null, extras);
+        }
+    }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Reads the daily forecast for the widgets, Muzei and the notification, which show a few
+ * numbers and a description and have no use for a Cursor.
+ * <p/>
+ * On Honeycomb and higher the forecast comes back from one
+ * {@link WeatherContract#METHOD_GET_FORECAST} call as primitive arrays: no column lookups, no
+ * boxing and no CursorWindow to fill and copy.  Below that it is read from a query.
+ * <p/>
+ * What only needs today, tomorrow or the extremes of the coming days reads the location's
+ * {@link Summary} instead, which is a single row looked up by its primary key.
+ * <p/>
+ * Both are read from the location's {@link ForecastSnapshot} first, if the last sync left a
+ * usable one, so a widget update in a cold process doesn't have to open the database at all.
+ */
+public class WeatherDataClient {
+
+    static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_SHORT_DESC
+    };
+    // these indices must match the projection
+    static final int INDEX_DATE = 0;
+    static final int INDEX_WEATHER_ID = 1;
+    static final int INDEX_MAX_TEMP = 2;
+    static final int INDEX_MIN_TEMP = 3;
+    static final int INDEX_SHORT_DESC = 4;
+
+    static final String[] SUMMARY_COLUMNS = {
+            SummaryEntry.COLUMN_DATE,
+            SummaryEntry.COLUMN_WEATHER_ID,
+            SummaryEntry.COLUMN_SHORT_DESC,
+            SummaryEntry.COLUMN_MAX_TEMP,
+            SummaryEntry.COLUMN_MIN_TEMP,
+            SummaryEntry.COLUMN_TOMORROW_WEATHER_ID,
+            SummaryEntry.COLUMN_TOMORROW_SHORT_DESC,
+            SummaryEntry.COLUMN_TOMORROW_MAX_TEMP,
+            SummaryEntry.COLUMN_TOMORROW_MIN_TEMP,
+            SummaryEntry.COLUMN_WEEK_MAX_TEMP,
+            SummaryEntry.COLUMN_WEEK_MIN_TEMP,
+            SummaryEntry.COLUMN_FORTNIGHT_MAX_TEMP,
+            SummaryEntry.COLUMN_FORTNIGHT_MIN_TEMP,
+            SummaryEntry.COLUMN_DAYS
+    };
+    // these indices must match the projection
+    static final int INDEX_SUMMARY_DATE = 0;
+    static final int INDEX_SUMMARY_WEATHER_ID = 1;
+    static final int INDEX_SUMMARY_SHORT_DESC = 2;
+    static final int INDEX_SUMMARY_MAX_TEMP = 3;
+    static final int INDEX_SUMMARY_MIN_TEMP = 4;
+    static final int INDEX_SUMMARY_TOMORROW_WEATHER_ID = 5;
+    static final int INDEX_SUMMARY_TOMORROW_SHORT_DESC = 6;
+    static final int INDEX_SUMMARY_TOMORROW_MAX_TEMP = 7;
+    static final int INDEX_SUMMARY_TOMORROW_MIN_TEMP = 8;
+    static final int INDEX_SUMMARY_WEEK_MAX_TEMP = 9;
+    static final int INDEX_SUMMARY_WEEK_MIN_TEMP = 10;
+    static final int INDEX_SUMMARY_FORTNIGHT_MAX_TEMP = 11;
+    static final int INDEX_SUMMARY_FORTNIGHT_MIN_TEMP = 12;
+    static final int INDEX_SUMMARY_DAYS = 13;
+
+    private static final String EXTRA_DATES = "dates";
+    private static final String EXTRA_WEATHER_IDS = "weather_ids";
+    private static final String EXTRA_HIGHS = "highs";
+    private static final String EXTRA_LOWS = "lows";
+    private static final String EXTRA_DESCRIPTIONS = "descriptions";
+
+    /**
+     * Days of a location's forecast, oldest first.  Index i of every array describes the same
+     * day.
+     */
+    public static final class Forecast {
+        public final int count;
+        public final long[] dates;
+        public final int[] weatherIds;
+        public final float[] highs;
+        public final float[] lows;
+        public final String[] descriptions;
+
+        Forecast(int count) {
+            this(new long[count], new int[count], new float[count], new float[count],
+                    new String[count]);
+        }
+
+        private Forecast(long[] dates, int[] weatherIds, float[] highs, float[] lows,
+                         String[] descriptions) {
+            this.count = dates.length;
+            this.dates = dates;
+            this.weatherIds = weatherIds;
+            this.highs = highs;
+            this.lows = lows;
+            this.descriptions = descriptions;
+        }
+
+        /**
+         * Reads the rows of a cursor over {@link #FORECAST_COLUMNS}.
+         *
+         * @param limit the most rows to read, or 0 for all of them.
+         */
+        static Forecast fromCursor(Cursor cursor, int limit) {
+            int count = cursor.getCount();
+            Forecast forecast = new Forecast(limit > 0 ? Math.min(count, limit) : count);
+            for (int i = 0; i < forecast.count && cursor.moveToPosition(i); i++) {
+                forecast.dates[i] = cursor.getLong(INDEX_DATE);
+                forecast.weatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+                forecast.highs[i] = cursor.getFloat(INDEX_MAX_TEMP);
+                forecast.lows[i] = cursor.getFloat(INDEX_MIN_TEMP);
+                forecast.descriptions[i] = cursor.getString(INDEX_SHORT_DESC);
+            }
+            return forecast;
+        }
+
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLongArray(EXTRA_DATES, dates);
+            bundle.putIntArray(EXTRA_WEATHER_IDS, weatherIds);
+            bundle.putFloatArray(EXTRA_HIGHS, highs);
+            bundle.putFloatArray(EXTRA_LOWS, lows);
+            bundle.putStringArray(EXTRA_DESCRIPTIONS, descriptions);
+            return bundle;
+        }
+
+        static Forecast fromBundle(Bundle bundle) {
+            return new Forecast(bundle.getLongArray(EXTRA_DATES),
+                    bundle.getIntArray(EXTRA_WEATHER_IDS),
+                    bundle.getFloatArray(EXTRA_HIGHS),
+                    bundle.getFloatArray(EXTRA_LOWS),
+                    bundle.getStringArray(EXTRA_DESCRIPTIONS));
+        }
+    }
+
+    /**
+     * Today's forecast of a location, and what there is of the next days.
+     */
+    public static final class Summary {
+        public final long date;
+        public final int weatherId;
+        public final String description;
+        public final float high;
+        public final float low;
+
+        // Tomorrow's forecast, if it's stored; the rest are 0 and null otherwise
+        public final boolean hasTomorrow;
+        public final int tomorrowWeatherId;
+        public final String tomorrowDescription;
+        public final float tomorrowHigh;
+        public final float tomorrowLow;
+
+        // The highest high and lowest low of the stored days among the next 7 and 14
+        public final float weekHigh;
+        public final float weekLow;
+        public final float fortnightHigh;
+        public final float fortnightLow;
+        // How many of the next 14 days are stored
+        public final int days;
+
+        private Summary(Cursor cursor) {
+            date = cursor.getLong(INDEX_SUMMARY_DATE);
+            weatherId = cursor.getInt(INDEX_SUMMARY_WEATHER_ID);
+            description = cursor.getString(INDEX_SUMMARY_SHORT_DESC);
+            high = cursor.getFloat(INDEX_SUMMARY_MAX_TEMP);
+            low = cursor.getFloat(INDEX_SUMMARY_MIN_TEMP);
+            hasTomorrow = !cursor.isNull(INDEX_SUMMARY_TOMORROW_WEATHER_ID);
+            tomorrowWeatherId = cursor.getInt(INDEX_SUMMARY_TOMORROW_WEATHER_ID);
+            tomorrowDescription = cursor.getString(INDEX_SUMMARY_TOMORROW_SHORT_DESC);
+            tomorrowHigh = cursor.getFloat(INDEX_SUMMARY_TOMORROW_MAX_TEMP);
+            tomorrowLow = cursor.getFloat(INDEX_SUMMARY_TOMORROW_MIN_TEMP);
+            // Today is stored, so the week has at least one day
+            weekHigh = cursor.getFloat(INDEX_SUMMARY_WEEK_MAX_TEMP);
+            weekLow = cursor.getFloat(INDEX_SUMMARY_WEEK_MIN_TEMP);
+            fortnightHigh = cursor.getFloat(INDEX_SUMMARY_FORTNIGHT_MAX_TEMP);
+            fortnightLow = cursor.getFloat(INDEX_SUMMARY_FORTNIGHT_MIN_TEMP);
+            days = cursor.getInt(INDEX_SUMMARY_DAYS);
+        }
+
+        // Works out what WeatherSummary would have stored from a forecast that starts today,
+        // or on the day it starts if that's later
+        private Summary(Forecast forecast) {
+            int today = JulianDays.getJulianDay(forecast.dates[0]);
+            long tomorrow = JulianDays.getDayStart(today + 1);
+            long weekEnd = JulianDays.getDayStart(today + WeatherSummary.WEEK_DAYS);
+            long fortnightEnd = JulianDays.getDayStart(today + WeatherSummary.FORTNIGHT_DAYS);
+
+            date = forecast.dates[0];
+            weatherId = forecast.weatherIds[0];
+            description = forecast.descriptions[0];
+            high = forecast.highs[0];
+            low = forecast.lows[0];
+            hasTomorrow = forecast.count > 1 && forecast.dates[1] == tomorrow;
+            tomorrowWeatherId = hasTomorrow ? forecast.weatherIds[1] : 0;
+            tomorrowDescription = hasTomorrow ? forecast.descriptions[1] : null;
+            tomorrowHigh = hasTomorrow ? forecast.highs[1] : 0;
+            tomorrowLow = hasTomorrow ? forecast.lows[1] : 0;
+
+            float maxOfWeek = Float.NEGATIVE_INFINITY;
+            float minOfWeek = Float.POSITIVE_INFINITY;
+            float maxOfFortnight = Float.NEGATIVE_INFINITY;
+            float minOfFortnight = Float.POSITIVE_INFINITY;
+            int i = 0;
+            for (; i < forecast.count && forecast.dates[i] < fortnightEnd; i++) {
+                if (forecast.dates[i] < weekEnd) {
+                    maxOfWeek = Math.max(maxOfWeek, forecast.highs[i]);
+                    minOfWeek = Math.min(minOfWeek, forecast.lows[i]);
+                }
+                maxOfFortnight = Math.max(maxOfFortnight, forecast.highs[i]);
+                minOfFortnight = Math.min(minOfFortnight, forecast.lows[i]);
+            }
+            weekHigh = maxOfWeek;
+            weekLow = minOfWeek;
+            fortnightHigh = maxOfFortnight;
+            fortnightLow = minOfFortnight;
+            days = i;
+        }
+    }
+
+    private final Context mContext;
+    private final ContentResolver mResolver;
+
+    public WeatherDataClient(Context context) {
+        mContext = context;
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * @param startDate the first day to return; any time of the day will do.
+     * @param limit     the most days to return, or 0 for all of them.
+     * @return the location's forecast from startDate on, with no days if there is none.
+     */
+    public Forecast getForecast(String locationSetting, long startDate, int limit) {
+        Forecast forecast = ForecastSnapshot.read(mContext, locationSetting, startDate, limit);
+        return forecast != null ? forecast : queryForecast(locationSetting, startDate, limit);
+    }
+
+    /**
+     * Like {@link #getForecast}, but always asks the provider, for when what is stored matters
+     * rather than what was last synced.
+     */
+    public Forecast queryForecast(String locationSetting, long startDate, int limit) {
+        startDate = WeatherContract.normalizeDate(startDate);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return callGetForecast(locationSetting, startDate, limit);
+        }
+        Cursor cursor = mResolver.query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, startDate),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return new Forecast(0);
+        }
+        try {
+            return Forecast.fromCursor(cursor, limit);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the day's forecast for the location, with no days if it isn't stored.
+     */
+    public Forecast getDay(String locationSetting, long date) {
+        Forecast forecast = getForecast(locationSetting, date, 1);
+        if (forecast.count > 0 && forecast.dates[0] != WeatherContract.normalizeDate(date)) {
+            return new Forecast(0);
+        }
+        return forecast;
+    }
+
+    /**
+     * @return the location's summary, or null if today's forecast isn't stored.
+     */
+    public Summary getSummary(String locationSetting) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Forecast forecast = ForecastSnapshot.read(mContext, locationSetting, today,
+                WeatherSummary.FORTNIGHT_DAYS);
+        if (forecast != null && forecast.dates[0] == today) {
+            return new Summary(forecast);
+        }
+        Cursor cursor = mResolver.query(SummaryEntry.buildSummaryLocation(locationSetting),
+                SUMMARY_COLUMNS, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(INDEX_SUMMARY_WEATHER_ID)) {
+                return null;
+            }
+            return new Summary(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Like {@link #getSummary}, but if today's forecast isn't stored, as just after midnight
+     * before a sync, it describes the first stored day from now on instead.  That is the day
+     * the widget and Muzei show.  Its {@link Summary#date} tells which day it is.
+     *
+     * @return the summary, or null if no day from now on is stored.
+     */
+    public Summary getSummaryOrFirstDay(String locationSetting) {
+        Summary summary = getSummary(locationSetting);
+        if (summary != null) {
+            return summary;
+        }
+        Forecast forecast = getForecast(locationSetting, System.currentTimeMillis(), 1);
+        return forecast.count > 0 ? new Summary(forecast) : null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Forecast callGetForecast(String locationSetting, long startDate, int limit) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_START_DATE, startDate);
+        extras.putInt(WeatherContract.EXTRA_LIMIT, limit);
+        Bundle result = mResolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST, locationSetting, extras);
+        return result != null ? Forecast.fromBundle(result) : new Forecast(0);
+    }
+}
@@ -15,11 +15,19 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -28,12 +36,145 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // WeatherMigrations needs a step to this version from the one before.
+    static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Answers "location X from date D onward", which is what the forecast list, the widgets,
+    // Muzei and the sync ask for.  UNIQUE (date, location_id) leads with the date, so it can't.
+    // The weather_id, short_desc, max and min columns come along so those queries never have
+    // to visit the table itself; _id is always in the index as the rowid.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date_idx";
+
+    // The 3-hourly forecast is kept as small as it can be: the key is the location and the
+    // time in seconds, and the rest of the point is packed into one integer.  There is no
+    // _id column: the primary key is the index range queries are answered from.
+    static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_PACKED + " INTEGER NOT NULL, " +
+
+            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // A newer forecast for the same point replaces the old one
+            " PRIMARY KEY (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+    // Past days, one row per location and month with the days encoded by ArchiveBlock.  Like
+    // the hourly table, the primary key is the index the range queries are answered from.
+    static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+
+            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // A month is written whole each time days are added to it
+            " PRIMARY KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_MONTH + ") ON CONFLICT REPLACE);";
+
+    // One row per location, kept up to date by WeatherSummary
+    static final String SQL_CREATE_SUMMARY_TABLE = "CREATE TABLE " + SummaryEntry.TABLE_NAME + " (" +
+            SummaryEntry.COLUMN_LOC_KEY + " INTEGER PRIMARY KEY ON CONFLICT REPLACE, " +
+            SummaryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            SummaryEntry.COLUMN_WEATHER_ID + " INTEGER, " +
+            SummaryEntry.COLUMN_SHORT_DESC + " TEXT, " +
+            SummaryEntry.COLUMN_MAX_TEMP + " REAL, " +
+            SummaryEntry.COLUMN_MIN_TEMP + " REAL, " +
+            SummaryEntry.COLUMN_TOMORROW_WEATHER_ID + " INTEGER, " +
+            SummaryEntry.COLUMN_TOMORROW_SHORT_DESC + " TEXT, " +
+            SummaryEntry.COLUMN_TOMORROW_MAX_TEMP + " REAL, " +
+            SummaryEntry.COLUMN_TOMORROW_MIN_TEMP + " REAL, " +
+            SummaryEntry.COLUMN_WEEK_MAX_TEMP + " REAL, " +
+            SummaryEntry.COLUMN_WEEK_MIN_TEMP + " REAL, " +
+            SummaryEntry.COLUMN_FORTNIGHT_MAX_TEMP + " REAL NOT NULL, " +
+            SummaryEntry.COLUMN_FORTNIGHT_MIN_TEMP + " REAL NOT NULL, " +
+            SummaryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+
+            " FOREIGN KEY (" + SummaryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
+    // One row per run of WeatherMaintenance, trimmed to the most recent ones as it goes
+    static final String SQL_CREATE_MAINTENANCE_TABLE = "CREATE TABLE " + MaintenanceEntry.TABLE_NAME + " (" +
+            MaintenanceEntry._ID + " INTEGER PRIMARY KEY, " +
+            MaintenanceEntry.COLUMN_STARTED + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_ANALYZED + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_IDLE + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_VACUUMED_PAGES + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_INTEGRITY + " TEXT, " +
+            MaintenanceEntry.COLUMN_FILE_SIZE + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_PAGE_SIZE + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_PAGE_COUNT + " INTEGER NOT NULL, " +
+            MaintenanceEntry.COLUMN_FREE_PAGES + " INTEGER NOT NULL);";
+
+    // The weather table's UNIQUE constraint still does the work for a single day of a
+    // location and for dropping old days across all locations.
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    // How far the write-ahead log may grow, in pages, before SQLite checkpoints it on its own
+    // in the middle of whatever write comes next.  Syncs checkpoint it when they're done, so
+    // this is only a ceiling for a sync that writes far more than usual or dies halfway.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With a write-ahead log, the forecast list, widgets and Muzei read from connections of
+        // their own while a sync is writing, instead of waiting for its transaction to end
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            configureWriteAheadLog(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void configureWriteAheadLog(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // Android's default of 100 pages would checkpoint every few syncs while the user may
+        // be scrolling.  The pragma belongs to the connection that writes.
+        DatabaseUtils.longForQuery(db,
+                "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database.  The checkpoint is passive:
+     * it neither waits for nor blocks readers, and leaves whatever they still need for the next
+     * time.
+     *
+     * @return false if part of the log could not be checkpointed yet.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static boolean checkpoint(SQLiteDatabase db) {
+        // busy, frames in the log, frames checkpointed; older SQLite versions return nothing
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint", null);
+        try {
+            if (cursor.moveToFirst() && cursor.getColumnCount() >= 3) {
+                return cursor.getInt(0) == 0 && cursor.getInt(1) == cursor.getInt(2);
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -81,18 +222,29 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SUMMARY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_MAINTENANCE_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // SQLiteOpenHelper calls this inside a transaction, so either every step applies or
+        // the database stays at oldVersion and the upgrade is tried again on the next open.
+        if (WeatherMigrations.canMigrate(oldVersion, newVersion)) {
+            WeatherMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+        // There's no way forward from a version this old.  The database is only a cache for
+        // online data, so discard it and start over.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SummaryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + MaintenanceEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The provider's bulk insert path.  Each table gets one INSERT statement, compiled the first
+ * time it is needed and reused for every row of every batch after that, so SQLite doesn't parse
+ * the same SQL once per row.
+ * <p/>
+ * Rows can come in as ContentValues, which are bound column by column, or as the primitive
+ * arrays of a {@link ForecastBatch} or {@link HourlyForecastBatch}, which are bound without
+ * boxing anything.  ContentValues that don't hold exactly the columns of the statement, e.g.
+ * with an explicit _id, are inserted the old way.
+ * <p/>
+ * Each weather write also brings the {@link WeatherSummary} of the locations it wrote up to
+ * date, in the same transaction.
+ * <p/>
+ * One instance belongs to one provider.  The statements are tied to the database they were
+ * compiled on and are recompiled if the helper hands out a different one.
+ */
+class WeatherInserter {
+
+    // The order the statements bind their arguments in
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String[] HOURLY_COLUMNS = {
+            HourlyEntry.COLUMN_LOC_KEY,
+            HourlyEntry.COLUMN_TIME,
+            HourlyEntry.COLUMN_PACKED
+    };
+
+    // UPDATE weather SET <the rest of WEATHER_COLUMNS> WHERE location_id = ? AND date = ?
+    private static final String WEATHER_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+            + WeatherEntry.COLUMN_WEATHER_ID + " = ?, "
+            + WeatherEntry.COLUMN_SHORT_DESC + " = ?, "
+            + WeatherEntry.COLUMN_MIN_TEMP + " = ?, "
+            + WeatherEntry.COLUMN_MAX_TEMP + " = ?, "
+            + WeatherEntry.COLUMN_HUMIDITY + " = ?, "
+            + WeatherEntry.COLUMN_PRESSURE + " = ?, "
+            + WeatherEntry.COLUMN_WIND_SPEED + " = ?, "
+            + WeatherEntry.COLUMN_DEGREES + " = ? WHERE "
+            + WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+            + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String PURGE_SELECTION =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    /**
+     * What {@link #replaceWeatherWindow} did.
+     */
+    static final class WindowCounts {
+        int inserted;
+        int updated;
+        int purged;
+
+        boolean hasChanges() {
+            return inserted + updated + purged != 0;
+        }
+    }
+
+    private SQLiteDatabase mDb;
+    private SQLiteStatement mWeatherInsert;
+    private SQLiteStatement mWeatherUpdate;
+    private SQLiteStatement mHourlyInsert;
+
+    /**
+     * Inserts weather rows given as ContentValues, normalizing their dates like
+     * {@link WeatherProvider#insert} does.
+     *
+     * @return the number of rows inserted.
+     */
+    synchronized int insertWeather(SQLiteDatabase db, ContentValues[] values) {
+        SQLiteStatement insert = getWeatherInsert(db);
+        Set<Long> locationIds = new HashSet<>();
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (value.containsKey(WeatherEntry.COLUMN_DATE)) {
+                    value.put(WeatherEntry.COLUMN_DATE,
+                            JulianDays.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                }
+                if (insert(db, insert, WeatherEntry.TABLE_NAME, WEATHER_COLUMNS, value)) {
+                    returnCount++;
+                    locationIds.add(value.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+                }
+            }
+            long today = JulianDays.normalizeDate(System.currentTimeMillis());
+            for (long locationId : locationIds) {
+                WeatherSummary.update(db, locationId, today);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Inserts a parsed daily forecast straight from its arrays.
+     *
+     * @return the number of rows inserted.
+     */
+    synchronized int insertWeather(SQLiteDatabase db, long locationId, ForecastBatch batch) {
+        SQLiteStatement insert = getWeatherInsert(db);
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.count; i++) {
+                // Same order as WEATHER_COLUMNS
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, JulianDays.normalizeDate(batch.dates[i]));
+                bindWeatherValues(insert, 3, batch, i);
+                if (execute(insert)) {
+                    returnCount++;
+                }
+            }
+            if (returnCount > 0) {
+                WeatherSummary.update(db, locationId,
+                        JulianDays.normalizeDate(System.currentTimeMillis()));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Writes the days of the batch for the location and moves its days before keepFrom into the
+     * archive, in one transaction.  A day that is already stored is updated in place, so its
+     * _ID stays put.
+     *
+     * @param keepFrom the first day to keep, in milliseconds; it is normalized here.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    synchronized WindowCounts replaceWeatherWindow(SQLiteDatabase db, long locationId,
+                                                   ForecastBatch batch, long keepFrom) {
+        SQLiteStatement insert = getWeatherInsert(db);
+        SQLiteStatement update = getWeatherUpdate(db);
+        WindowCounts counts = new WindowCounts();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.count; i++) {
+                long date = JulianDays.normalizeDate(batch.dates[i]);
+                bindWeatherValues(update, 1, batch, i);
+                update.bindLong(9, locationId);
+                update.bindLong(10, date);
+                if (update.executeUpdateDelete() > 0) {
+                    counts.updated++;
+                    continue;
+                }
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, date);
+                bindWeatherValues(insert, 3, batch, i);
+                if (execute(insert)) {
+                    counts.inserted++;
+                }
+            }
+            // The days that roll out of the window go to the archive
+            long purgeBefore = JulianDays.normalizeDate(keepFrom);
+            WeatherArchive.archive(db, locationId, purgeBefore);
+            counts.purged = db.delete(WeatherEntry.TABLE_NAME, PURGE_SELECTION, new String[]{
+                    Long.toString(locationId), Long.toString(purgeBefore)});
+            if (counts.hasChanges()) {
+                WeatherSummary.update(db, locationId,
+                        JulianDays.normalizeDate(System.currentTimeMillis()));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return counts;
+    }
+
+    /**
+     * Inserts hourly rows given as ContentValues.
+     *
+     * @return the number of rows inserted.
+     */
+    synchronized int insertHourly(SQLiteDatabase db, ContentValues[] values) {
+        SQLiteStatement insert = getHourlyInsert(db);
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insert(db, insert, HourlyEntry.TABLE_NAME, HOURLY_COLUMNS, value)) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Inserts a parsed 3-hourly forecast straight from its arrays.
+     *
+     * @return the number of rows inserted.
+     */
+    synchronized int insertHourly(SQLiteDatabase db, long locationId, HourlyForecastBatch batch) {
+        SQLiteStatement insert = getHourlyInsert(db);
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.count; i++) {
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, batch.times[i]);
+                insert.bindLong(3, batch.packed[i]);
+                if (execute(insert)) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Compiles the statements a sync writes the daily forecast with ahead of time, so the first
+     * sync after the process started doesn't have to.
+     */
+    synchronized void prepare(SQLiteDatabase db) {
+        getWeatherInsert(db);
+        getWeatherUpdate(db);
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    synchronized void close() {
+        if (mWeatherInsert != null) {
+            mWeatherInsert.close();
+            mWeatherInsert = null;
+        }
+        if (mWeatherUpdate != null) {
+            mWeatherUpdate.close();
+            mWeatherUpdate = null;
+        }
+        if (mHourlyInsert != null) {
+            mHourlyInsert.close();
+            mHourlyInsert = null;
+        }
+        mDb = null;
+    }
+
+    private SQLiteStatement getWeatherInsert(SQLiteDatabase db) {
+        useDatabase(db);
+        if (mWeatherInsert == null) {
+            mWeatherInsert = db.compileStatement(
+                    buildInsert(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS));
+        }
+        return mWeatherInsert;
+    }
+
+    private SQLiteStatement getWeatherUpdate(SQLiteDatabase db) {
+        useDatabase(db);
+        if (mWeatherUpdate == null) {
+            mWeatherUpdate = db.compileStatement(WEATHER_UPDATE);
+        }
+        return mWeatherUpdate;
+    }
+
+    private SQLiteStatement getHourlyInsert(SQLiteDatabase db) {
+        useDatabase(db);
+        if (mHourlyInsert == null) {
+            mHourlyInsert = db.compileStatement(
+                    buildInsert(HourlyEntry.TABLE_NAME, HOURLY_COLUMNS));
+        }
+        return mHourlyInsert;
+    }
+
+    private void useDatabase(SQLiteDatabase db) {
+        if (db != mDb) {
+            close();
+            mDb = db;
+        }
+    }
+
+    // INSERT INTO table (a, b, c) VALUES (?, ?, ?)
+    private static String buildInsert(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+
+    // Binds weather_id through degrees, in WEATHER_COLUMNS order, starting at index first
+    private static void bindWeatherValues(SQLiteStatement statement, int first,
+                                          ForecastBatch batch, int i) {
+        statement.bindLong(first, batch.weatherId[i]);
+        if (batch.description[i] != null) {
+            statement.bindString(first + 1, batch.description[i]);
+        } else {
+            statement.bindNull(first + 1);
+        }
+        statement.bindDouble(first + 2, batch.low[i]);
+        statement.bindDouble(first + 3, batch.high[i]);
+        statement.bindLong(first + 4, batch.humidity[i]);
+        statement.bindDouble(first + 5, batch.pressure[i]);
+        statement.bindDouble(first + 6, batch.windSpeed[i]);
+        statement.bindDouble(first + 7, batch.windDirection[i]);
+    }
+
+    private static boolean insert(SQLiteDatabase db, SQLiteStatement insert, String table,
+                                  String[] columns, ContentValues value) {
+        if (value.size() != columns.length) {
+            return db.insert(table, null, value) != -1;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!value.containsKey(columns[i])) {
+                return db.insert(table, null, value) != -1;
+            }
+            DatabaseUtils.bindObjectToProgram(insert, i + 1, value.get(columns[i]));
+        }
+        return execute(insert);
+    }
+
+    // Like SQLiteDatabase.insert, a row that can't be inserted is skipped rather than thrown
+    private static boolean execute(SQLiteStatement insert) {
+        try {
+            return insert.executeInsert() != -1;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
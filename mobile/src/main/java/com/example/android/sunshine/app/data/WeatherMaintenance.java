@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the database file in shape as the syncs replace the forecast over and over, and
+ * records each run in {@link MaintenanceEntry}.
+ * <p/>
+ * ANALYZE runs when a table's row count moved far enough from what the last ANALYZE counted,
+ * so the query planner's statistics follow the number of locations and days kept.  On an idle
+ * run the free pages the replaced and deleted rows left behind are given back with an
+ * incremental vacuum, and the database gets a quick integrity check.  Must not run inside a
+ * transaction: VACUUM can't.
+ */
+class WeatherMaintenance {
+    private static final String LOG_TAG = WeatherMaintenance.class.getSimpleName();
+
+    // The tables whose statistics the planner uses
+    private static final String[] TABLES = {
+            LocationEntry.TABLE_NAME,
+            WeatherEntry.TABLE_NAME,
+            HourlyEntry.TABLE_NAME,
+            ArchiveEntry.TABLE_NAME,
+            SummaryEntry.TABLE_NAME
+    };
+
+    // ANALYZE runs again once a table has this share of rows more or less than the last
+    // ANALYZE counted, and at least ANALYZE_MIN_CHANGED_ROWS of them
+    static final double ANALYZE_CHANGE_RATIO = 0.25;
+    static final int ANALYZE_MIN_CHANGED_ROWS = 50;
+
+    // How many runs the maintenance table keeps
+    static final int MAX_RUNS = 100;
+
+    // PRAGMA auto_vacuum's value for INCREMENTAL
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    //_id <= (SELECT MAX(_id) FROM maintenance) - ?
+    private static final String sOldRunsSelection =
+            MaintenanceEntry._ID + " <= (SELECT MAX(" + MaintenanceEntry._ID + ") FROM " +
+                    MaintenanceEntry.TABLE_NAME + ") - ?";
+
+    private WeatherMaintenance() {
+    }
+
+    /**
+     * Runs the maintenance and records it.
+     *
+     * @param idle whether to vacuum and check the database as well.
+     * @return the recorded row.
+     */
+    static ContentValues run(SQLiteDatabase db, boolean idle) {
+        long started = System.currentTimeMillis();
+        long start = SystemClock.elapsedRealtime();
+        long pagesBefore = pragma(db, "page_count");
+
+        boolean analyzed = false;
+        if (needsAnalyze(db)) {
+            db.execSQL("ANALYZE");
+            analyzed = true;
+        }
+        String integrity = null;
+        if (idle) {
+            vacuum(db);
+            integrity = DatabaseUtils.stringForQuery(db, "PRAGMA quick_check(1)", null);
+            if (!"ok".equals(integrity)) {
+                Log.e(LOG_TAG, "The database failed its integrity check: " + integrity);
+            }
+        }
+
+        long pageCount = pragma(db, "page_count");
+        ContentValues values = new ContentValues();
+        values.put(MaintenanceEntry.COLUMN_STARTED, started);
+        values.put(MaintenanceEntry.COLUMN_ANALYZED, analyzed ? 1 : 0);
+        values.put(MaintenanceEntry.COLUMN_IDLE, idle ? 1 : 0);
+        values.put(MaintenanceEntry.COLUMN_VACUUMED_PAGES, Math.max(0, pagesBefore - pageCount));
+        values.put(MaintenanceEntry.COLUMN_INTEGRITY, integrity);
+        values.put(MaintenanceEntry.COLUMN_FILE_SIZE, getFileSize(db));
+        values.put(MaintenanceEntry.COLUMN_PAGE_SIZE, pragma(db, "page_size"));
+        values.put(MaintenanceEntry.COLUMN_PAGE_COUNT, pageCount);
+        values.put(MaintenanceEntry.COLUMN_FREE_PAGES, pragma(db, "freelist_count"));
+        values.put(MaintenanceEntry.COLUMN_DURATION, SystemClock.elapsedRealtime() - start);
+
+        db.beginTransaction();
+        try {
+            db.insert(MaintenanceEntry.TABLE_NAME, null, values);
+            db.delete(MaintenanceEntry.TABLE_NAME, sOldRunsSelection,
+                    new String[]{Integer.toString(MAX_RUNS)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return values;
+    }
+
+    /**
+     * @return the recorded runs, newest first unless sortOrder says otherwise.
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        return db.query(MaintenanceEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null,
+                sortOrder != null ? sortOrder : MaintenanceEntry._ID + " DESC");
+    }
+
+    /**
+     * Compares the row count of every table with the one the last ANALYZE stored in
+     * sqlite_stat1.  A table that isn't there counts as having had no rows.
+     */
+    static boolean needsAnalyze(SQLiteDatabase db) {
+        Map<String, Long> analyzedRows = getAnalyzedRowCounts(db);
+        for (String table : TABLES) {
+            Long analyzed = analyzedRows.get(table);
+            long rows = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + table, null);
+            if (hasChangedEnough(analyzed != null ? analyzed : 0, rows)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean hasChangedEnough(long analyzedRows, long rows) {
+        long changed = Math.abs(rows - analyzedRows);
+        return changed >= ANALYZE_MIN_CHANGED_ROWS
+                && changed >= ANALYZE_CHANGE_RATIO * analyzedRows;
+    }
+
+    private static Map<String, Long> getAnalyzedRowCounts(SQLiteDatabase db) {
+        Map<String, Long> rows = new HashMap<>();
+        if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type = 'table' AND name = 'sqlite_stat1'", null) == 0) {
+            // Never analyzed
+            return rows;
+        }
+        // One row per index, or per table without one; the stat starts with the row count
+        Cursor cursor = db.rawQuery("SELECT tbl, stat FROM sqlite_stat1", null);
+        try {
+            while (cursor.moveToNext()) {
+                String stat = cursor.getString(1);
+                int end = stat.indexOf(' ');
+                try {
+                    rows.put(cursor.getString(0),
+                            Long.parseLong(end != -1 ? stat.substring(0, end) : stat));
+                } catch (NumberFormatException e) {
+                    // Leave the table out, so it's analyzed again
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Gives the free pages back to the file system.  A database in another auto_vacuum mode,
+     * which is every one created before this and every new one too, since Android creates its
+     * metadata table before onCreate() could set the mode, is switched to incremental first.
+     * That takes a full VACUUM, once.
+     */
+    private static void vacuum(SQLiteDatabase db) {
+        try {
+            if (pragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+                return;
+            }
+            if (pragma(db, "freelist_count") == 0) {
+                return;
+            }
+            // Returns an empty row for every page it frees, so it's run as a query
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Keep going until every free page is gone
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            // The next idle run tries again
+            Log.w(LOG_TAG, "Couldn't vacuum the database", e);
+        }
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + name, null);
+    }
+
+    // The database file and its write-ahead log, if it has one
+    private static long getFileSize(SQLiteDatabase db) {
+        String path = db.getPath();
+        return new File(path).length() + new File(path + "-wal").length();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The steps that bring an existing database up to {@link WeatherDbHelper#DATABASE_VERSION}
+ * while keeping its data, so an app update doesn't leave the user with an empty forecast until
+ * the next sync.
+ * <p/>
+ * Each step takes the database from one version to the next.  Steps change tables in place with
+ * ALTER TABLE where SQLite allows it; anything else (a changed constraint, a dropped column) is a
+ * copy: create the new table under a temporary name, INSERT ... SELECT the rows over, drop the
+ * old table and rename the new one.  A step may use the CREATE statements of WeatherDbHelper as
+ * long as what they create hasn't changed since that version.  Once it does, the step keeps a
+ * copy of the statement as it was.
+ * <p/>
+ * To change the schema: bump DATABASE_VERSION, change WeatherDbHelper.onCreate, and add the step
+ * here that gets an old database to the same place.  TestMigrations checks that both end up
+ * with the same schema.
+ */
+class WeatherMigrations {
+
+    // The version of the first release of the schema, the oldest one there's a way forward from
+    static final int OLDEST_VERSION = 2;
+
+    private interface Step {
+        /**
+         * Takes the database from the version before to the next one.
+         */
+        void apply(SQLiteDatabase db);
+    }
+
+    // STEPS[i] upgrades version OLDEST_VERSION + i to OLDEST_VERSION + i + 1
+    private static final Step[] STEPS = {
+            // 2 -> 3: the 3-hourly forecast table
+            new Step() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL(WeatherDbHelper.SQL_CREATE_HOURLY_TABLE);
+                }
+            },
+            // 3 -> 4: the covering index for "location X from date D onward"
+            new Step() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            // 4 -> 5: the archive of past days
+            new Step() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL(WeatherDbHelper.SQL_CREATE_ARCHIVE_TABLE);
+                }
+            },
+            // 5 -> 6: the per-location summary, filled in from the stored forecast
+            new Step() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL(WeatherDbHelper.SQL_CREATE_SUMMARY_TABLE);
+                    WeatherSummary.updateAll(db,
+                            WeatherContract.normalizeDate(System.currentTimeMillis()));
+                }
+            },
+            // 6 -> 7: the record of the database maintenance runs
+            new Step() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL(WeatherDbHelper.SQL_CREATE_MAINTENANCE_TABLE);
+                }
+            }
+    };
+
+    /**
+     * Checks whether there is a step for every version between the two.
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        return oldVersion >= OLDEST_VERSION && oldVersion <= newVersion
+                && newVersion - OLDEST_VERSION <= STEPS.length;
+    }
+
+    /**
+     * Runs the steps from oldVersion up to newVersion, in order.  The caller owns the
+     * transaction; SQLiteOpenHelper already runs onUpgrade in one.
+     *
+     * @throws IllegalArgumentException if {@link #canMigrate} says there's no way there.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalArgumentException("No migration from version " + oldVersion
+                    + " to " + newVersion);
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            STEPS[version - OLDEST_VERSION].apply(db);
+        }
+    }
+}
@@ -17,25 +17,58 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final WeatherInserter mInserter = new WeatherInserter();
+    private final LocationIdCache mLocationIds = new LocationIdCache();
+    private final QueryResultCache mQueryResults = new QueryResultCache();
+    // The URIs changed by the applyBatch() running on this thread, or null outside of one
+    private final ThreadLocal<PendingChanges> mBatchChanges = new ThreadLocal<PendingChanges>();
+    // Every notifyChange() sent to the ContentResolver since the provider was created
+    private final AtomicInteger mNotificationCount = new AtomicInteger();
+    // Counted down once the prewarm started by onCreate() is done
+    private final CountDownLatch mPrewarmed = new CountDownLatch(1);
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int HOURLY = 400;
+    static final int HOURLY_WITH_LOCATION = 401;
+    static final int ARCHIVE = 500;
+    static final int ARCHIVE_WITH_LOCATION = 501;
+    static final int SUMMARY_WITH_LOCATION = 600;
+    static final int MAINTENANCE = 700;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -57,17 +90,35 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?) AND time >= ? AND time < ?
+    static final String sHourlyLocationSettingWithRangeSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
+    //time < ?
+    private static final String sHourlyBeforeSelection =
+            WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +159,91 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getWeather(int match, Uri uri, String[] projection, String sortOrder) {
+        return match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+    }
+
+    /**
+     * Answers a forecast query from the query result cache if it can, and keeps what the
+     * database returned otherwise.  Below Honeycomb the rows can't be read back by type, and
+     * every query goes to the database.
+     */
+    private Cursor getWeatherThroughCache(int match, Uri uri, String[] projection,
+                                          String sortOrder) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return getWeather(match, uri, projection, sortOrder);
+        }
+        QueryResultCache.Key key = new QueryResultCache.Key(match,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                match == WEATHER_WITH_LOCATION_AND_DATE
+                        ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                        : WeatherContract.WeatherEntry.getStartDateFromUri(uri),
+                projection, sortOrder);
+        QueryResultCache.Result result = mQueryResults.get(key);
+        if (result == null) {
+            long generation = mQueryResults.getGeneration();
+            Cursor cursor = getWeather(match, uri, projection, sortOrder);
+            if (cursor.getCount() > QueryResultCache.MAX_ROWS) {
+                return cursor;
+            }
+            try {
+                result = QueryResultCache.Result.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+            mQueryResults.put(key, result, generation);
+        }
+        return result.toCursor();
+    }
+
+    // Looks up the location's id once and walks the (location_id, time) primary key from there
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.HourlyEntry.TABLE_NAME,
+                projection,
+                sHourlyLocationSettingWithRangeSelection,
+                getHourlyRangeSelectionArgs(uri),
+                null,
+                null,
+                sortOrder != null ? sortOrder : WeatherContract.HourlyEntry.COLUMN_TIME + " ASC"
+        );
+    }
+
+    private static String[] getHourlyRangeSelectionArgs(Uri uri) {
+        return new String[]{
+                WeatherContract.HourlyEntry.getLocationSettingFromUri(uri),
+                Long.toString(WeatherContract.HourlyEntry.getTimeFromUri(
+                        uri, WeatherContract.HourlyEntry.PARAM_START, 0)),
+                Long.toString(WeatherContract.HourlyEntry.getTimeFromUri(
+                        uri, WeatherContract.HourlyEntry.PARAM_END, Long.MAX_VALUE))
+        };
+    }
+
+    // Decodes the location's archived months that overlap the range
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection) {
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        return WeatherArchive.query(db,
+                getLocationId(db, WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri)),
+                WeatherContract.ArchiveEntry.getDateFromUri(
+                        uri, WeatherContract.ArchiveEntry.PARAM_START, 0),
+                WeatherContract.ArchiveEntry.getDateFromUri(
+                        uri, WeatherContract.ArchiveEntry.PARAM_END, Long.MAX_VALUE),
+                projection);
+    }
+
+    /**
+     * Looks up the location's summary by its primary key.  A location whose summary was last
+     * written on an earlier day, or never, has it worked out from its days instead.
+     */
+    private Cursor getSummaryByLocationSetting(Uri uri, String[] projection) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = getLocationId(db,
+                WeatherContract.SummaryEntry.getLocationSettingFromUri(uri));
+        return WeatherSummary.query(db, locationId,
+                WeatherContract.normalizeDate(System.currentTimeMillis()), projection);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +266,16 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SUMMARY + "/*", SUMMARY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_MAINTENANCE, MAINTENANCE);
         return matcher;
     }
 
@@ -140,9 +286,76 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        // onCreate() runs on the main thread, so the database is opened on another one, early
+        // enough to be ready by the time the forecast list asks for its first row
+        startPrewarm();
         return true;
     }
 
+    /**
+     * Runs {@link #prewarm} on a thread of its own.  A query that comes in meanwhile waits for
+     * the database to be open rather than opening it a second time.
+     */
+    void startPrewarm() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prewarm();
+                } catch (RuntimeException e) {
+                    // The first query will run into it again, and report it to its caller
+                    Log.w(LOG_TAG, "Couldn't prewarm the database", e);
+                } finally {
+                    mPrewarmed.countDown();
+                }
+            }
+        }, "WeatherProvider prewarm").start();
+    }
+
+    /**
+     * Does what the first queries after a cold start would otherwise pay for: opens the
+     * database, which checks and upgrades its schema, compiles the statements the sync writes
+     * with, and reads the preferred location's id, forecast and summary, so their pages are
+     * cached by the time the forecast list, a widget or Muzei asks for them.
+     */
+    private void prewarm() {
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mInserter.prepare(db);
+        String locationSetting = Utility.getPreferredLocation(getContext());
+        long locationId = getLocationId(db, locationSetting);
+        if (locationId != -1) {
+            long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            // Every column of every day from today on, as the forecast list reads them
+            Cursor cursor = getWeatherByLocationSetting(
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                            locationSetting, today), null, null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            cursor = WeatherSummary.query(db, locationId, today,
+                    WeatherDataClient.SUMMARY_COLUMNS);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        Log.d(LOG_TAG, "Prewarmed the database in " + (SystemClock.elapsedRealtime() - start)
+                + " ms");
+    }
+
+    /**
+     * Waits for the prewarm onCreate() started to be done.
+     *
+     * @return false if it wasn't done within the timeout.
+     */
+    boolean awaitPrewarm(long timeoutMillis) throws InterruptedException {
+        return mPrewarmed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +377,16 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case SUMMARY_WITH_LOCATION:
+                return WeatherContract.SummaryEntry.CONTENT_ITEM_TYPE;
+            case MAINTENANCE:
+                return WeatherContract.MaintenanceEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -179,12 +402,14 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = getWeatherThroughCache(WEATHER_WITH_LOCATION_AND_DATE, uri, projection,
+                        sortOrder);
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherThroughCache(WEATHER_WITH_LOCATION, uri, projection,
+                        sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +438,49 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection);
+                break;
+            }
+            // "archive": how much the archive takes, per location and year
+            case ARCHIVE: {
+                retCursor = WeatherArchive.queryStorage(mOpenHelper.getReadableDatabase());
+                break;
+            }
+            // "summary/*": the summary changes with the location's forecast, and is
+            // never notified on its own
+            case SUMMARY_WITH_LOCATION: {
+                retCursor = getSummaryByLocationSetting(uri, projection);
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        WeatherContract.WeatherEntry.buildWeatherLocation(
+                                WeatherContract.SummaryEntry.getLocationSettingFromUri(uri)));
+                return retCursor;
+            }
+            // "maintenance": the recorded runs, newest first
+            case MAINTENANCE: {
+                retCursor = WeatherMaintenance.query(mOpenHelper.getReadableDatabase(),
+                        projection, selection, selectionArgs, sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -233,25 +501,56 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if (_id > 0) {
+                        WeatherSummary.update(db,
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                WeatherContract.normalizeDate(System.currentTimeMillis()));
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                notifyChange(getWeatherChange(db,
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
+                return returnUri;
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
+                if ( _id > 0 ) {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
+                    String locationSetting = values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    if (locationSetting != null) {
+                        mLocationIds.put(locationSetting, _id);
+                    }
+                } else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case HOURLY: {
+                // Hourly rows have no id of their own to return
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = uri;
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(getHourlyChange(db,
+                        values.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY)));
+                return returnUri;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -264,19 +563,60 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    List<Long> locationIds =
+                            WeatherSummary.getLocationIds(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        WeatherSummary.update(db, locationIds,
+                                WeatherContract.normalizeDate(System.currentTimeMillis()));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // There's no telling which settings the selection matched
+                mLocationIds.clear();
+                // Before a new location can be given the id of a deleted one
+                if (rowsDeleted != 0) {
+                    WeatherSummary.dropDeletedLocations(db);
+                    if (WeatherArchive.dropDeletedLocations(db) != 0) {
+                        notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+                    }
+                }
+                break;
+            case HOURLY: {
+                long before = WeatherContract.HourlyEntry.getTimeFromUri(
+                        uri, WeatherContract.HourlyEntry.PARAM_BEFORE, -1);
+                if (before >= 0) {
+                    // Retention: everything older than the given time, for every location
+                    selection = sHourlyBeforeSelection;
+                    selectionArgs = new String[]{Long.toString(before)};
+                }
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            }
+            case HOURLY_WITH_LOCATION:
+                rowsDeleted = db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                        sHourlyLocationSettingWithRangeSelection, getHourlyRangeSelectionArgs(uri));
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -299,18 +639,37 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                db.beginTransaction();
+                try {
+                    List<Long> locationIds =
+                            WeatherSummary.getLocationIds(db, selection, selectionArgs);
+                    // Rows moved to another location change its summary too
+                    Long newLocationId =
+                            values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                    if (newLocationId != null && !locationIds.contains(newLocationId)) {
+                        locationIds.add(newLocationId);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    if (rowsUpdated != 0) {
+                        WeatherSummary.update(db, locationIds,
+                                WeatherContract.normalizeDate(System.currentTimeMillis()));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                mLocationIds.clear();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -319,35 +678,452 @@ public class WeatherProvider extends ContentProvider {
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        int returnCount;
+        // Both run in one transaction, with one compiled INSERT for all the rows
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                returnCount = mInserter.insertWeather(db, values);
+                if (returnCount != 0) {
+                    notifyChanges(getWeatherChanges(db, values));
+                }
+                return returnCount;
+            case HOURLY:
+                returnCount = mInserter.insertHourly(db, values);
+                if (returnCount != 0) {
+                    notifyChanges(getHourlyChanges(db, values));
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Handles the bulk insert methods of {@link WeatherContract}, which hand a whole forecast
+     * over as primitive arrays instead of one ContentValues per row, the forecast window
+     * replacement, the location upsert, the forecast read for WeatherDataClient, the archive
+     * compaction, the database maintenance, the checkpoint, and the notification and query
+     * cache counts.
+     */
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_NOTIFICATION_COUNT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_COUNT, mNotificationCount.get());
+            return result;
+        }
+        if (WeatherContract.METHOD_GET_FORECAST.equals(method)) {
+            return getForecast(arg, extras.getLong(WeatherContract.EXTRA_START_DATE),
+                    extras.getInt(WeatherContract.EXTRA_LIMIT)).toBundle();
+        }
+        if (WeatherContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_HITS, mQueryResults.getHitCount());
+            result.putInt(WeatherContract.EXTRA_MISSES, mQueryResults.getMissCount());
+            result.putInt(WeatherContract.EXTRA_COUNT, mQueryResults.size());
+            result.putInt(WeatherContract.EXTRA_BYTES, mQueryResults.getSizeBytes());
+            return result;
+        }
+        if (WeatherContract.METHOD_UPSERT_LOCATION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.EXTRA_LOCATION_ID, upsertLocation(extras));
+            return result;
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(WeatherContract.EXTRA_CHECKPOINTED, WeatherDbHelper.checkpoint(db));
+            return result;
+        }
+        if (WeatherContract.METHOD_REPLACE_FORECAST_WINDOW.equals(method)) {
+            long locationId = extras.getLong(WeatherContract.EXTRA_LOCATION_ID);
+            ForecastBatch batch = ForecastBatch.fromBundle(extras);
+            WeatherInserter.WindowCounts counts = mInserter.replaceWeatherWindow(db, locationId,
+                    batch, extras.getLong(WeatherContract.EXTRA_KEEP_FROM));
+            if (counts.hasChanges()) {
+                // A single day written and nothing purged only concerns that day
+                notifyChange(getWeatherChange(db, locationId,
+                        batch.count == 1 && counts.purged == 0 ? batch.dates[0] : null));
+            }
+            if (counts.purged != 0) {
+                // The purged days went to the archive
+                notifyChange(getArchiveChange(db, locationId));
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_INSERTED, counts.inserted);
+            result.putInt(WeatherContract.EXTRA_UPDATED, counts.updated);
+            result.putInt(WeatherContract.EXTRA_PURGED, counts.purged);
+            return result;
+        }
+        if (WeatherContract.METHOD_COMPACT_ARCHIVE.equals(method)) {
+            return compactArchive(db, extras.getLong(WeatherContract.EXTRA_KEEP_FROM),
+                    extras.getLong(WeatherContract.EXTRA_ARCHIVE_SINCE));
+        }
+        if (WeatherContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance(db, extras.getBoolean(WeatherContract.EXTRA_IDLE));
+        }
+        int returnCount;
+        if (WeatherContract.METHOD_BULK_INSERT_WEATHER.equals(method)) {
+            long locationId = extras.getLong(WeatherContract.EXTRA_LOCATION_ID);
+            ForecastBatch batch = ForecastBatch.fromBundle(extras);
+            returnCount = mInserter.insertWeather(db, locationId, batch);
+            if (returnCount != 0) {
+                notifyChange(getWeatherChange(db, locationId,
+                        batch.count == 1 ? batch.dates[0] : null));
+            }
+        } else if (WeatherContract.METHOD_BULK_INSERT_HOURLY.equals(method)) {
+            long locationId = extras.getLong(WeatherContract.EXTRA_LOCATION_ID);
+            returnCount = mInserter.insertHourly(db, locationId,
+                    HourlyForecastBatch.fromBundle(extras));
+            if (returnCount != 0) {
+                notifyChange(getHourlyChange(db, locationId));
+            }
+        } else {
+            return super.call(method, arg, extras);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_COUNT, returnCount);
+        return result;
+    }
+
+    /**
+     * Returns the _id of the location in the extras, from the cache if it's there, and inserts
+     * the location first if it isn't stored yet.
+     */
+    private long upsertLocation(Bundle extras) {
+        String locationSetting =
+                extras.getString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        long locationId = mLocationIds.get(locationSetting);
+        if (locationId != LocationIdCache.NOT_CACHED) {
+            return locationId;
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        locationId = queryLocationId(db, locationSetting);
+        if (locationId == -1) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                    extras.getString(WeatherContract.LocationEntry.COLUMN_CITY_NAME));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                    extras.getDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+            locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+            if (locationId != -1) {
+                notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+            } else {
+                // Another thread may have inserted it in the meantime
+                locationId = queryLocationId(db, locationSetting);
+                if (locationId == -1) {
+                    throw new android.database.SQLException(
+                            "Failed to insert location " + locationSetting);
+                }
+            }
+        }
+        mLocationIds.put(locationSetting, locationId);
+        return locationId;
+    }
+
+    /**
+     * Reads the location's forecast straight off the (location_id, date, ...) index, with the
+     * location's id from the cache rather than a join.
+     */
+    private WeatherDataClient.Forecast getForecast(String locationSetting, long startDate,
+                                                   int limit) {
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = getLocationId(db, locationSetting);
+        if (locationId == -1) {
+            return new WeatherDataClient.Forecast(0);
+        }
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherDataClient.FORECAST_COLUMNS,
+                sLocationIdWithStartDateSelection,
+                new String[]{Long.toString(locationId), Long.toString(startDate)},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                limit > 0 ? Integer.toString(limit) : null);
+        try {
+            return WeatherDataClient.Forecast.fromCursor(cursor, 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Moves the old days of every location into the archive and trims the archive, in one
+     * transaction.
+     */
+    private Bundle compactArchive(SQLiteDatabase db, long keepFrom, long archiveSince) {
+        WeatherArchive.CompactCounts counts;
+        db.beginTransaction();
+        try {
+            counts = WeatherArchive.compact(db, WeatherContract.normalizeDate(keepFrom),
+                    archiveSince);
+            long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            for (long locationId : counts.locationIds) {
+                WeatherSummary.update(db, locationId, today);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        PendingChanges changes = new PendingChanges();
+        for (long locationId : counts.locationIds) {
+            changes.add(getWeatherChange(db, locationId, null));
+            changes.add(getArchiveChange(db, locationId));
+        }
+        if (counts.dropped != 0) {
+            changes.add(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        notifyChanges(changes);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ARCHIVED, counts.archived);
+        result.putInt(WeatherContract.EXTRA_DROPPED, counts.dropped);
+        return result;
+    }
+
+    /**
+     * Runs the database maintenance and tells the observers of its record about the new run.
+     */
+    private Bundle runMaintenance(SQLiteDatabase db, boolean idle) {
+        ContentValues values = WeatherMaintenance.run(db, idle);
+        notifyChange(WeatherContract.MaintenanceEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        putLong(result, values, WeatherContract.MaintenanceEntry.COLUMN_STARTED);
+        putLong(result, values, WeatherContract.MaintenanceEntry.COLUMN_DURATION);
+        result.putInt(WeatherContract.MaintenanceEntry.COLUMN_ANALYZED,
+                values.getAsInteger(WeatherContract.MaintenanceEntry.COLUMN_ANALYZED));
+        result.putInt(WeatherContract.MaintenanceEntry.COLUMN_IDLE,
+                values.getAsInteger(WeatherContract.MaintenanceEntry.COLUMN_IDLE));
+        putLong(result, values, WeatherContract.MaintenanceEntry.COLUMN_VACUUMED_PAGES);
+        putLong(result, values, WeatherContract.MaintenanceEntry.COLUMN_FILE_SIZE);
+        putLong(result, values, WeatherContract.MaintenanceEntry.COLUMN_PAGE_SIZE);
+        putLong(result, values, WeatherContract.MaintenanceEntry.COLUMN_PAGE_COUNT);
+        putLong(result, values, WeatherContract.MaintenanceEntry.COLUMN_FREE_PAGES);
+        result.putString(WeatherContract.MaintenanceEntry.COLUMN_INTEGRITY,
+                values.getAsString(WeatherContract.MaintenanceEntry.COLUMN_INTEGRITY));
+        return result;
+    }
+
+    private static void putLong(Bundle bundle, ContentValues values, String column) {
+        bundle.putLong(column, values.getAsLong(column));
+    }
+
+    /**
+     * The _id of the location with the given setting, from the cache if it's there.
+     *
+     * @return -1 if there is no such location.
+     */
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        long locationId = mLocationIds.get(locationSetting);
+        if (locationId == LocationIdCache.NOT_CACHED) {
+            locationId = queryLocationId(db, locationSetting);
+            if (locationId != -1) {
+                mLocationIds.put(locationSetting, locationId);
+            }
+        }
+        return locationId;
+    }
+
+    private static long queryLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The setting of the location with the given _id, from the cache if it's there.
+     *
+     * @return null if there is no such location.
+     */
+    private String getLocationSetting(SQLiteDatabase db, long locationId) {
+        String locationSetting = mLocationIds.getSetting(locationId);
+        if (locationSetting != null) {
+            return locationSetting;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            locationSetting = cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+        mLocationIds.put(locationSetting, locationId);
+        return locationSetting;
+    }
+
+    /**
+     * The narrowest URI that covers a change to the daily forecast: the day if there's one, the
+     * location otherwise, and every location if it isn't known which.
+     */
+    private Uri getWeatherChange(SQLiteDatabase db, Long locationId, Long date) {
+        String locationSetting = locationId != null ? getLocationSetting(db, locationId) : null;
+        if (locationSetting == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return date != null
+                ? WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date)
+                : WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+    }
+
+    private PendingChanges getWeatherChanges(SQLiteDatabase db, ContentValues[] values) {
+        // The first day of each location, or null once it had more than one
+        Map<Long, Long> locations = new HashMap<>();
+        PendingChanges changes = new PendingChanges();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            if (locationId == null) {
+                changes.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                continue;
+            }
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (!locations.containsKey(locationId)) {
+                locations.put(locationId, date);
+            } else if (date == null || !date.equals(locations.get(locationId))) {
+                locations.put(locationId, null);
+            }
+        }
+        for (Map.Entry<Long, Long> location : locations.entrySet()) {
+            changes.add(getWeatherChange(db, location.getKey(), location.getValue()));
+        }
+        return changes;
+    }
+
+    private Uri getHourlyChange(SQLiteDatabase db, Long locationId) {
+        String locationSetting = locationId != null ? getLocationSetting(db, locationId) : null;
+        return locationSetting != null
+                ? WeatherContract.HourlyEntry.buildHourlyLocation(locationSetting)
+                : WeatherContract.HourlyEntry.CONTENT_URI;
+    }
+
+    private Uri getArchiveChange(SQLiteDatabase db, long locationId) {
+        String locationSetting = getLocationSetting(db, locationId);
+        return locationSetting != null
+                ? WeatherContract.ArchiveEntry.buildArchiveLocation(locationSetting)
+                : WeatherContract.ArchiveEntry.CONTENT_URI;
+    }
+
+    private PendingChanges getHourlyChanges(SQLiteDatabase db, ContentValues[] values) {
+        Map<Long, Uri> locations = new HashMap<>();
+        PendingChanges changes = new PendingChanges();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+            if (!locations.containsKey(locationId)) {
+                Uri change = getHourlyChange(db, locationId);
+                locations.put(locationId, change);
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Applies all operations in a single transaction.  Observers are told about each changed URI
+     * once, after the transaction committed, instead of once per operation, and several days of
+     * the same location become one notification for the location.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        PendingChanges changes = new PendingChanges();
+        mBatchChanges.set(changes);
+        ContentProviderResult[] results = null;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+            if (results == null) {
+                // Locations the batch inserted, and cached, were rolled back with it
+                mLocationIds.clear();
+            }
+        }
+        for (Uri uri : changes.collapse()) {
+            sendChange(uri);
+        }
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        PendingChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+        } else {
+            sendChange(uri);
+        }
+    }
+
+    private void notifyChanges(PendingChanges changes) {
+        PendingChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(changes);
+        } else {
+            for (Uri uri : changes.collapse()) {
+                sendChange(uri);
+            }
+        }
+    }
+
+    private void sendChange(Uri uri) {
+        // Before the observers hear about it, so their queries don't get the old rows back
+        invalidateQueryResults(uri);
+        mNotificationCount.incrementAndGet();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    // Drops the cached query results a change to the URI can have touched
+    private void invalidateQueryResults(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                mQueryResults.invalidate(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.WeatherEntry.getDateFromUri(uri));
+                break;
+            case WEATHER_WITH_LOCATION:
+                mQueryResults.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri), -1);
+                break;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+            case SUMMARY_WITH_LOCATION:
+            case MAINTENANCE:
+                // Not cached
+                break;
+            default:
+                // The whole weather table, or the location rows every result is joined with
+                mQueryResults.clear();
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mInserter.close();
         mOpenHelper.close();
         super.shutdown();
     }
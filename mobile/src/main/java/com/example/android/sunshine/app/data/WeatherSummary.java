@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the rows of {@link SummaryEntry} in step with the weather table.  A location's summary
+ * is worked out again from its next 14 days each time any of its days is written.  Those days
+ * come straight off the (location_id, date, weather_id, short_desc, max, min) index, so that is
+ * 14 index entries and no table rows.
+ * <p/>
+ * The methods that write expect to run inside the transaction of the write they follow.  A
+ * stored summary from an earlier day is only replaced by the next write to its location; until
+ * then {@link #query} works it out without storing it, so reading never takes the writer lock.
+ */
+class WeatherSummary {
+
+    static final int WEEK_DAYS = 7;
+    static final int FORTNIGHT_DAYS = 14;
+
+    // All in the index, in the order update() reads them
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // Every column of the table, for a null projection
+    private static final String[] SUMMARY_COLUMNS = {
+            SummaryEntry.COLUMN_LOC_KEY,
+            SummaryEntry.COLUMN_DATE,
+            SummaryEntry.COLUMN_WEATHER_ID,
+            SummaryEntry.COLUMN_SHORT_DESC,
+            SummaryEntry.COLUMN_MAX_TEMP,
+            SummaryEntry.COLUMN_MIN_TEMP,
+            SummaryEntry.COLUMN_TOMORROW_WEATHER_ID,
+            SummaryEntry.COLUMN_TOMORROW_SHORT_DESC,
+            SummaryEntry.COLUMN_TOMORROW_MAX_TEMP,
+            SummaryEntry.COLUMN_TOMORROW_MIN_TEMP,
+            SummaryEntry.COLUMN_WEEK_MAX_TEMP,
+            SummaryEntry.COLUMN_WEEK_MIN_TEMP,
+            SummaryEntry.COLUMN_FORTNIGHT_MAX_TEMP,
+            SummaryEntry.COLUMN_FORTNIGHT_MIN_TEMP,
+            SummaryEntry.COLUMN_DAYS
+    };
+
+    //location_id = ? AND date >= ? AND date < ?
+    private static final String sLocationDateRangeSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ? AND "
+                    + WeatherEntry.COLUMN_DATE + " < ?";
+
+    //location_id = ?
+    private static final String sLocationSelection = SummaryEntry.COLUMN_LOC_KEY + " = ?";
+
+    //location_id = ? AND date = ?
+    private static final String sLocationAndDateSelection =
+            SummaryEntry.COLUMN_LOC_KEY + " = ? AND " + SummaryEntry.COLUMN_DATE + " = ?";
+
+    //location_id NOT IN (SELECT _id FROM location)
+    private static final String sDeletedLocationSelection =
+            SummaryEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " + LocationEntry._ID + " FROM "
+                    + LocationEntry.TABLE_NAME + ")";
+
+    private WeatherSummary() {
+    }
+
+    /**
+     * Works out the location's summary from today on and stores it, or drops it if none of
+     * the 14 days is stored.
+     *
+     * @param today a normalized date.
+     */
+    static void update(SQLiteDatabase db, long locationId, long today) {
+        ContentValues values = compute(db, locationId, today);
+        if (values == null) {
+            db.delete(SummaryEntry.TABLE_NAME, sLocationSelection,
+                    new String[]{Long.toString(locationId)});
+            return;
+        }
+        // The table replaces the row on conflict
+        if (db.insert(SummaryEntry.TABLE_NAME, null, values) == -1) {
+            throw new android.database.SQLException(
+                    "Failed to store the summary of location " + locationId);
+        }
+    }
+
+    /**
+     * Works out the summary of the given locations again.
+     */
+    static void update(SQLiteDatabase db, List<Long> locationIds, long today) {
+        for (long locationId : locationIds) {
+            update(db, locationId, today);
+        }
+    }
+
+    /**
+     * Works out the location's summary from today on.
+     *
+     * @return the summary's row, or null if none of the 14 days is stored.
+     */
+    private static ContentValues compute(SQLiteDatabase db, long locationId, long today) {
+        int julianDay = JulianDays.getJulianDay(today);
+        long tomorrow = JulianDays.getDayStart(julianDay + 1);
+        long weekEnd = JulianDays.getDayStart(julianDay + WEEK_DAYS);
+        long fortnightEnd = JulianDays.getDayStart(julianDay + FORTNIGHT_DAYS);
+
+        String location = Long.toString(locationId);
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS,
+                sLocationDateRangeSelection,
+                new String[]{location, Long.toString(today), Long.toString(fortnightEnd)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        ContentValues values = new ContentValues();
+        try {
+            if (cursor.getCount() == 0) {
+                return null;
+            }
+            values.put(SummaryEntry.COLUMN_LOC_KEY, locationId);
+            values.put(SummaryEntry.COLUMN_DATE, today);
+            values.put(SummaryEntry.COLUMN_DAYS, cursor.getCount());
+            values.putNull(SummaryEntry.COLUMN_WEATHER_ID);
+            values.putNull(SummaryEntry.COLUMN_SHORT_DESC);
+            values.putNull(SummaryEntry.COLUMN_MAX_TEMP);
+            values.putNull(SummaryEntry.COLUMN_MIN_TEMP);
+            values.putNull(SummaryEntry.COLUMN_TOMORROW_WEATHER_ID);
+            values.putNull(SummaryEntry.COLUMN_TOMORROW_SHORT_DESC);
+            values.putNull(SummaryEntry.COLUMN_TOMORROW_MAX_TEMP);
+            values.putNull(SummaryEntry.COLUMN_TOMORROW_MIN_TEMP);
+            values.putNull(SummaryEntry.COLUMN_WEEK_MAX_TEMP);
+            values.putNull(SummaryEntry.COLUMN_WEEK_MIN_TEMP);
+
+            double weekMax = Double.NEGATIVE_INFINITY;
+            double weekMin = Double.POSITIVE_INFINITY;
+            double fortnightMax = Double.NEGATIVE_INFINITY;
+            double fortnightMin = Double.POSITIVE_INFINITY;
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(0);
+                double max = cursor.getDouble(3);
+                double min = cursor.getDouble(4);
+                if (date == today) {
+                    values.put(SummaryEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+                    values.put(SummaryEntry.COLUMN_SHORT_DESC, cursor.getString(2));
+                    values.put(SummaryEntry.COLUMN_MAX_TEMP, max);
+                    values.put(SummaryEntry.COLUMN_MIN_TEMP, min);
+                } else if (date == tomorrow) {
+                    values.put(SummaryEntry.COLUMN_TOMORROW_WEATHER_ID, cursor.getInt(1));
+                    values.put(SummaryEntry.COLUMN_TOMORROW_SHORT_DESC, cursor.getString(2));
+                    values.put(SummaryEntry.COLUMN_TOMORROW_MAX_TEMP, max);
+                    values.put(SummaryEntry.COLUMN_TOMORROW_MIN_TEMP, min);
+                }
+                if (date < weekEnd) {
+                    weekMax = Math.max(weekMax, max);
+                    weekMin = Math.min(weekMin, min);
+                }
+                fortnightMax = Math.max(fortnightMax, max);
+                fortnightMin = Math.min(fortnightMin, min);
+            }
+            if (weekMax != Double.NEGATIVE_INFINITY) {
+                values.put(SummaryEntry.COLUMN_WEEK_MAX_TEMP, weekMax);
+                values.put(SummaryEntry.COLUMN_WEEK_MIN_TEMP, weekMin);
+            }
+            values.put(SummaryEntry.COLUMN_FORTNIGHT_MAX_TEMP, fortnightMax);
+            values.put(SummaryEntry.COLUMN_FORTNIGHT_MIN_TEMP, fortnightMin);
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    /**
+     * Reads the locations of the weather rows a selection matches, for a write to look up
+     * before it runs.
+     */
+    static List<Long> getLocationIds(SQLiteDatabase db, String selection,
+                                     String[] selectionArgs) {
+        Cursor cursor = db.query(true, WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY}, selection, selectionArgs,
+                null, null, null, null);
+        List<Long> locationIds = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * Works out the summary of every location again, for the migration that adds the table.
+     */
+    static void updateAll(SQLiteDatabase db, long today) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                update(db, cursor.getLong(0), today);
+            }
+        } finally {
+            cursor.close();
+        }
+        dropDeletedLocations(db);
+    }
+
+    /**
+     * Drops the summaries of locations that no longer exist.
+     */
+    static int dropDeletedLocations(SQLiteDatabase db) {
+        return db.delete(SummaryEntry.TABLE_NAME, sDeletedLocationSelection, null);
+    }
+
+    /**
+     * Reads the location's summary as stored, if it was written today.  One from an earlier
+     * day, or a missing one, is worked out from the weather table instead, and not stored.
+     *
+     * @return the summary, or no rows if none of the 14 days is stored.
+     * @throws IllegalArgumentException if the projection asks for a column the table lacks.
+     */
+    static Cursor query(SQLiteDatabase db, long locationId, long today, String[] projection) {
+        Cursor cursor = db.query(SummaryEntry.TABLE_NAME, projection, sLocationAndDateSelection,
+                new String[]{Long.toString(locationId), Long.toString(today)},
+                null, null, null);
+        if (cursor.getCount() > 0) {
+            return cursor;
+        }
+        cursor.close();
+
+        String[] columns = projection != null ? projection : SUMMARY_COLUMNS;
+        MatrixCursor result = new MatrixCursor(columns, 1);
+        ContentValues values = compute(db, locationId, today);
+        if (values != null) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                if (!values.containsKey(columns[i])) {
+                    throw new IllegalArgumentException("Unknown summary column " + columns[i]);
+                }
+                row[i] = values.get(columns[i]);
+            }
+            result.addRow(row);
+        }
+        return result;
+    }
+}
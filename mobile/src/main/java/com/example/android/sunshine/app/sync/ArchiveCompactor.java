@@ -0,0 +1,77 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Compacts the archive of past days once a day, from the sync: days any location still has
+ * before today go into the archive, and months older than the retention period are dropped.
+ * The time of the last run is kept in its own preferences file.
+ */
+class ArchiveCompactor {
+    private static final String LOG_TAG = ArchiveCompactor.class.getSimpleName();
+
+    private static final String PREFS_NAME = "weather_archive";
+    private static final String PREF_LAST_COMPACTED = "last_compacted";
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    static final long COMPACT_INTERVAL_MILLIS = DAY_IN_MILLIS;
+    // How long past days are kept
+    static final long RETENTION_MILLIS = 2 * 365 * DAY_IN_MILLIS;
+
+    private ArchiveCompactor() {
+    }
+
+    /**
+     * Compacts the archive if it hasn't been in the last day.  Must not be called from the UI
+     * thread.
+     */
+    static void compactIfDue(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        long lastCompacted = prefs.getLong(PREF_LAST_COMPACTED, 0);
+        if (lastCompacted <= now && now - lastCompacted < COMPACT_INTERVAL_MILLIS) {
+            return;
+        }
+        Bundle counts = WeatherContract.ArchiveEntry.compact(context.getContentResolver(), now,
+            now - RETENTION_MILLIS);
+        if (counts == null) {
+            // Below Honeycomb there's nothing to ask
+            return;
+        }
+        prefs.edit().putLong(PREF_LAST_COMPACTED, now).apply();
+        Log.d(LOG_TAG, "Archive compacted: " + counts.getInt(WeatherContract.EXTRA_ARCHIVED)
+            + " days archived, " + counts.getInt(WeatherContract.EXTRA_DROPPED)
+            + " months dropped");
+        logStorage(context);
+    }
+
+    private static void logStorage(Context context) {
+        if (!Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            return;
+        }
+        Cursor cursor = context.getContentResolver().query(
+            WeatherContract.ArchiveEntry.CONTENT_URI, null, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int setting = cursor.getColumnIndex(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+            int year = cursor.getColumnIndex(WeatherContract.ArchiveEntry.COLUMN_YEAR);
+            int days = cursor.getColumnIndex(WeatherContract.ArchiveEntry.COLUMN_DAYS);
+            int bytes = cursor.getColumnIndex(WeatherContract.ArchiveEntry.COLUMN_BYTES);
+            while (cursor.moveToNext()) {
+                Log.d(LOG_TAG, cursor.getString(setting) + " " + cursor.getInt(year) + ": "
+                    + cursor.getInt(days) + " days in " + cursor.getInt(bytes) + " bytes");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Compares a freshly parsed forecast with the rows already stored for its location and works
+ * out the smallest set of days that brings the table up to date.
+ * <p/>
+ * Days that aren't stored yet and days whose values changed go into {@link #changes}, for
+ * {@link WeatherEntry#replaceForecastWindow} to insert or update in place; days that are
+ * identical are left alone.  The server usually repeats most of a forecast from one sync to the
+ * next, so in the common case nothing is written at all.
+ */
+class ForecastDiff {
+
+    private static final String[] STORED_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_HUMIDITY = 1;
+    private static final int INDEX_PRESSURE = 2;
+    private static final int INDEX_WIND_SPEED = 3;
+    private static final int INDEX_DEGREES = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_MIN_TEMP = 6;
+    private static final int INDEX_SHORT_DESC = 7;
+    private static final int INDEX_WEATHER_ID = 8;
+
+    private static final String STORED_SELECTION =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherEntry.COLUMN_DATE + " <= ?";
+
+    // The days to insert or update, in the order of the forecast
+    final ForecastBatch changes = new ForecastBatch();
+    int inserted;
+    int updated;
+    int unchanged;
+
+    private ForecastDiff() {
+    }
+
+    /**
+     * @return true if writing {@link #changes} changes anything.
+     */
+    boolean hasChanges() {
+        return changes.count != 0;
+    }
+
+    /**
+     * Diffs the batch against the weather table.  The dates of the batch must be filled in and
+     * ascending, the way the sync adapter stores them.
+     */
+    static ForecastDiff compute(ContentResolver resolver, long locationId, ForecastBatch batch) {
+        ForecastDiff diff = new ForecastDiff();
+        int count = batch.count;
+        if (count == 0) {
+            return diff;
+        }
+
+        // The provider normalizes dates on the way in, so compare against the normalized ones
+        long[] dates = new long[count];
+        for (int i = 0; i < count; i++) {
+            dates[i] = WeatherContract.normalizeDate(batch.dates[i]);
+        }
+
+        boolean[] write = new boolean[count];
+        Arrays.fill(write, true);
+        Cursor cursor = resolver.query(WeatherEntry.CONTENT_URI, STORED_COLUMNS, STORED_SELECTION,
+                new String[]{
+                        Long.toString(locationId),
+                        Long.toString(dates[0]),
+                        Long.toString(dates[count - 1])},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                int i = Arrays.binarySearch(dates, cursor.getLong(INDEX_DATE));
+                if (i < 0) {
+                    continue;
+                }
+                if (matches(cursor, batch, i)) {
+                    write[i] = false;
+                    diff.unchanged++;
+                } else {
+                    diff.updated++;
+                }
+            }
+            cursor.close();
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (write[i]) {
+                diff.changes.appendFrom(batch, i);
+            }
+        }
+        diff.inserted = diff.changes.count - diff.updated;
+        return diff;
+    }
+
+    private static boolean matches(Cursor cursor, ForecastBatch batch, int i) {
+        // The values went into the table as these exact doubles, so equality is safe
+        return cursor.getInt(INDEX_HUMIDITY) == batch.humidity[i]
+                && cursor.getDouble(INDEX_PRESSURE) == batch.pressure[i]
+                && cursor.getDouble(INDEX_WIND_SPEED) == batch.windSpeed[i]
+                && cursor.getDouble(INDEX_DEGREES) == batch.windDirection[i]
+                && cursor.getDouble(INDEX_MAX_TEMP) == batch.high[i]
+                && cursor.getDouble(INDEX_MIN_TEMP) == batch.low[i]
+                && cursor.getInt(INDEX_WEATHER_ID) == batch.weatherId[i]
+                && equals(cursor.getString(INDEX_SHORT_DESC), batch.description[i]);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
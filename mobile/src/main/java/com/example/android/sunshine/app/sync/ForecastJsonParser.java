@@ -0,0 +1,359 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Turns the OWM daily forecast response into a {@link ForecastBatch}.
+ * <p/>
+ * On Honeycomb and higher the response is pulled token by token straight off the connection's
+ * InputStream, so the payload never exists as a String or as a JSONObject tree and the memory
+ * used does not grow with the size of the response.  Older devices don't have
+ * {@link JsonReader}, so they fall back to reading the whole body and walking an org.json tree.
+ * Both paths fill the batch with exactly the same values, and both report a malformed or
+ * incomplete response with a {@link JSONException}.
+ * <p/>
+ * Dates are not taken from the response: the sync adapter assigns them from the julian day,
+ * exactly as it always has.
+ */
+class ForecastJsonParser {
+
+    /**
+     * Returned by {@link #parse} when the response didn't carry a "cod" field at all.
+     */
+    static final int NO_MESSAGE_CODE = -1;
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to check that every value we need for a day was present
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_TEMPERATURE = 1 << 4;
+    private static final int FIELD_WEATHER = 1 << 5;
+    private static final int ALL_DAY_FIELDS = (1 << 6) - 1;
+
+    /**
+     * Reads a forecast response into the given batch, replacing whatever it held before.
+     *
+     * @param in    The response body.  It is read to the end of the JSON object but not closed.
+     * @param batch The batch to fill in.
+     * @return the "cod" value of the response, or {@link #NO_MESSAGE_CODE} if there was none.
+     * The city and list are only guaranteed to be filled in when this is HTTP_OK or
+     * NO_MESSAGE_CODE.
+     */
+    int parse(InputStream in, ForecastBatch batch) throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(in, batch);
+        }
+        return parseTree(in, batch);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    int parseStream(InputStream in, ForecastBatch batch) throws IOException, JSONException {
+        batch.clear();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        int messageCode = NO_MESSAGE_CODE;
+        boolean hasCity = false;
+        boolean hasList = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = nextInt(reader);
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, batch);
+                    hasCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, batch);
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports a value of the wrong type this way
+            throw new JSONException(e.getMessage());
+        }
+
+        if (messageCode == NO_MESSAGE_CODE || messageCode == HttpURLConnection.HTTP_OK) {
+            if (!hasList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (!hasCity) {
+                throw new JSONException("No value for " + OWM_CITY);
+            }
+        }
+        return messageCode;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readCity(JsonReader reader, ForecastBatch batch)
+            throws IOException, JSONException {
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                batch.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                boolean hasLatitude = false;
+                boolean hasLongitude = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        batch.cityLatitude = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        batch.cityLongitude = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (!hasLatitude) {
+                    throw new JSONException("No value for " + OWM_LATITUDE);
+                }
+                if (!hasLongitude) {
+                    throw new JSONException("No value for " + OWM_LONGITUDE);
+                }
+                hasCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (batch.cityName == null) {
+            throw new JSONException("No value for " + OWM_CITY_NAME);
+        }
+        if (!hasCoord) {
+            throw new JSONException("No value for " + OWM_COORD);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readList(JsonReader reader, ForecastBatch batch)
+            throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, batch, batch.append());
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readDay(JsonReader reader, ForecastBatch batch, int i)
+            throws IOException, JSONException {
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                batch.pressure[i] = reader.nextDouble();
+                seen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                batch.humidity[i] = nextInt(reader);
+                seen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                batch.windSpeed[i] = reader.nextDouble();
+                seen |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                batch.windDirection[i] = reader.nextDouble();
+                seen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                readTemperature(reader, batch, i);
+                seen |= FIELD_TEMPERATURE;
+            } else if (OWM_WEATHER.equals(name)) {
+                readWeather(reader, batch, i);
+                seen |= FIELD_WEATHER;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != ALL_DAY_FIELDS) {
+            throw new JSONException("Incomplete forecast for day " + i);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readTemperature(JsonReader reader, ForecastBatch batch, int i)
+            throws IOException, JSONException {
+        boolean hasMax = false;
+        boolean hasMin = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                batch.high[i] = reader.nextDouble();
+                hasMax = true;
+            } else if (OWM_MIN.equals(name)) {
+                batch.low[i] = reader.nextDouble();
+                hasMin = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!hasMax || !hasMin) {
+            throw new JSONException("Incomplete temperature for day " + i);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readWeather(JsonReader reader, ForecastBatch batch, int i)
+            throws IOException, JSONException {
+        // Description is in a child array called "weather", which is 1 element long.
+        // That element also contains a weather code.
+        reader.beginArray();
+        if (!reader.hasNext()) {
+            throw new JSONException("No weather for day " + i);
+        }
+        boolean hasDescription = false;
+        boolean hasWeatherId = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                batch.description[i] = reader.nextString();
+                hasDescription = true;
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                batch.weatherId[i] = nextInt(reader);
+                hasWeatherId = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        if (!hasDescription || !hasWeatherId) {
+            throw new JSONException("Incomplete weather for day " + i);
+        }
+    }
+
+    /**
+     * Reads an int the way JSONObject.getInt does: numbers are truncated and numeric strings
+     * (OWM sends "cod" as a string) are accepted.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int nextInt(JsonReader reader) throws IOException {
+        return (int) reader.nextDouble();
+    }
+
+    /**
+     * The pre-Honeycomb path.  Reads the whole response and walks it as an org.json tree.
+     */
+    int parseTree(InputStream in, ForecastBatch batch) throws IOException, JSONException {
+        batch.clear();
+        String forecastJsonStr = readFully(in);
+
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        int messageCode = NO_MESSAGE_CODE;
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                return messageCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        batch.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        batch.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        batch.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        for (int d = 0; d < weatherArray.length(); d++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(d);
+            int i = batch.append();
+
+            batch.pressure[i] = dayForecast.getDouble(OWM_PRESSURE);
+            batch.humidity[i] = dayForecast.getInt(OWM_HUMIDITY);
+            batch.windSpeed[i] = dayForecast.getDouble(OWM_WINDSPEED);
+            batch.windDirection[i] = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            batch.description[i] = weatherObject.getString(OWM_DESCRIPTION);
+            batch.weatherId[i] = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            batch.high[i] = temperatureObject.getDouble(OWM_MAX);
+            batch.low[i] = temperatureObject.getDouble(OWM_MIN);
+        }
+        return messageCode;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new EOFException("Empty forecast response");
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * A GET for a forecast, optionally made conditional with the validators of the last response.
+ */
+public class ForecastRequest {
+    private final String mUrl;
+    private String mIfNoneMatch;
+    private long mIfModifiedSince;
+
+    public ForecastRequest(String url) {
+        mUrl = url;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public String getIfNoneMatch() {
+        return mIfNoneMatch;
+    }
+
+    public void setIfNoneMatch(String etag) {
+        mIfNoneMatch = etag;
+    }
+
+    public long getIfModifiedSince() {
+        return mIfModifiedSince;
+    }
+
+    public void setIfModifiedSince(long lastModified) {
+        mIfModifiedSince = lastModified;
+    }
+}
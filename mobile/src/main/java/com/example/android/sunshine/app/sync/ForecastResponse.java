@@ -0,0 +1,69 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The answer to a {@link ForecastRequest}.  The status line and headers are available right
+ * away, the body is streamed from {@link #getBody()}.
+ */
+public abstract class ForecastResponse implements Closeable {
+    private final int mCode;
+    private final String mEtag;
+    private final long mLastModified;
+    private final long mLatencyMillis;
+
+    protected ForecastResponse(int code, String etag, long lastModified, long latencyMillis) {
+        mCode = code;
+        mEtag = etag;
+        mLastModified = lastModified;
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @return the HTTP status code.
+     */
+    public int getCode() {
+        return mCode;
+    }
+
+    /**
+     * @return the ETag header, or null if the server didn't send one.
+     */
+    public String getEtag() {
+        return mEtag;
+    }
+
+    /**
+     * @return the Last-Modified header in milliseconds since the epoch, or 0 if there was none.
+     */
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return how long it took from sending the request until the headers came back.
+     */
+    public long getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    /**
+     * @return the body, already decompressed if the server compressed it.
+     */
+    public abstract InputStream getBody() throws IOException;
+
+    /**
+     * @return the number of body bytes read off the network so far, before decompression.
+     * Once the response is closed this is the full size of the body on the wire.
+     */
+    public abstract long getBytesReceived();
+
+    /**
+     * Releases the response.  Whatever is left of the body may be read to the end so the
+     * connection can be reused.  Closing twice has no effect.
+     */
+    @Override
+    public abstract void close();
+}
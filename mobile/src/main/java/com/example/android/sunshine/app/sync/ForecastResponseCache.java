@@ -0,0 +1,232 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Remembers the HTTP validators (ETag and Last-Modified) of the last forecast stored for each
+ * request URI, so the next sync can ask the server whether anything changed at all.
+ * <p/>
+ * The forecast itself isn't kept here, it is already in the weather table.  That's also why an
+ * entry is only written once a response has been parsed and stored successfully: a 304 for a
+ * request means "what you stored last time is still current".
+ * <p/>
+ * Entries live in the app's cache directory, one small file per request.  The hit and byte
+ * counters are kept in their own shared preferences file so they survive the cache being cleared.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "forecast_validators";
+    private static final String ENTRY_SUFFIX = ".v";
+    // One entry per location we have synced recently is plenty
+    private static final int MAX_ENTRIES = 16;
+
+    private static final String PREFS_NAME = "forecast_response_cache";
+    private static final String PREF_REQUESTS = "requests";
+    private static final String PREF_HITS = "hits";
+    private static final String PREF_BYTES_SAVED = "bytes_saved";
+
+    private final File mDirectory;
+    private final SharedPreferences mStats;
+
+    ForecastResponseCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        mStats = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Makes the request conditional if we have validators for it.
+     *
+     * @return true if the request was made conditional.
+     */
+    synchronized boolean addValidators(ForecastRequest request) {
+        Entry entry = read(request.getUrl());
+        if (entry == null) {
+            return false;
+        }
+        request.setIfNoneMatch(entry.etag);
+        request.setIfModifiedSince(entry.lastModified);
+        return true;
+    }
+
+    /**
+     * Records a 304 Not Modified answer.  The bytes of the response we didn't have to download
+     * again are counted as saved.
+     */
+    synchronized void onNotModified(ForecastRequest request, ForecastResponse response) {
+        String requestKey = request.getUrl();
+        Entry entry = read(requestKey);
+        long saved = 0;
+        if (entry != null) {
+            saved = entry.length;
+            // A 304 may carry updated validators
+            String etag = response.getEtag();
+            long lastModified = response.getLastModified();
+            if ((etag != null && !etag.equals(entry.etag))
+                    || (lastModified > 0 && lastModified != entry.lastModified)) {
+                write(new Entry(requestKey, etag != null ? etag : entry.etag,
+                        lastModified > 0 ? lastModified : entry.lastModified, entry.length));
+            }
+        }
+        mStats.edit()
+                .putLong(PREF_REQUESTS, getRequestCount() + 1)
+                .putLong(PREF_HITS, getHitCount() + 1)
+                .putLong(PREF_BYTES_SAVED, getBytesSaved() + saved)
+                .commit();
+    }
+
+    /**
+     * Records a full response whose forecast has been stored.  The response should be closed
+     * already, so that its size on the wire is known.
+     */
+    synchronized void onResponse(ForecastRequest request, ForecastResponse response) {
+        String requestKey = request.getUrl();
+        String etag = response.getEtag();
+        long lastModified = response.getLastModified();
+        if (etag == null && lastModified <= 0) {
+            // Nothing to validate against next time
+            remove(requestKey);
+        } else {
+            write(new Entry(requestKey, etag, lastModified, response.getBytesReceived()));
+        }
+        mStats.edit()
+                .putLong(PREF_REQUESTS, getRequestCount() + 1)
+                .commit();
+    }
+
+    /**
+     * Forgets the validators for a request, so the next one downloads the full forecast.
+     */
+    synchronized void remove(String requestKey) {
+        File file = fileFor(requestKey);
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Unable to delete " + file);
+        }
+    }
+
+    long getRequestCount() {
+        return mStats.getLong(PREF_REQUESTS, 0);
+    }
+
+    long getHitCount() {
+        return mStats.getLong(PREF_HITS, 0);
+    }
+
+    long getBytesSaved() {
+        return mStats.getLong(PREF_BYTES_SAVED, 0);
+    }
+
+    private File fileFor(String requestKey) {
+        return new File(mDirectory, Integer.toHexString(requestKey.hashCode()) + ENTRY_SUFFIX);
+    }
+
+    private Entry read(String requestKey) {
+        File file = fileFor(requestKey);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            String key = in.readUTF();
+            if (!requestKey.equals(key)) {
+                // Two requests with the same hash; the other one owns this file
+                return null;
+            }
+            String etag = in.readUTF();
+            long lastModified = in.readLong();
+            long length = in.readLong();
+            return new Entry(key, etag.length() > 0 ? etag : null, lastModified, length);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Discarding unreadable cache entry " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing cache entry", e);
+                }
+            }
+        }
+    }
+
+    private void write(Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + mDirectory);
+            return;
+        }
+        File file = fileFor(entry.key);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeUTF(entry.key);
+            out.writeUTF(entry.etag != null ? entry.etag : "");
+            out.writeLong(entry.lastModified);
+            out.writeLong(entry.length);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write cache entry " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // A half written entry fails to read back and gets discarded then
+                    Log.e(LOG_TAG, "Error closing cache entry", e);
+                }
+            }
+        }
+        trim();
+    }
+
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_ENTRIES) {
+            return;
+        }
+        // Drop the least recently written entries
+        for (int excess = files.length - MAX_ENTRIES; excess > 0; excess--) {
+            File oldest = null;
+            for (File file : files) {
+                if (file != null && (oldest == null || file.lastModified() < oldest.lastModified())) {
+                    oldest = file;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            oldest.delete();
+            for (int i = 0; i < files.length; i++) {
+                if (files[i] == oldest) {
+                    files[i] = null;
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        final String etag;
+        final long lastModified;
+        final long length;
+
+        Entry(String key, String etag, long lastModified, long length) {
+            this.key = key;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+
+/**
+ * Fetches forecasts from the weather server.  The sync adapter only talks to the network
+ * through this, so tests and benchmarks can swap in their own implementation.
+ * <p/>
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface ForecastTransport {
+
+    /**
+     * Sends the request and returns as soon as the response headers have arrived.  The caller
+     * must {@link ForecastResponse#close() close} the response, which lets the implementation
+     * reuse the connection for the next request.
+     */
+    ForecastResponse execute(ForecastRequest request) throws IOException;
+}
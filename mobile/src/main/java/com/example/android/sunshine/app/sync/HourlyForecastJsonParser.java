@@ -0,0 +1,240 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.HourlyForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Turns the OWM 3-hourly forecast response into a {@link HourlyForecastBatch}, packing each
+ * point as it is read.  Streams with {@link JsonReader} on Honeycomb and higher and falls back
+ * to org.json below, like {@link ForecastJsonParser}.
+ * <p/>
+ * Unlike the daily forecast, each point carries its own time, which is used as is.
+ */
+class HourlyForecastJsonParser {
+
+    // Each point is an element of the "list" array
+    private static final String OWM_LIST = "list";
+    private static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    // Wind is left out of some points, which then count as calm
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to check that every value we need for a point was present
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_TEMPERATURE = 1 << 1;
+    private static final int FIELD_PRESSURE = 1 << 2;
+    private static final int FIELD_HUMIDITY = 1 << 3;
+    private static final int FIELD_WEATHER = 1 << 4;
+    private static final int ALL_POINT_FIELDS = (1 << 5) - 1;
+
+    /**
+     * Reads a 3-hourly forecast response into the given batch, replacing whatever it held
+     * before.
+     *
+     * @param in    The response body.  It is read to the end of the JSON object but not closed.
+     * @param batch The batch to fill in.
+     * @return the "cod" value of the response, or {@link ForecastJsonParser#NO_MESSAGE_CODE} if
+     * there was none.
+     */
+    int parse(InputStream in, HourlyForecastBatch batch) throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(in, batch);
+        }
+        return parseTree(in, batch);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    int parseStream(InputStream in, HourlyForecastBatch batch) throws IOException, JSONException {
+        batch.clear();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        int messageCode = ForecastJsonParser.NO_MESSAGE_CODE;
+        boolean hasList = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = (int) reader.nextDouble();
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readPoint(reader, batch);
+                    }
+                    reader.endArray();
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports a value of the wrong type this way
+            throw new JSONException(e.getMessage());
+        }
+
+        if ((messageCode == ForecastJsonParser.NO_MESSAGE_CODE
+                || messageCode == HttpURLConnection.HTTP_OK) && !hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return messageCode;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readPoint(JsonReader reader, HourlyForecastBatch batch)
+            throws IOException, JSONException {
+        int i = batch.append();
+        int seen = 0;
+        int weatherId = 0;
+        double temperature = 0;
+        int humidity = 0;
+        double pressure = 0;
+        double windSpeed = 0;
+        double degrees = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                batch.times[i] = reader.nextLong();
+                seen |= FIELD_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        temperature = reader.nextDouble();
+                        seen |= FIELD_TEMPERATURE;
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        pressure = reader.nextDouble();
+                        seen |= FIELD_PRESSURE;
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        humidity = (int) reader.nextDouble();
+                        seen |= FIELD_HUMIDITY;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        degrees = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // A one element array, like in the daily forecast
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_WEATHER_ID.equals(weatherName) && (seen & FIELD_WEATHER) == 0) {
+                            weatherId = (int) reader.nextDouble();
+                            seen |= FIELD_WEATHER;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != ALL_POINT_FIELDS) {
+            throw new JSONException("Incomplete forecast for point " + i);
+        }
+        batch.packed[i] = WeatherContract.HourlyEntry.pack(
+                weatherId, temperature, humidity, pressure, windSpeed, degrees);
+    }
+
+    /**
+     * The pre-Honeycomb path.  Reads the whole response and walks it as an org.json tree.
+     */
+    int parseTree(InputStream in, HourlyForecastBatch batch) throws IOException, JSONException {
+        batch.clear();
+        String forecastJsonStr = readFully(in);
+
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        int messageCode = ForecastJsonParser.NO_MESSAGE_CODE;
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                return messageCode;
+            }
+        }
+
+        JSONArray pointArray = forecastJson.getJSONArray(OWM_LIST);
+        for (int p = 0; p < pointArray.length(); p++) {
+            JSONObject point = pointArray.getJSONObject(p);
+            int i = batch.append();
+            batch.times[i] = point.getLong(OWM_TIME);
+
+            JSONObject main = point.getJSONObject(OWM_MAIN);
+            JSONObject wind = point.optJSONObject(OWM_WIND);
+            batch.packed[i] = WeatherContract.HourlyEntry.pack(
+                    point.getJSONArray(OWM_WEATHER).getJSONObject(0).getInt(OWM_WEATHER_ID),
+                    main.getDouble(OWM_TEMPERATURE),
+                    main.getInt(OWM_HUMIDITY),
+                    main.getDouble(OWM_PRESSURE),
+                    wind != null ? wind.optDouble(OWM_WINDSPEED, 0) : 0,
+                    wind != null ? wind.optDouble(OWM_WIND_DIRECTION, 0) : 0);
+        }
+        return messageCode;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new EOFException("Empty forecast response");
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link ForecastTransport} on top of the platform's HttpURLConnection.
+ * <p/>
+ * Compression is requested explicitly rather than left to the platform, so that
+ * {@link ForecastResponse#getBytesReceived()} reports what actually came over the network.
+ * Connections are never disconnect()ed after a clean response: closing the response reads the
+ * body to the end, which hands the socket back to HttpURLConnection's keep-alive pool for the
+ * next request to the same host.
+ */
+public class HttpUrlConnectionTransport implements ForecastTransport {
+    private static final String LOG_TAG = HttpUrlConnectionTransport.class.getSimpleName();
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // Reading more than this just to keep a connection around costs more than a new handshake
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    public HttpUrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public HttpUrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return mConnectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return mReadTimeoutMillis;
+    }
+
+    @Override
+    public ForecastResponse execute(ForecastRequest request) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        try {
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (request.getIfNoneMatch() != null) {
+                connection.setRequestProperty("If-None-Match", request.getIfNoneMatch());
+            }
+            if (request.getIfModifiedSince() > 0) {
+                connection.setIfModifiedSince(request.getIfModifiedSince());
+            }
+
+            int code = connection.getResponseCode();
+            return new ConnectionResponse(connection, code,
+                    SystemClock.elapsedRealtime() - start);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static class ConnectionResponse extends ForecastResponse {
+        private final HttpURLConnection mConnection;
+        private CountingInputStream mWireStream;
+        private InputStream mBody;
+        private boolean mClosed;
+
+        ConnectionResponse(HttpURLConnection connection, int code, long latencyMillis) {
+            super(code, connection.getHeaderField("ETag"), connection.getLastModified(),
+                    latencyMillis);
+            mConnection = connection;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mWireStream = new CountingInputStream(openRawStream());
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    mBody = new GZIPInputStream(mWireStream);
+                } else {
+                    mBody = mWireStream;
+                }
+            }
+            return mBody;
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return mWireStream == null ? 0 : mWireStream.getCount();
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (mWireStream == null) {
+                    mWireStream = new CountingInputStream(openRawStream());
+                }
+                // The gzip trailer and anything the parser didn't need is still on the socket
+                byte[] buffer = new byte[4096];
+                long drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = mWireStream.read(buffer)) != -1) {
+                    drained += read;
+                }
+                if (drained >= MAX_DRAIN_BYTES) {
+                    mConnection.disconnect();
+                    return;
+                }
+                mWireStream.close();
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Dropping connection that failed to drain", e);
+                mConnection.disconnect();
+            }
+        }
+
+        private InputStream openRawStream() throws IOException {
+            InputStream in = getCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? mConnection.getErrorStream() : mConnection.getInputStream();
+            if (in == null) {
+                // Error responses without a body
+                throw new IOException("No response body for HTTP " + getCode());
+            }
+            return in;
+        }
+    }
+}
@@ -8,8 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -17,16 +15,17 @@ import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
@@ -35,23 +34,35 @@ import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.WearableUpdaterService;
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.HourlyForecastBatch;
+import com.example.android.sunshine.app.data.JulianDays;
+import com.example.android.sunshine.app.data.MaintenanceScheduler;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherDataClient;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -63,21 +74,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Number of days to ask the server for
+    private static final int FORECAST_DAYS = 14;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-        WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {
@@ -89,297 +89,737 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    /**
+     * Sync extra: fetch every location in the location table, not just the preferred one.
+     * Defaults to true for periodic syncs and false for manual ones.
+     */
+    public static final String SYNC_EXTRA_ALL_LOCATIONS = "all_locations";
+
+    /**
+     * Sync extra: the locations a coalesced sync was requested for, see {@link SyncCoalescer}.
+     * The preferred location is always synced as well.
+     */
+    static final String SYNC_EXTRA_LOCATIONS = "locations";
+
+    // Multi-location syncs run at most this many requests side by side.  The limit on requests
+    // in flight is shared by every sync in the process.
+    private static final int MAX_SYNC_WORKERS = 4;
+    private static final int MAX_IN_FLIGHT_REQUESTS = 4;
+    private static final Semaphore sInFlightRequests = new Semaphore(MAX_IN_FLIGHT_REQUESTS);
+
+    // Widgets, Muzei and the notification are updated side by side, off the sync thread.  The
+    // threads go away when there is nothing to do.
+    private static final int FAN_OUT_THREADS = 3;
+    private static final ThreadPoolExecutor sFanOutExecutor = new ThreadPoolExecutor(
+        FAN_OUT_THREADS, FAN_OUT_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sFanOutExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Reused across syncs, so parsing doesn't allocate a new forecast every time
+    private final ForecastJsonParser mForecastParser = new ForecastJsonParser();
+    private final ForecastBatch mForecastBatch = new ForecastBatch();
+    private final HourlyForecastJsonParser mHourlyParser = new HourlyForecastJsonParser();
+    private final HourlyForecastBatch mHourlyBatch = new HourlyForecastBatch();
+    private final ForecastResponseCache mResponseCache;
+    private final SyncBackoff mBackoff;
+    private ForecastTransport mTransport = new HttpUrlConnectionTransport();
+    // Where the time of the current, or last, sync went
+    private volatile SyncTimings mTimings = new SyncTimings();
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mResponseCache = new ForecastResponseCache(context);
+        mBackoff = new SyncBackoff(context);
+    }
+
+    /**
+     * Replaces the HttpURLConnection transport, e.g. with one pointed at a local test server.
+     */
+    void setTransport(ForecastTransport transport) {
+        mTransport = transport;
+    }
+
+    SyncTimings getLastSyncTimings() {
+        return mTimings;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        // The dates this sync stores must be midnights of the current time zone, or they'd
+        // slip past UNIQUE(date, location_id) next to the ones of the previous zone
+        JulianDays.reset();
+        // The maintenance runs on its own, but what starts it doesn't survive a reboot
+        MaintenanceScheduler.schedule(getContext());
+
+        // Requests made while we run are held back and sent as one sync once we're done
+        SyncCoalescer coalescer = SyncCoalescer.getInstance(getContext());
+        coalescer.onSyncStarted();
+        try {
+            performSync(extras, syncResult);
+        } finally {
+            coalescer.onSyncFinished();
+        }
+    }
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
+    /**
+     * Runs one sync as a pipeline: fetch, parse, diff and persist for each location, then fan
+     * out to whatever shows the weather.  Locations go through the first four stages side by
+     * side, see {@link #syncLocations}.  How long each stage took is logged at the end.
+     */
+    private void performSync(Bundle extras, SyncResult syncResult) {
         Context context = getContext();
         String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        Uri preferredUri;
+        Uri preferredHourlyUri;
+        if (Utility.isLocationLatLonAvailable(context)) {
+            String latitude = String.valueOf(Utility.getLocationLatitude(context));
+            String longitude = String.valueOf(Utility.getLocationLongitude(context));
+            preferredUri = buildForecastUri(null, latitude, longitude);
+            preferredHourlyUri = buildHourlyForecastUri(null, latitude, longitude);
+        } else {
+            preferredUri = buildForecastUri(locationQuery, null, null);
+            preferredHourlyUri = buildHourlyForecastUri(locationQuery, null, null);
+        }
+        LocationForecast preferred = new LocationForecast(locationQuery,
+            preferredUri, mForecastBatch, preferredHourlyUri, mHourlyBatch);
+
+        // A sync the user asked for is about the location they are looking at.  The periodic
+        // sync refreshes every location we have stored.
+        boolean allLocations = extras.getBoolean(SYNC_EXTRA_ALL_LOCATIONS,
+            !extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false));
+
+        // Coalesced syncImmediately() calls may have asked for locations the user has since
+        // moved away from
+        List<String> requestedLocations = SyncCoalescer.getLocations(extras);
+
+        List<LocationForecast> forecasts;
+        if (allLocations) {
+            forecasts = getStoredLocations(locationQuery);
+            forecasts.add(0, preferred);
+        } else if (requestedLocations.size() > 1
+            || (requestedLocations.size() == 1 && !requestedLocations.contains(locationQuery))) {
+            Map<String, LocationForecast> stored = new HashMap<>();
+            for (LocationForecast forecast : getStoredLocations(locationQuery)) {
+                stored.put(forecast.locationSetting, forecast);
+            }
+            forecasts = new ArrayList<>();
+            forecasts.add(preferred);
+            for (String location : requestedLocations) {
+                if (location.equals(locationQuery)) {
+                    continue;
+                }
+                LocationForecast forecast = stored.get(location);
+                if (forecast == null) {
+                    forecast = new LocationForecast(location,
+                        buildForecastUri(location, null, null), new ForecastBatch(),
+                        buildHourlyForecastUri(location, null, null), new HourlyForecastBatch());
+                }
+                forecasts.add(forecast);
+            }
+        } else {
+            forecasts = Collections.singletonList(preferred);
+        }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        // Leave the server alone while it's known to be failing
+        long now = System.currentTimeMillis();
+        if (!mBackoff.allowRequest(now)) {
+            mBackoff.onRequestsAvoided(forecasts.size());
+            Log.d(LOG_TAG, "Circuit open after " + mBackoff.getFailureCount()
+                + " failed syncs, skipping " + forecasts.size() + " requests; "
+                + mBackoff.getAvoidedRequestCount() + " avoided so far");
+            // delayUntil is in seconds since the epoch
+            syncResult.delayUntil = mBackoff.getRetryAt() / 1000;
+            setLocationStatus(context, mBackoff.getLastFailureStatus());
+            return;
+        }
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                    .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+        mTimings = new SyncTimings();
+        long syncStart = SystemClock.elapsedRealtime();
+        int notificationsBefore =
+            WeatherContract.getNotificationCount(getContext().getContentResolver());
+        boolean changed;
+        if (forecasts.size() > 1) {
+            changed = syncLocations(forecasts, syncResult);
+        } else {
+            fetchForecast(preferred);
+            changed = storeWeatherData(preferred, syncResult);
+        }
+        updateBackoff(forecasts, now, syncResult);
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+        // Old days of the daily forecast went into the archive with each location's new
+        // forecast, or with its Not Modified answer
+        boolean received = false;
+        for (LocationForecast forecast : forecasts) {
+            received |= forecast.response != null || forecast.notModified;
+        }
+        if (received) {
+            long persistStart = SystemClock.elapsedRealtime();
+            // keep the last day of the 3-hourly forecast
+            syncResult.stats.numDeletes += getContext().getContentResolver().delete(
+                WeatherContract.HourlyEntry.buildHourlyRetentionUri(
+                    System.currentTimeMillis() - DAY_IN_MILLIS),
+                null, null);
+            // The days of locations this sync no longer asks for roll into the archive too
+            ArchiveCompactor.compactIfDue(context);
+            // Everything this sync wrote is in the write-ahead log.  Fold it back into the
+            // database now, rather than letting a later write do it while the user scrolls.
+            if (!WeatherContract.checkpoint(getContext().getContentResolver())) {
+                Log.d(LOG_TAG, "Readers kept part of the write-ahead log from being checkpointed");
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            writeSnapshots(forecasts);
+            mTimings.add(SyncTimings.STAGE_PERSIST, SystemClock.elapsedRealtime() - persistStart);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + syncResult.stats.numInserts + " inserted, "
+            + syncResult.stats.numUpdates + " updated, "
+            + syncResult.stats.numSkippedEntries + " unchanged");
+
+        // Let the schedule follow how much the forecast is moving.  A 304 counts as a full
+        // forecast that didn't change.  Failed syncs are the backoff's business.
+        long changedRows = syncResult.stats.numInserts + syncResult.stats.numUpdates;
+        long totalRows = changedRows + syncResult.stats.numSkippedEntries;
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.notModified) {
+                totalRows += FORECAST_DAYS;
             }
+        }
+        if (totalRows > 0) {
+            SyncScheduleUpdater.onSyncFinished(context, (int) changedRows, (int) totalRows);
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+        // Only wake the widgets, Muzei and the notification up if there is something new to show
+        if (changed) {
+            fanOut(TodayForecast.fromBatch(preferred.response != null ? preferred.batch : null));
+        }
+        // The status shown to the user is about their preferred location only
+        setLocationStatus(getContext(), preferred.status);
+        if (notificationsBefore >= 0) {
+            mTimings.setNotificationCount(WeatherContract.getNotificationCount(
+                getContext().getContentResolver()) - notificationsBefore);
+        }
+        Log.d(LOG_TAG, "Sync took " + (SystemClock.elapsedRealtime() - syncStart) + " ms: "
+            + mTimings);
+    }
+
+    /**
+     * The last stage: hands the new forecast to everything that shows it, each on a thread of
+     * its own, and returns without waiting for them.
+     *
+     * @param today Today's forecast for the preferred location as just parsed, or null if the
+     *              preferred location's forecast didn't come with this sync.
+     */
+    private void fanOut(final TodayForecast today) {
+        long start = SystemClock.elapsedRealtime();
+        runConsumer("widgets", new Runnable() {
+            @Override
+            public void run() {
+                updateWidgets();
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+        });
+        runConsumer("muzei", new Runnable() {
+            @Override
+            public void run() {
+                updateMuzei();
             }
-            if (reader != null) {
+        });
+        runConsumer("notification", new Runnable() {
+            @Override
+            public void run() {
+                notifyWeather(today);
+            }
+        });
+        mTimings.add(SyncTimings.STAGE_FAN_OUT, SystemClock.elapsedRealtime() - start);
+    }
+
+    private void runConsumer(final String name, final Runnable consumer) {
+        sFanOutExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
                 try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+                    consumer.run();
+                } catch (RuntimeException e) {
+                    // Nobody is waiting for this thread, so don't let it take the process down
+                    Log.e(LOG_TAG, "Error updating " + name, e);
                 }
+                Log.d(LOG_TAG, "Updated " + name + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
             }
-        }
-        return;
+        });
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p/>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Feeds the outcome of the sync into the backoff.  One usable answer is enough to call the
+     * server healthy.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-        throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+    private void updateBackoff(List<LocationForecast> forecasts, long now, SyncResult syncResult) {
+        boolean succeeded = false;
+        @LocationStatus int failureStatus = LOCATION_STATUS_UNKNOWN;
+        for (LocationForecast forecast : forecasts) {
+            switch (forecast.status) {
+                case LOCATION_STATUS_OK:
+                case LOCATION_STATUS_INVALID:
+                    succeeded = true;
+                    break;
+                case LOCATION_STATUS_SERVER_DOWN:
+                case LOCATION_STATUS_SERVER_INVALID:
+                    if (failureStatus == LOCATION_STATUS_UNKNOWN) {
+                        failureStatus = forecast.status;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (succeeded) {
+            mBackoff.onSuccess();
+        } else if (failureStatus != LOCATION_STATUS_UNKNOWN) {
+            long delay = mBackoff.onFailure(now, failureStatus);
+            Log.d(LOG_TAG, "Sync failed " + mBackoff.getFailureCount()
+                + " times in a row, retrying in " + delay / 1000 + "s");
+            // Also tells the framework not to retry before then, in seconds since the epoch
+            syncResult.delayUntil = (now + delay) / 1000;
+        }
+    }
 
-        // These are the names of the JSON objects that need to be extracted.
+    /**
+     * Builds the OpenWeatherMap daily forecast query for either a location string or a lat/lon
+     * pair.  Pass null for whichever isn't used.
+     */
+    private static Uri buildForecastUri(String locationQuery, String latitude, String longitude) {
+        final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String DAYS_PARAM = "cnt";
+
+        return buildForecastUri(FORECAST_BASE_URL, locationQuery, latitude, longitude)
+            .appendQueryParameter(DAYS_PARAM, Integer.toString(FORECAST_DAYS))
+            .build();
+    }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    /**
+     * Builds the OpenWeatherMap 3-hourly forecast query, which always covers five days.
+     */
+    private static Uri buildHourlyForecastUri(String locationQuery, String latitude,
+                                              String longitude) {
+        final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        return buildForecastUri(HOURLY_FORECAST_BASE_URL, locationQuery, latitude, longitude)
+            .build();
+    }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    private static Uri.Builder buildForecastUri(String baseUrl, String locationQuery,
+                                                String latitude, String longitude) {
+        String format = "json";
+        String units = "metric";
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
+        if (latitude != null && longitude != null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, latitude)
+                .appendQueryParameter(LON_PARAM, longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+            .appendQueryParameter(UNITS_PARAM, units)
+            .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Every location in the location table except the preferred one.  They are requested by
+     * the coordinates the server gave us for them, which works for Place Picker addresses too.
+     */
+    private List<LocationForecast> getStoredLocations(String preferredLocation) {
+        List<LocationForecast> forecasts = new ArrayList<>();
+        Cursor cursor = getContext().getContentResolver().query(
+            WeatherContract.LocationEntry.CONTENT_URI,
+            new String[]{
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            },
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+            new String[]{preferredLocation},
+            null);
+        if (cursor == null) {
+            return forecasts;
+        }
+        while (cursor.moveToNext()) {
+            String locationSetting = cursor.getString(0);
+            String latitude = String.valueOf(cursor.getDouble(1));
+            String longitude = String.valueOf(cursor.getDouble(2));
+            forecasts.add(new LocationForecast(locationSetting,
+                buildForecastUri(null, latitude, longitude), new ForecastBatch(),
+                buildHourlyForecastUri(null, latitude, longitude), new HourlyForecastBatch()));
+        }
+        cursor.close();
+        return forecasts;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Fetches all the locations concurrently and stores each forecast as soon as it has been
+     * parsed, so the sync takes about as long as its slowest request.
+     *
+     * @return true if at least one stored forecast changed.
+     */
+    private boolean syncLocations(List<LocationForecast> forecasts, SyncResult syncResult) {
+        int workers = Math.min(MAX_SYNC_WORKERS, forecasts.size());
+        ExecutorService executor = new ThreadPoolExecutor(workers, workers,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        CompletionService<LocationForecast> completionService =
+            new ExecutorCompletionService<>(executor);
+        for (final LocationForecast forecast : forecasts) {
+            completionService.submit(new Callable<LocationForecast>() {
+                @Override
+                public LocationForecast call() {
+                    fetchForecast(forecast);
+                    return forecast;
+                }
+            });
+        }
 
+        long start = SystemClock.elapsedRealtime();
+        boolean changed = false;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
+            // Writes happen here on the sync thread, one transaction per location, while the
+            // remaining requests are still in flight.
+            for (int i = 0; i < forecasts.size(); i++) {
+                try {
+                    changed |= storeWeatherData(completionService.take().get(), syncResult);
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching forecast", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        Log.d(LOG_TAG, "Synced " + forecasts.size() + " locations in "
+            + (SystemClock.elapsedRealtime() - start) + " ms");
+        return changed;
+    }
 
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+    /**
+     * Requests and parses the forecast for one location, daily and then 3-hourly.  Safe to call
+     * from several threads at once; the outcome is left in the LocationForecast.
+     */
+    private void fetchForecast(LocationForecast forecast) {
+        fetchDailyForecast(forecast);
+        // The location status only follows the daily forecast.  No point asking for the
+        // 3-hourly one if that failed.
+        if (forecast.status == LOCATION_STATUS_OK && !Thread.currentThread().isInterrupted()) {
+            fetchHourlyForecast(forecast);
+        }
+    }
 
-                switch (errorCode) {
+    private void fetchDailyForecast(LocationForecast forecast) {
+        ForecastRequest request = forecast.request;
+        // Only ask whether the forecast changed if we still have the one we got last time
+        if (hasStoredForecast(forecast.locationSetting)) {
+            mResponseCache.addValidators(request);
+        } else {
+            mResponseCache.remove(request.getUrl());
+        }
+
+        ForecastResponse response = null;
+        try {
+            sInFlightRequests.acquire();
+            try {
+                long start = SystemClock.elapsedRealtime();
+                response = mTransport.execute(request);
+                mTimings.add(SyncTimings.STAGE_FETCH, SystemClock.elapsedRealtime() - start);
+                Log.d(LOG_TAG, "Forecast response " + response.getCode() + " for "
+                    + forecast.locationSetting + " after " + response.getLatencyMillis() + " ms");
+
+                switch (response.getCode()) {
                     case HttpURLConnection.HTTP_OK:
                         break;
+                    case HttpURLConnection.HTTP_NOT_MODIFIED:
+                        // What we stored last time is still current, so there is nothing to
+                        // parse, store or tell anyone about.
+                        mResponseCache.onNotModified(request, response);
+                        Log.d(LOG_TAG, "Forecast not modified. " + mResponseCache.getHitCount()
+                            + " of " + mResponseCache.getRequestCount()
+                            + " requests answered from cache, "
+                            + mResponseCache.getBytesSaved() + " bytes saved");
+                        forecast.status = LOCATION_STATUS_OK;
+                        forecast.notModified = true;
+                        return;
                     case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
+                        forecast.status = LOCATION_STATUS_INVALID;
                         return;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                        forecast.status = LOCATION_STATUS_SERVER_DOWN;
                         return;
                 }
-            }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+                // Parse the response straight off the connection, without reading it into a
+                // String
+                long parseStart = SystemClock.elapsedRealtime();
+                int messageCode = mForecastParser.parse(response.getBody(), forecast.batch);
+                // Closing reads the rest of the body, so the full size on the wire is known
+                response.close();
+                mTimings.add(SyncTimings.STAGE_PARSE, SystemClock.elapsedRealtime() - parseStart);
+
+                // do we have an error?
+                switch (messageCode) {
+                    case ForecastJsonParser.NO_MESSAGE_CODE:
+                    case HttpURLConnection.HTTP_OK:
+                        forecast.response = response;
+                        forecast.status = LOCATION_STATUS_OK;
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        forecast.status = LOCATION_STATUS_INVALID;
+                        break;
+                    default:
+                        forecast.status = LOCATION_STATUS_SERVER_DOWN;
+                        break;
+                }
+            } finally {
+                sInFlightRequests.release();
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled while waiting for a free request slot
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            forecast.status = LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            forecast.status = LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    /**
+     * Requests and parses the 3-hourly forecast for one location.  A failure here is only
+     * logged: the daily forecast is what the app shows, and the next sync will try again.
+     */
+    private void fetchHourlyForecast(LocationForecast forecast) {
+        ForecastRequest request = forecast.hourlyRequest;
+        if (hasStoredHourlyForecast(forecast.locationSetting)) {
+            mResponseCache.addValidators(request);
+        } else {
+            mResponseCache.remove(request.getUrl());
+        }
 
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+        ForecastResponse response = null;
+        try {
+            sInFlightRequests.acquire();
+            try {
+                long start = SystemClock.elapsedRealtime();
+                response = mTransport.execute(request);
+                mTimings.add(SyncTimings.STAGE_FETCH, SystemClock.elapsedRealtime() - start);
+                Log.d(LOG_TAG, "Hourly forecast response " + response.getCode() + " for "
+                    + forecast.locationSetting + " after " + response.getLatencyMillis() + " ms");
+                if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    mResponseCache.onNotModified(request, response);
+                    return;
+                } else if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                    return;
+                }
 
-                double high;
-                double low;
+                long parseStart = SystemClock.elapsedRealtime();
+                int messageCode = mHourlyParser.parse(response.getBody(), forecast.hourly);
+                response.close();
+                mTimings.add(SyncTimings.STAGE_PARSE, SystemClock.elapsedRealtime() - parseStart);
+                if (messageCode == ForecastJsonParser.NO_MESSAGE_CODE
+                    || messageCode == HttpURLConnection.HTTP_OK) {
+                    forecast.hourlyResponse = response;
+                }
+            } finally {
+                sInFlightRequests.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error fetching hourly forecast for " + forecast.locationSetting, e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
 
-                String description;
-                int weatherId;
+    /**
+     * Take the forecast parsed from the server response and write whatever differs from the
+     * stored rows to the database, in a single transaction.
+     *
+     * @param forecast   The fetched forecast.  The dates of its batch are filled in here.
+     * @param syncResult Gets the number of rows inserted, updated and left unchanged added on.
+     * @return true if any row was written, false if the stored forecast was already current.
+     */
+    private boolean storeWeatherData(LocationForecast forecast, SyncResult syncResult) {
+        if (forecast.response == null) {
+            if (forecast.notModified) {
+                // The daily forecast wasn't modified, so the location is already stored.  The
+                // days before today still have to go.
+                long start = SystemClock.elapsedRealtime();
+                long locationId = addLocation(forecast.locationSetting, null, 0, 0);
+                try {
+                    syncResult.stats.numDeletes += WeatherContract.WeatherEntry
+                        .replaceForecastWindow(getContext().getContentResolver(), locationId,
+                            new ForecastBatch(0), System.currentTimeMillis())
+                        .getInt(WeatherContract.EXTRA_PURGED);
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Error dropping old days for " + forecast.locationSetting, e);
+                }
+                storeHourlyData(forecast, locationId);
+                mTimings.add(SyncTimings.STAGE_PERSIST, SystemClock.elapsedRealtime() - start);
+            }
+            return false;
+        }
+        ForecastBatch batch = forecast.batch;
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        long locationId = addLocation(forecast.locationSetting, batch.cityName,
+            batch.cityLatitude, batch.cityLongitude);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = JulianDays.getJulianDay(System.currentTimeMillis());
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        for (int i = 0; i < batch.count; i++) {
+            // The start of each local day, as WeatherContract.normalizeDate() stores it
+            batch.dates[i] = JulianDays.getDayStart(julianStartDay + i);
+        }
 
-                ContentValues weatherValues = new ContentValues();
+        // only write the days that actually changed
+        long start = SystemClock.elapsedRealtime();
+        ForecastDiff diff = ForecastDiff.compute(getContext().getContentResolver(), locationId, batch);
+        mTimings.add(SyncTimings.STAGE_DIFF, SystemClock.elapsedRealtime() - start);
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        // The changed days and dropping the days before today go in as one transaction, even
+        // when nothing changed, so yesterday doesn't linger
+        start = SystemClock.elapsedRealtime();
+        Bundle counts;
+        try {
+            counts = WeatherContract.WeatherEntry.replaceForecastWindow(
+                getContext().getContentResolver(), locationId, diff.changes,
+                System.currentTimeMillis());
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error storing forecast for " + forecast.locationSetting, e);
+            return false;
+        }
+        mResponseCache.onResponse(forecast.request, forecast.response);
+        storeHourlyData(forecast, locationId);
+        mTimings.add(SyncTimings.STAGE_PERSIST, SystemClock.elapsedRealtime() - start);
+        int inserted = counts.getInt(WeatherContract.EXTRA_INSERTED);
+        int updated = counts.getInt(WeatherContract.EXTRA_UPDATED);
+        int purged = counts.getInt(WeatherContract.EXTRA_PURGED);
+        syncResult.stats.numInserts += inserted;
+        syncResult.stats.numUpdates += updated;
+        syncResult.stats.numDeletes += purged;
+        syncResult.stats.numSkippedEntries += diff.unchanged;
+        Log.d(LOG_TAG, forecast.locationSetting + ": " + inserted + " inserted, "
+            + updated + " updated, " + diff.unchanged + " unchanged, " + purged + " dropped");
+        return diff.hasChanges();
+    }
 
-                cVVector.add(weatherValues);
-            }
+    /**
+     * Writes the parsed 3-hourly forecast, if there is one, replacing the stored points at the
+     * same times.  These rows are left out of the sync stats, which describe the daily forecast
+     * the sync schedule follows.
+     */
+    private void storeHourlyData(LocationForecast forecast, long locationId) {
+        if (forecast.hourlyResponse == null) {
+            return;
+        }
+        int inserted = WeatherContract.HourlyEntry.bulkInsert(
+            getContext().getContentResolver(), locationId, forecast.hourly);
+        mResponseCache.onResponse(forecast.hourlyRequest, forecast.hourlyResponse);
+        Log.d(LOG_TAG, forecast.locationSetting + ": " + inserted + " hourly points stored");
+    }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+    /**
+     * Checks whether the hourly table still holds points from now onward for the location.
+     */
+    private boolean hasStoredHourlyForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+            WeatherContract.HourlyEntry.buildHourlyLocationWithRange(
+                locationSetting, System.currentTimeMillis(), Long.MAX_VALUE),
+            new String[]{WeatherContract.HourlyEntry.COLUMN_TIME},
+            null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                    new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+    /**
+     * Checks whether the weather table still holds a forecast from today onward for the location,
+     * which is what a 304 Not Modified answer would leave the user with.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        return new WeatherDataClient(getContext()).queryForecast(
+            locationSetting, System.currentTimeMillis(), 1).count > 0;
+    }
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+    /**
+     * Writes the forecast of every location this sync got an answer for to its snapshot, for
+     * the widgets, Muzei and the wear bridge, and drops the snapshots of locations that are no
+     * longer stored.  Those come from the location table rather than from this sync, since a
+     * manual or coalesced sync only asks for some of them.
+     */
+    private void writeSnapshots(List<LocationForecast> forecasts) {
+        Context context = getContext();
+        WeatherDataClient client = new WeatherDataClient(context);
+        long now = System.currentTimeMillis();
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.response != null || forecast.notModified) {
+                ForecastSnapshot.write(context, forecast.locationSetting,
+                    client.queryForecast(forecast.locationSetting, now, 0));
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         }
+        Cursor cursor = context.getContentResolver().query(
+            WeatherContract.LocationEntry.CONTENT_URI,
+            new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+            null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        List<String> locationSettings = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            locationSettings.add(cursor.getString(0));
+        }
+        cursor.close();
+        ForecastSnapshot.retain(context, locationSettings);
     }
 
     private void updateWidgets() {
@@ -400,7 +840,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private void notifyWeather() {
+    /**
+     * Shows today's forecast in a notification, at most once a day.
+     *
+     * @param today The forecast to show, or null to read it from the provider.
+     */
+    private void notifyWeather(TodayForecast today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -414,18 +859,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                if (today == null) {
+                    today = TodayForecast.query(context, Utility.getPreferredLocation(context));
+                }
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.high;
+                    double low = today.low;
+                    String desc = today.description;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -503,7 +945,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
@@ -529,44 +970,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-            WeatherContract.LocationEntry.CONTENT_URI,
-            new String[]{WeatherContract.LocationEntry._ID},
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-            new String[]{locationSetting},
-            null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        return WeatherContract.LocationEntry.upsert(getContext().getContentResolver(),
+            locationSetting, cityName, lat, lon);
     }
 
     /**
@@ -589,16 +994,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Calls in quick succession, or
+     * while a sync is running, are coalesced into one sync by {@link SyncCoalescer}.
      *
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-            context.getString(R.string.content_authority), bundle);
+        SyncCoalescer.getInstance(context).request(Utility.getPreferredLocation(context));
     }
 
     /**
@@ -659,6 +1061,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        MaintenanceScheduler.schedule(context);
     }
 
     /**
@@ -675,4 +1078,75 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         spe.commit();
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Today's forecast for the preferred location.  Copied out of the parsed batch, so the
+     * fan-out threads don't have to query for what the sync just wrote and the next sync can
+     * reuse the batch while they are still running.
+     */
+    private static class TodayForecast {
+        final int weatherId;
+        final double high;
+        final double low;
+        final String description;
+
+        TodayForecast(int weatherId, double high, double low, String description) {
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+            this.description = description;
+        }
+
+        /**
+         * @return the first day of the batch, which is today, or null if there is none.
+         */
+        static TodayForecast fromBatch(ForecastBatch batch) {
+            if (batch == null || batch.count == 0) {
+                return null;
+            }
+            return new TodayForecast(batch.weatherId[0], batch.high[0], batch.low[0],
+                batch.description[0]);
+        }
+
+        /**
+         * @return today's stored forecast for the location, or null if there is none.
+         */
+        static TodayForecast query(Context context, String locationSetting) {
+            WeatherDataClient.Summary today = new WeatherDataClient(context).getSummary(
+                locationSetting);
+            if (today == null) {
+                return null;
+            }
+            return new TodayForecast(today.weatherId, today.high, today.low, today.description);
+        }
+    }
+
+    /**
+     * One location to sync: what to request, and what came of it.
+     */
+    private static class LocationForecast {
+        final String locationSetting;
+        final ForecastRequest request;
+        final ForecastBatch batch;
+        @LocationStatus
+        int status = LOCATION_STATUS_UNKNOWN;
+        // Set once a forecast has been parsed into the batch and is waiting to be stored
+        ForecastResponse response;
+        // Set if the server said the stored forecast is still current
+        boolean notModified;
+
+        final ForecastRequest hourlyRequest;
+        final HourlyForecastBatch hourly;
+        // Set once a 3-hourly forecast has been parsed and is waiting to be stored
+        ForecastResponse hourlyResponse;
+
+        LocationForecast(String locationSetting, Uri uri, ForecastBatch batch,
+                         Uri hourlyUri, HourlyForecastBatch hourly) {
+            this.locationSetting = locationSetting;
+            this.request = new ForecastRequest(uri.toString());
+            this.batch = batch;
+            this.hourlyRequest = new ForecastRequest(hourlyUri.toString());
+            this.hourly = hourly;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Random;
+
+/**
+ * Keeps track of failed syncs across process restarts, and decides when it's worth asking the
+ * server again.
+ * <p/>
+ * Every consecutive failure doubles the retry delay, with jitter so that many devices failing
+ * at the same moment don't all come back at the same moment.  After
+ * {@link #FAILURE_THRESHOLD} failures in a row the circuit opens: syncs are answered with the
+ * last failure status without touching the network until the delay has passed.  The first sync
+ * after that is let through as a trial; if it succeeds the circuit closes, if it fails it opens
+ * again for twice as long.
+ * <p/>
+ * Only server trouble counts as a failure.  A location the server doesn't know is the user's
+ * problem, not the server's, and retrying it later won't help.
+ */
+class SyncBackoff {
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long BASE_DELAY_MILLIS = 60 * 1000;
+    static final long MAX_DELAY_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final String PREFS_NAME = "sync_backoff";
+    private static final String PREF_FAILURES = "failures";
+    private static final String PREF_RETRY_AT = "retry_at";
+    private static final String PREF_LAST_STATUS = "last_status";
+    private static final String PREF_AVOIDED = "avoided_requests";
+
+    private final SharedPreferences mPrefs;
+    private final Random mRandom;
+
+    SyncBackoff(Context context) {
+        this(context, new Random());
+    }
+
+    SyncBackoff(Context context, Random random) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mRandom = random;
+    }
+
+    /**
+     * @return false if the circuit is open and a sync at this time should not go to the server.
+     */
+    synchronized boolean allowRequest(long now) {
+        return !isOpen(now);
+    }
+
+    synchronized boolean isOpen(long now) {
+        return getFailureCount() >= FAILURE_THRESHOLD && now < getRetryAt();
+    }
+
+    /**
+     * Records a sync that failed because of the server.
+     *
+     * @param status The {@link SunshineSyncAdapter.LocationStatus} the failure was reported with.
+     * @return how long to wait before retrying, in milliseconds.
+     */
+    synchronized long onFailure(long now, @SunshineSyncAdapter.LocationStatus int status) {
+        int failures = getFailureCount() + 1;
+        long delay = getDelayMillis(failures);
+        // Wait at least half the delay, and a random part of the other half
+        delay = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+        mPrefs.edit()
+                .putInt(PREF_FAILURES, failures)
+                .putLong(PREF_RETRY_AT, now + delay)
+                .putInt(PREF_LAST_STATUS, status)
+                .commit();
+        return delay;
+    }
+
+    /**
+     * Records a sync that reached the server and got a usable answer.  Closes the circuit.
+     */
+    synchronized void onSuccess() {
+        if (getFailureCount() > 0) {
+            mPrefs.edit()
+                    .remove(PREF_FAILURES)
+                    .remove(PREF_RETRY_AT)
+                    .remove(PREF_LAST_STATUS)
+                    .commit();
+        }
+    }
+
+    /**
+     * Records requests that weren't made because the circuit was open.
+     */
+    synchronized void onRequestsAvoided(int requests) {
+        mPrefs.edit().putLong(PREF_AVOIDED, getAvoidedRequestCount() + requests).commit();
+    }
+
+    synchronized int getFailureCount() {
+        return mPrefs.getInt(PREF_FAILURES, 0);
+    }
+
+    synchronized long getRetryAt() {
+        return mPrefs.getLong(PREF_RETRY_AT, 0);
+    }
+
+    /**
+     * @return the status the last failure was reported with, for syncs the circuit turns away.
+     */
+    @SunshineSyncAdapter.LocationStatus
+    synchronized int getLastFailureStatus() {
+        @SunshineSyncAdapter.LocationStatus int status = mPrefs.getInt(PREF_LAST_STATUS,
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        return status;
+    }
+
+    synchronized long getAvoidedRequestCount() {
+        return mPrefs.getLong(PREF_AVOIDED, 0);
+    }
+
+    /**
+     * @return the retry delay before jitter for the given number of consecutive failures.
+     */
+    static long getDelayMillis(int failures) {
+        // Capping the shift keeps the multiplication from overflowing
+        int exponent = Math.min(failures - 1, 30);
+        return Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << exponent);
+    }
+}
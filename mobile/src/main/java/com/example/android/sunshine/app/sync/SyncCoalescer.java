@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns bursts of {@link SunshineSyncAdapter#syncImmediately(Context)} calls into a single sync.
+ * <p/>
+ * The first request opens a window.  Every request that arrives before the window closes, or
+ * while the resulting sync is still waiting to run or running, is folded into the next sync
+ * instead of queueing one of its own.  That sync covers every location that was asked for.
+ * <p/>
+ * A request that adds a location the pending sync doesn't cover yet counts as merged, one that
+ * adds nothing counts as dropped.  So does one for a location of a sync that was requested but
+ * hasn't started yet, since that sync will fetch it anyway.
+ */
+public class SyncCoalescer {
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    public static final long DEFAULT_WINDOW_MILLIS = 2 * 1000;
+
+    // If the framework never runs a sync we asked for (no network, sync disabled), stop waiting
+    // for it after this long so later requests aren't held back forever.
+    private static final long MAX_AWAIT_MILLIS = 60 * 1000;
+
+    // Sync extras can't hold arrays, so the locations travel as one string
+    private static final String LOCATION_SEPARATOR = "\n";
+
+    /**
+     * Does the actual sync request.  Replaced in tests.
+     */
+    interface SyncRequester {
+        void requestSync(Collection<String> locations);
+    }
+
+    private static SyncCoalescer sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SyncRequester mRequester;
+    private final Set<String> mPendingLocations = new LinkedHashSet<>();
+    // The locations of the sync we're awaiting, until it starts
+    private final Set<String> mFlushedLocations = new LinkedHashSet<>();
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+    private boolean mWindowOpen;
+    private boolean mSyncInFlight;
+    private long mAwaitingSince;
+
+    private long mRequestCount;
+    private long mMergedCount;
+    private long mDroppedCount;
+    private long mSyncCount;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SyncCoalescer.this) {
+                mWindowOpen = false;
+                flushLocked();
+            }
+        }
+    };
+
+    SyncCoalescer(SyncRequester requester) {
+        mRequester = requester;
+    }
+
+    public static synchronized SyncCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new SyncCoalescer(new SyncRequester() {
+                @Override
+                public void requestSync(Collection<String> locations) {
+                    Bundle bundle = new Bundle();
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+                    bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+                    bundle.putString(SunshineSyncAdapter.SYNC_EXTRA_LOCATIONS,
+                        TextUtils.join(LOCATION_SEPARATOR, locations));
+                    ContentResolver.requestSync(SunshineSyncAdapter.getSyncAccount(appContext),
+                        appContext.getString(R.string.content_authority), bundle);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Splits the locations of a coalesced sync back out of its extras.
+     *
+     * @return the locations, or an empty list if the sync didn't come from here.
+     */
+    static List<String> getLocations(Bundle extras) {
+        String locations = extras.getString(SunshineSyncAdapter.SYNC_EXTRA_LOCATIONS);
+        if (TextUtils.isEmpty(locations)) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        Collections.addAll(result, TextUtils.split(locations, LOCATION_SEPARATOR));
+        return result;
+    }
+
+    /**
+     * Sets how long the first request of a burst waits for others to join it.
+     */
+    public synchronized void setWindowMillis(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Asks for a sync of the given location, some time within the window.
+     */
+    public synchronized void request(String location) {
+        mRequestCount++;
+        boolean awaiting = mAwaitingSince > 0
+            && SystemClock.elapsedRealtime() - mAwaitingSince < MAX_AWAIT_MILLIS;
+        if (awaiting && mFlushedLocations.contains(location)) {
+            mDroppedCount++;
+            return;
+        }
+        boolean added = mPendingLocations.add(location);
+        boolean waiting = mWindowOpen || mSyncInFlight || awaiting;
+        if (waiting) {
+            if (added) {
+                mMergedCount++;
+            } else {
+                mDroppedCount++;
+            }
+            return;
+        }
+        mAwaitingSince = 0;
+        mFlushedLocations.clear();
+        mWindowOpen = true;
+        mHandler.postDelayed(mFlush, mWindowMillis);
+    }
+
+    /**
+     * Called by the sync adapter when a sync starts running.
+     */
+    synchronized void onSyncStarted() {
+        mSyncInFlight = true;
+        mAwaitingSince = 0;
+        mFlushedLocations.clear();
+    }
+
+    /**
+     * Called by the sync adapter when a sync is done.  Anything requested meanwhile goes out
+     * right away; its window has long passed.
+     */
+    synchronized void onSyncFinished() {
+        mSyncInFlight = false;
+        if (!mWindowOpen) {
+            flushLocked();
+        }
+    }
+
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized long getMergedCount() {
+        return mMergedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return how many syncs were actually requested from the framework.
+     */
+    public synchronized long getSyncCount() {
+        return mSyncCount;
+    }
+
+    private void flushLocked() {
+        if (mPendingLocations.isEmpty() || mSyncInFlight) {
+            return;
+        }
+        List<String> locations = new ArrayList<>(mPendingLocations);
+        mPendingLocations.clear();
+        mFlushedLocations.clear();
+        mFlushedLocations.addAll(locations);
+        mAwaitingSince = SystemClock.elapsedRealtime();
+        mSyncCount++;
+        Log.d(LOG_TAG, "Requesting sync of " + locations + " for " + mRequestCount
+            + " requests so far, " + mMergedCount + " merged, " + mDroppedCount + " dropped");
+        mRequester.requestSync(locations);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+/**
+ * Gathers the signals {@link SyncScheduler} needs and moves the periodic sync when its decision
+ * changes.  The signals that can't be read on demand (when the app was last opened, when a watch
+ * was last connected, how much recent syncs changed) are kept in their own preferences file.
+ */
+public class SyncScheduleUpdater {
+    private static final String LOG_TAG = SyncScheduleUpdater.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String PREF_CHANGE_RATIO = "change_ratio";
+    private static final String PREF_INTERVAL = "interval";
+    private static final String PREF_LAST_OPENED = "last_opened";
+    private static final String PREF_WEARABLE_SEEN = "wearable_seen";
+
+    // A watch that hasn't been connected for this long is assumed to be put away
+    private static final long WEARABLE_TIMEOUT_MILLIS = 2 * 24 * 60 * 60 * 1000L;
+
+    private SyncScheduleUpdater() {
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records that the user is looking at the forecast.  If the schedule had been stretched
+     * because nobody was, it goes back to the base interval right away rather than after the
+     * next, possibly distant, sync.  Called from the UI thread, so the rescheduling, which talks
+     * to the account and sync services, happens on a thread of its own.
+     */
+    public static void noteAppOpened(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        prefs.edit().putLong(PREF_LAST_OPENED, System.currentTimeMillis()).apply();
+        if (prefs.getLong(PREF_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL)
+            <= SyncScheduler.BASE_INTERVAL_SECONDS) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        new Thread("SyncScheduleUpdater") {
+            @Override
+            public void run() {
+                long interval = SyncScheduler.BASE_INTERVAL_SECONDS;
+                SunshineSyncAdapter.configurePeriodicSync(appContext, (int) interval,
+                    (int) SyncScheduler.getFlexSeconds(interval));
+                getPrefs(appContext).edit().putLong(PREF_INTERVAL, interval).apply();
+            }
+        }.start();
+    }
+
+    /**
+     * Records that a watch was connected when we last sent it the weather.
+     */
+    public static void noteWearableConnected(Context context) {
+        getPrefs(context).edit().putLong(PREF_WEARABLE_SEEN, System.currentTimeMillis()).apply();
+    }
+
+    /**
+     * Folds the outcome of a sync into the schedule and reschedules the periodic sync if the
+     * interval changed.  Must not be called from the UI thread.
+     *
+     * @param changedRows Rows the sync inserted or updated.
+     * @param totalRows   Rows the sync received, changed or not.
+     */
+    static void onSyncFinished(Context context, int changedRows, int totalRows) {
+        SharedPreferences prefs = getPrefs(context);
+        double changeRatio = SyncScheduler.updateChangeRatio(
+            prefs.getFloat(PREF_CHANGE_RATIO, (float) SyncScheduler.DEFAULT_CHANGE_RATIO),
+            changedRows, totalRows);
+
+        SyncScheduler.Signals signals = getSignals(context, prefs);
+        signals.changeRatio = changeRatio;
+        long interval = SyncScheduler.getIntervalSeconds(signals);
+
+        SharedPreferences.Editor editor = prefs.edit()
+            .putFloat(PREF_CHANGE_RATIO, (float) changeRatio);
+        if (interval != prefs.getLong(PREF_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL)) {
+            Log.d(LOG_TAG, "Sync interval now " + interval + "s: change ratio " + changeRatio
+                + ", " + signals.secondsSinceOpened + "s since opened, widgets "
+                + signals.widgetsActive + ", wearable " + signals.wearableActive
+                + ", charging " + signals.charging);
+            SunshineSyncAdapter.configurePeriodicSync(context, (int) interval,
+                (int) SyncScheduler.getFlexSeconds(interval));
+            editor.putLong(PREF_INTERVAL, interval);
+        }
+        editor.commit();
+    }
+
+    private static SyncScheduler.Signals getSignals(Context context, SharedPreferences prefs) {
+        SyncScheduler.Signals signals = new SyncScheduler.Signals();
+        long now = System.currentTimeMillis();
+
+        long lastOpened = prefs.getLong(PREF_LAST_OPENED, 0);
+        signals.secondsSinceOpened = lastOpened > 0 ? (now - lastOpened) / 1000 : -1;
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        signals.widgetsActive = appWidgetManager.getAppWidgetIds(
+            new ComponentName(context, TodayWidgetProvider.class)).length > 0
+            || appWidgetManager.getAppWidgetIds(
+            new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+
+        signals.wearableActive = now - prefs.getLong(PREF_WEARABLE_SEEN, 0) < WEARABLE_TIMEOUT_MILLIS;
+
+        signals.charging = Utility.isCharging(context);
+        return signals;
+    }
+}
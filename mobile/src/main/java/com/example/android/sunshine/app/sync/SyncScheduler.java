@@ -0,0 +1,116 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Decides how often the periodic sync should run.  Plain Java on purpose: it knows nothing
+ * about Android, so the policy can be unit tested and simulated on the JVM.
+ * <p/>
+ * The starting point is the old fixed three hour period.  It gets shorter when recent syncs kept
+ * changing the forecast or the phone is charging, and longer when the forecast has been stable
+ * or nobody has looked at the app in a while.  A widget or a watch face showing the weather
+ * counts as someone looking.
+ */
+public class SyncScheduler {
+
+    public static final long HOUR_IN_SECONDS = 60 * 60;
+    public static final long DAY_IN_SECONDS = 24 * HOUR_IN_SECONDS;
+
+    public static final long BASE_INTERVAL_SECONDS = 3 * HOUR_IN_SECONDS;
+    public static final long MIN_INTERVAL_SECONDS = HOUR_IN_SECONDS;
+    public static final long MAX_INTERVAL_SECONDS = DAY_IN_SECONDS;
+
+    // How much weight the latest sync gets in the running change ratio
+    static final double CHANGE_RATIO_WEIGHT = 0.3;
+
+    // A third of the rows changing per sync keeps the base interval
+    public static final double DEFAULT_CHANGE_RATIO = 1.0 / 3;
+
+    // Change ratios at or beyond which the interval stops shrinking or growing
+    static final double VOLATILE_CHANGE_RATIO = 0.5;
+    static final double STABLE_CHANGE_RATIO = 0.0;
+    static final double MIN_VOLATILITY_FACTOR = 0.5;
+    static final double MAX_VOLATILITY_FACTOR = 2.0;
+
+    static final long IDLE_SECONDS = DAY_IN_SECONDS;
+    static final long LONG_IDLE_SECONDS = 7 * DAY_IN_SECONDS;
+    static final double IDLE_FACTOR = 2.0;
+    static final double LONG_IDLE_FACTOR = 4.0;
+
+    static final double CHARGING_FACTOR = 0.75;
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * What the scheduler bases its decision on.
+     */
+    public static class Signals {
+        /**
+         * Running average of the share of stored rows each sync wrote, between 0 and 1.
+         */
+        public double changeRatio = DEFAULT_CHANGE_RATIO;
+        /**
+         * Seconds since MainActivity was last shown, or a negative value if never.
+         */
+        public long secondsSinceOpened = -1;
+        public boolean widgetsActive;
+        public boolean wearableActive;
+        public boolean charging;
+    }
+
+    /**
+     * Folds the outcome of one sync into the running change ratio.
+     *
+     * @param changeRatio The running ratio so far.
+     * @param changedRows Rows the sync inserted or updated.
+     * @param totalRows   Rows the sync received, changed or not.
+     * @return the new running ratio.
+     */
+    public static double updateChangeRatio(double changeRatio, int changedRows, int totalRows) {
+        if (totalRows <= 0) {
+            // A 304 or a failed sync says nothing new about how volatile the forecast is
+            return changeRatio;
+        }
+        double latest = Math.min(1.0, changedRows / (double) totalRows);
+        return changeRatio + CHANGE_RATIO_WEIGHT * (latest - changeRatio);
+    }
+
+    /**
+     * @return the number of seconds until the next periodic sync should run.
+     */
+    public static long getIntervalSeconds(Signals signals) {
+        double interval = BASE_INTERVAL_SECONDS * getVolatilityFactor(signals.changeRatio);
+
+        // Nobody is going to see a fresher forecast unless it's on a widget or a watch
+        boolean glanceable = signals.widgetsActive || signals.wearableActive;
+        if (!glanceable) {
+            long idle = signals.secondsSinceOpened < 0 ? Long.MAX_VALUE : signals.secondsSinceOpened;
+            if (idle >= LONG_IDLE_SECONDS) {
+                interval *= LONG_IDLE_FACTOR;
+            } else if (idle >= IDLE_SECONDS) {
+                interval *= IDLE_FACTOR;
+            }
+        }
+
+        if (signals.charging) {
+            interval *= CHARGING_FACTOR;
+        }
+
+        return Math.max(MIN_INTERVAL_SECONDS, Math.min(MAX_INTERVAL_SECONDS, Math.round(interval)));
+    }
+
+    /**
+     * @return the flex time to go with an interval, the same third the fixed schedule used.
+     */
+    public static long getFlexSeconds(long intervalSeconds) {
+        return intervalSeconds / 3;
+    }
+
+    private static double getVolatilityFactor(double changeRatio) {
+        // Linear from MAX_VOLATILITY_FACTOR for a stable forecast down to MIN_VOLATILITY_FACTOR
+        // for a volatile one
+        double position = (changeRatio - STABLE_CHANGE_RATIO)
+                / (VOLATILE_CHANGE_RATIO - STABLE_CHANGE_RATIO);
+        position = Math.max(0, Math.min(1, position));
+        return MAX_VOLATILITY_FACTOR - position * (MAX_VOLATILITY_FACTOR - MIN_VOLATILITY_FACTOR);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.sunshine.app.sync;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Time spent in each stage of one sync.  Fetching and parsing run on several threads at once
+ * when more than one location is synced, so their totals can add up to more than the sync
+ * took; the count says how many times each stage ran.
+ * <p/>
+ * Also holds how many change notifications the provider sent while the sync ran, each of which
+ * woke every loader, widget or other observer of the URI it was sent for.
+ */
+class SyncTimings {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_FETCH, STAGE_PARSE, STAGE_DIFF, STAGE_PERSIST, STAGE_FAN_OUT})
+    @interface Stage {
+    }
+
+    // Sending the request and waiting for the response headers
+    static final int STAGE_FETCH = 0;
+    // Reading the body straight off the connection into a batch
+    static final int STAGE_PARSE = 1;
+    // Comparing the batch with the stored rows
+    static final int STAGE_DIFF = 2;
+    // Writing what changed, and dropping old data
+    static final int STAGE_PERSIST = 3;
+    // Handing the result to widgets, Muzei and the notification.  They run on their own
+    // threads, so this is only what the sync thread spends starting them.
+    static final int STAGE_FAN_OUT = 4;
+
+    private static final String[] STAGE_NAMES = {"fetch", "parse", "diff", "persist", "fan-out"};
+
+    private final long[] mMillis = new long[STAGE_NAMES.length];
+    private final int[] mCounts = new int[STAGE_NAMES.length];
+    // -1 while it isn't known
+    private int mNotifications = -1;
+
+    synchronized void add(@Stage int stage, long millis) {
+        mMillis[stage] += millis;
+        mCounts[stage]++;
+    }
+
+    synchronized long getMillis(@Stage int stage) {
+        return mMillis[stage];
+    }
+
+    synchronized int getCount(@Stage int stage) {
+        return mCounts[stage];
+    }
+
+    synchronized void setNotificationCount(int notifications) {
+        mNotifications = notifications;
+    }
+
+    synchronized int getNotificationCount() {
+        return mNotifications;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            if (stage > 0) {
+                builder.append(", ");
+            }
+            builder.append(STAGE_NAMES[stage]).append(' ').append(mMillis[stage]).append(" ms");
+            if (mCounts[stage] > 1) {
+                builder.append(" (").append(mCounts[stage]).append(')');
+            }
+        }
+        if (mNotifications >= 0) {
+            builder.append(", ").append(mNotifications).append(" notifications");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.sunshine.app.data;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that archive blocks give back the days they were made from, to the precision they
+ * keep, and that a month of days takes as little room as intended.
+ */
+public class ArchiveBlockTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    // Local midnights of the given month in the given time zone
+    private static ForecastBatch month(String timeZone, int year, int month) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(timeZone));
+        calendar.clear();
+        calendar.set(year, month - 1, 1);
+        ForecastBatch days = new ForecastBatch();
+        while (calendar.get(Calendar.MONTH) == month - 1) {
+            int day = days.append();
+            days.dates[day] = calendar.getTimeInMillis();
+            days.weatherId[day] = day % 2 == 0 ? 800 : 501;
+            days.high[day] = 21.37 + day * 0.4;
+            days.low[day] = -3.21 - day * 0.3;
+            days.humidity[day] = 60 + day;
+            days.pressure[day] = 1013.25 - day;
+            days.windSpeed[day] = 4.56;
+            days.windDirection[day] = 359.7;
+            days.description[day] = "Clear";
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return days;
+    }
+
+    private static ForecastBatch decode(byte[] data) {
+        ForecastBatch days = new ForecastBatch();
+        ArchiveBlock.decode(data, days);
+        return days;
+    }
+
+    private static void assertSameDays(ForecastBatch expected, ForecastBatch actual) {
+        assertEquals(expected.count, actual.count);
+        for (int i = 0; i < expected.count; i++) {
+            assertEquals(expected.dates[i], actual.dates[i]);
+            assertEquals(expected.weatherId[i], actual.weatherId[i]);
+            assertEquals(expected.high[i], actual.high[i], 0.05);
+            assertEquals(expected.low[i], actual.low[i], 0.05);
+            assertEquals(expected.humidity[i], actual.humidity[i]);
+            assertEquals(expected.pressure[i], actual.pressure[i], 0.05);
+            assertEquals(expected.windSpeed[i], actual.windSpeed[i], 0.05);
+            assertEquals(Math.round(expected.windDirection[i]) % 360, actual.windDirection[i],
+                    0);
+            assertNull(actual.description[i]);
+        }
+    }
+
+    @Test
+    public void decodesWhatWasEncoded() {
+        ForecastBatch days = month("America/Los_Angeles", 2015, 12);
+        assertSameDays(days, decode(ArchiveBlock.encode(days)));
+    }
+
+    @Test
+    public void keepsDatesAcrossDaylightSavingChanges() {
+        // March has a 23 hour day in Los Angeles and November a 25 hour one
+        for (int month : new int[]{3, 11}) {
+            ForecastBatch days = month("America/Los_Angeles", 2015, month);
+            ForecastBatch decoded = decode(ArchiveBlock.encode(days));
+            assertSameDays(days, decoded);
+        }
+        // A time zone that isn't a whole number of hours off UTC
+        ForecastBatch days = month("Asia/Kathmandu", 2015, 6);
+        assertSameDays(days, decode(ArchiveBlock.encode(days)));
+    }
+
+    @Test
+    public void monthTakesAFewBytesPerDay() {
+        // Including the 23 hour day, a weather row and its index entries take well over 100
+        ForecastBatch days = month("America/Los_Angeles", 2015, 3);
+        byte[] data = ArchiveBlock.encode(days);
+        assertTrue(data.length + " bytes", data.length <= 10 * days.count);
+    }
+
+    @Test
+    public void mergeKeepsOrderAndPrefersNewerDays() {
+        ForecastBatch older = month("UTC", 2015, 12);
+        ForecastBatch newer = new ForecastBatch();
+        // The last day again, with a different forecast
+        newer.appendFrom(older, older.count - 1);
+        newer.high[0] = 30;
+        ForecastBatch merged = ArchiveBlock.merge(older, newer);
+        assertEquals(older.count, merged.count);
+        assertEquals(30, merged.high[merged.count - 1], 0);
+
+        // Days on both sides of the older ones
+        ForecastBatch around = new ForecastBatch();
+        around.appendFrom(older, 0);
+        around.dates[0] -= 24 * HOUR;
+        around.appendFrom(older, older.count - 1);
+        around.dates[1] += 24 * HOUR;
+        merged = ArchiveBlock.merge(older, around);
+        assertEquals(older.count + 2, merged.count);
+        for (int i = 1; i < merged.count; i++) {
+            assertTrue(merged.dates[i] > merged.dates[i - 1]);
+        }
+    }
+
+    @Test
+    public void monthIsTheSameForLocalMidnightsEverywhere() {
+        for (String timeZone : new String[]{"Pacific/Honolulu", "America/Los_Angeles", "UTC",
+                "Asia/Kolkata", "Pacific/Auckland", "Pacific/Tongatapu"}) {
+            ForecastBatch days = month(timeZone, 2016, 1);
+            for (int i = 0; i < days.count; i++) {
+                assertEquals(timeZone, 201601, ArchiveBlock.getMonth(days.dates[i]));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownVersion() {
+        byte[] data = ArchiveBlock.encode(month("UTC", 2015, 1));
+        data[0] = 99;
+        decode(data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedBlock() {
+        byte[] data = ArchiveBlock.encode(month("UTC", 2015, 1));
+        byte[] truncated = new byte[data.length / 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        decode(truncated);
+    }
+}
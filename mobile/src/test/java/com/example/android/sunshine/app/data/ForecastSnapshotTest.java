@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app.data;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a forecast snapshot gives back the days it was written with, and that one that is
+ * too old, for another location, of another version or damaged isn't read.
+ */
+public class ForecastSnapshotTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long FIRST_DATE = 1450569600000L;  // December 20th, 2015 UTC
+    private static final long WRITTEN_AT = FIRST_DATE + 6 * 60 * 60 * 1000L;
+    private static final String LOCATION = "94043";
+    private static final String RAIN = "Pluie mod\u00e9r\u00e9e";
+
+    private static WeatherDataClient.Forecast forecast(int days) {
+        WeatherDataClient.Forecast forecast = new WeatherDataClient.Forecast(days);
+        for (int i = 0; i < days; i++) {
+            forecast.dates[i] = FIRST_DATE + i * DAY;
+            forecast.weatherIds[i] = i % 2 == 0 ? 800 : 501;
+            forecast.highs[i] = 21.5f + i;
+            forecast.lows[i] = -3.25f - i;
+            forecast.descriptions[i] = i % 2 == 0 ? "Clear" : RAIN;
+        }
+        return forecast;
+    }
+
+    private static WeatherDataClient.Forecast decode(byte[] data, long startDate, int limit) {
+        return ForecastSnapshot.decode(ByteBuffer.wrap(data), LOCATION, startDate, limit,
+                WRITTEN_AT + 60 * 1000L);
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        WeatherDataClient.Forecast written = forecast(14);
+        byte[] data = ForecastSnapshot.encode(LOCATION, written, WRITTEN_AT);
+        WeatherDataClient.Forecast read = decode(data, FIRST_DATE, 0);
+        assertEquals(written.count, read.count);
+        for (int i = 0; i < written.count; i++) {
+            assertEquals(written.dates[i], read.dates[i]);
+            assertEquals(written.weatherIds[i], read.weatherIds[i]);
+            assertEquals(written.highs[i], read.highs[i], 0);
+            assertEquals(written.lows[i], read.lows[i], 0);
+            assertEquals(written.descriptions[i], read.descriptions[i]);
+        }
+    }
+
+    @Test
+    public void layoutIsFixed() {
+        // Header, one record per day, the setting and the descriptions
+        byte[] data = ForecastSnapshot.encode(LOCATION, forecast(2), WRITTEN_AT);
+        assertEquals(ForecastSnapshot.HEADER_SIZE + 2 * ForecastSnapshot.RECORD_SIZE
+                + LOCATION.length() + "Clear".length()
+                + RAIN.getBytes(Charset.forName("UTF-8")).length, data.length);
+        assertEquals(ForecastSnapshot.MAGIC, ByteBuffer.wrap(data).getInt(0));
+    }
+
+    @Test
+    public void skipsDaysBeforeTheStartAndStopsAtTheLimit() {
+        byte[] data = ForecastSnapshot.encode(LOCATION, forecast(14), WRITTEN_AT);
+        WeatherDataClient.Forecast read = decode(data, FIRST_DATE + 3 * DAY, 5);
+        assertEquals(5, read.count);
+        assertEquals(FIRST_DATE + 3 * DAY, read.dates[0]);
+        assertEquals(24.5f, read.highs[0], 0);
+
+        // Nothing from the start on is the same as no snapshot
+        assertNull(decode(data, FIRST_DATE + 14 * DAY, 0));
+    }
+
+    @Test
+    public void oldOrOtherLocationsSnapshotIsNotRead() {
+        byte[] data = ForecastSnapshot.encode(LOCATION, forecast(14), WRITTEN_AT);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        assertNull(ForecastSnapshot.decode(buffer, LOCATION, FIRST_DATE, 0,
+                WRITTEN_AT + ForecastSnapshot.MAX_AGE_MILLIS));
+        // Written after now, so the clock was put back since
+        assertNull(ForecastSnapshot.decode(buffer, LOCATION, FIRST_DATE, 0, WRITTEN_AT - 1));
+        assertNull(ForecastSnapshot.decode(buffer, "94044", FIRST_DATE, 0,
+                WRITTEN_AT + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDamagedSnapshot() {
+        byte[] data = ForecastSnapshot.encode(LOCATION, forecast(14), WRITTEN_AT);
+        // One bit of one high temperature
+        data[ForecastSnapshot.HEADER_SIZE + 5 * ForecastSnapshot.RECORD_SIZE + 12] ^= 1;
+        decode(data, FIRST_DATE, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedSnapshot() {
+        byte[] data = ForecastSnapshot.encode(LOCATION, forecast(14), WRITTEN_AT);
+        ByteBuffer truncated = ByteBuffer.wrap(data, 0, data.length - 1).slice();
+        ForecastSnapshot.decode(truncated, LOCATION, FIRST_DATE, 0, WRITTEN_AT + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherVersion() {
+        byte[] data = ForecastSnapshot.encode(LOCATION, forecast(14), WRITTEN_AT);
+        data[5] = ForecastSnapshot.VERSION + 1;
+        decode(data, FIRST_DATE, 0);
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.sunshine.app.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks JulianDays against what android.text.format.Time does, worked out here with a
+ * Calendar: the Julian day is the local calendar date, and the day starts at local midnight, or
+ * when the clocks went forward if they skipped it.  Every hour of two years is tried in time
+ * zones with daylight saving changes at 2am, at midnight, by half an hour, and with none.
+ */
+public class JulianDaysTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final String[] TIME_ZONES = {
+            "UTC",
+            "America/Los_Angeles",
+            "Europe/London",
+            "Australia/Sydney",
+            // Moved the clocks at midnight until 2019
+            "America/Sao_Paulo",
+            // Moves them by half an hour
+            "Australia/Lord_Howe",
+            "Asia/Kathmandu",
+            "Pacific/Tongatapu"
+    };
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+        JulianDays.reset();
+    }
+
+    private static void useTimeZone(String id) {
+        TimeZone.setDefault(TimeZone.getTimeZone(id));
+        JulianDays.reset();
+    }
+
+    // The Julian day number of the local calendar date
+    private static int julianDay(TimeZone zone, long millis) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        int month = calendar.get(Calendar.MONTH) + 1;
+        int day = calendar.get(Calendar.DAY_OF_MONTH);
+        int a = (14 - month) / 12;
+        int y = year + 4800 - a;
+        int m = month + 12 * a - 3;
+        return day + (153 * m + 2) / 5 + 365 * y + y / 4 - y / 100 + y / 400 - 32045;
+    }
+
+    // Local midnight of the date; Calendar puts a midnight the clocks skipped at the end of the gap
+    private static long dayStart(TimeZone zone, int julianDay) {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis((julianDay - JulianDays.EPOCH_JULIAN_DAY) * JulianDays.DAY_IN_MILLIS);
+        Calendar local = Calendar.getInstance(zone);
+        local.clear();
+        local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH),
+                utc.get(Calendar.DAY_OF_MONTH));
+        return local.getTimeInMillis();
+    }
+
+    private static long utc(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void epochIsJulianDay2440588() {
+        useTimeZone("UTC");
+        assertEquals(JulianDays.EPOCH_JULIAN_DAY, JulianDays.getJulianDay(0));
+        assertEquals(JulianDays.EPOCH_JULIAN_DAY, julianDay(TimeZone.getTimeZone("UTC"), 0));
+        assertEquals(0, JulianDays.getDayStart(JulianDays.EPOCH_JULIAN_DAY));
+    }
+
+    @Test
+    public void matchesTheCalendarEveryHourOfTwoYears() {
+        long start = utc(2015, 1, 1);
+        long end = utc(2017, 1, 1);
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            TimeZone zone = TimeZone.getTimeZone(id);
+            for (long millis = start; millis < end; millis += HOUR) {
+                int expected = julianDay(zone, millis);
+                assertEquals(id + " " + millis, expected, JulianDays.getJulianDay(millis));
+                assertEquals(id + " " + millis, dayStart(zone, expected),
+                        JulianDays.normalizeDate(millis));
+            }
+        }
+    }
+
+    @Test
+    public void matchesTheCalendarToday() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            TimeZone zone = TimeZone.getTimeZone(id);
+            long now = System.currentTimeMillis();
+            int today = julianDay(zone, now);
+            assertEquals(id, today, JulianDays.getJulianDay(now));
+            assertEquals(id, dayStart(zone, today), JulianDays.normalizeDate(now));
+            assertEquals(id, dayStart(zone, today), JulianDays.getDayStart(today));
+            assertEquals(id, dayStart(zone, today + 1), JulianDays.getDayStart(today + 1));
+        }
+    }
+
+    @Test
+    public void daysFollowOneAnother() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            int first = JulianDays.getJulianDay(utc(2015, 1, 1));
+            for (int day = first; day < first + 2 * 366; day++) {
+                long dayStart = JulianDays.getDayStart(day);
+                long nextDayStart = JulianDays.getDayStart(day + 1);
+                // 24 hours, or as little as 23 and as much as 25 when the clocks change
+                assertTrue(id + " " + day, nextDayStart - dayStart >= 23 * HOUR);
+                assertTrue(id + " " + day, nextDayStart - dayStart <= 25 * HOUR);
+                assertEquals(id, day, JulianDays.getJulianDay(dayStart));
+                assertEquals(id, day, JulianDays.getJulianDay(nextDayStart - 1));
+                assertEquals(id, dayStart, JulianDays.normalizeDate(nextDayStart - 1));
+            }
+        }
+    }
+
+    @Test
+    public void skippedMidnightStartsTheDayWhenTheClocksWentForward() {
+        // On October 18th, 2015 Sao Paulo went from 23:59:59 straight to 01:00 daylight time
+        useTimeZone("America/Sao_Paulo");
+        int day = JulianDays.getJulianDay(utc(2015, 10, 18) + 12 * HOUR);
+        assertEquals(utc(2015, 10, 18) + 3 * HOUR, JulianDays.getDayStart(day));
+        // And on February 21st, 2016 from 23:59:59 daylight time back to 23:00 on the 20th
+        day = JulianDays.getJulianDay(utc(2016, 2, 21) + 12 * HOUR);
+        assertEquals(utc(2016, 2, 21) + 3 * HOUR, JulianDays.getDayStart(day));
+        assertEquals(day - 1, JulianDays.getJulianDay(utc(2016, 2, 21) + 2 * HOUR));
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.android.sunshine.app.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the location id cache stays bounded and forgets the least recently used
+ * location first.
+ */
+public class LocationIdCacheTest {
+
+    @Test
+    public void missIsNotCached() {
+        assertEquals(LocationIdCache.NOT_CACHED, new LocationIdCache().get("94043"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LocationIdCache cache = new LocationIdCache();
+        for (int i = 0; i < LocationIdCache.MAX_SIZE; i++) {
+            cache.put("location " + i, i);
+        }
+        // Using the oldest entry makes the second oldest the one to go
+        assertEquals(0, cache.get("location 0"));
+        cache.put("one more", 1000);
+
+        assertEquals(LocationIdCache.MAX_SIZE, cache.size());
+        assertEquals(0, cache.get("location 0"));
+        assertEquals(LocationIdCache.NOT_CACHED, cache.get("location 1"));
+        assertEquals(1000, cache.get("one more"));
+    }
+
+    @Test
+    public void looksSettingUpById() {
+        LocationIdCache cache = new LocationIdCache();
+        cache.put("94043", 1);
+        cache.put("10001", 2);
+        assertEquals("10001", cache.getSetting(2));
+        assertNull(cache.getSetting(3));
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        LocationIdCache cache = new LocationIdCache();
+        cache.put("94043", 1);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(LocationIdCache.NOT_CACHED, cache.get("94043"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the query result cache drops exactly the results a change can have touched,
+ * stays within its size and doesn't keep results a change may have raced with.
+ */
+public class QueryResultCacheTest {
+
+    private static final String[] PROJECTION = {"date", "max", "min"};
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static QueryResultCache.Key forecast(String locationSetting, long startDate) {
+        return new QueryResultCache.Key(WeatherProvider.WEATHER_WITH_LOCATION, locationSetting,
+                startDate, PROJECTION, null);
+    }
+
+    private static QueryResultCache.Key day(String locationSetting, long date) {
+        return new QueryResultCache.Key(WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE,
+                locationSetting, date, PROJECTION, null);
+    }
+
+    private static QueryResultCache.Result result(int rows) {
+        Object[][] values = new Object[rows][];
+        for (int i = 0; i < rows; i++) {
+            values[i] = new Object[]{i * DAY, 75.0, 65.0};
+        }
+        return new QueryResultCache.Result(PROJECTION, values);
+    }
+
+    private static void put(QueryResultCache cache, QueryResultCache.Key key) {
+        cache.put(key, result(14), cache.getGeneration());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        QueryResultCache cache = new QueryResultCache();
+        assertNull(cache.get(forecast("94043", 0)));
+        put(cache, forecast("94043", 0));
+        assertNotNull(cache.get(forecast("94043", 0)));
+        // Another projection is another query
+        assertNull(cache.get(new QueryResultCache.Key(WeatherProvider.WEATHER_WITH_LOCATION,
+                "94043", 0, new String[]{"date"}, null)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void changedDayDropsOnlyResultsThatIncludeIt() {
+        QueryResultCache cache = new QueryResultCache();
+        put(cache, forecast("94043", 0));
+        put(cache, forecast("94043", 5 * DAY));
+        put(cache, day("94043", 3 * DAY));
+        put(cache, day("94043", 4 * DAY));
+        put(cache, forecast("10001", 0));
+
+        cache.invalidate("94043", 3 * DAY);
+
+        assertNull(cache.get(forecast("94043", 0)));
+        assertNull(cache.get(day("94043", 3 * DAY)));
+        assertNotNull(cache.get(forecast("94043", 5 * DAY)));
+        assertNotNull(cache.get(day("94043", 4 * DAY)));
+        assertNotNull(cache.get(forecast("10001", 0)));
+    }
+
+    @Test
+    public void changedLocationDropsAllOfItsResults() {
+        QueryResultCache cache = new QueryResultCache();
+        put(cache, forecast("94043", 5 * DAY));
+        put(cache, day("94043", 3 * DAY));
+        put(cache, forecast("10001", 0));
+
+        cache.invalidate("94043", -1);
+
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(forecast("10001", 0)));
+        assertEquals(result(14).bytes, cache.getSizeBytes());
+    }
+
+    @Test
+    public void resultQueriedBeforeChangeIsNotKept() {
+        QueryResultCache cache = new QueryResultCache();
+        long generation = cache.getGeneration();
+        cache.invalidate("94043", -1);
+        cache.put(forecast("94043", 0), result(14), generation);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void staysWithinMaxBytes() {
+        int bytes = result(14).bytes;
+        QueryResultCache cache = new QueryResultCache(bytes * 4);
+        for (int i = 0; i < 10; i++) {
+            put(cache, forecast("location " + i, 0));
+        }
+        assertEquals(4, cache.size());
+        assertTrue(cache.getSizeBytes() <= bytes * 4);
+        // The oldest went first
+        assertNull(cache.get(forecast("location 5", 0)));
+        assertNotNull(cache.get(forecast("location 9", 0)));
+
+        // A result that would take more than its share isn't kept at all
+        cache.put(forecast("large", 0), result(100), cache.getGeneration());
+        assertNull(cache.get(forecast("large", 0)));
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.android.sunshine.app.sync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the scheduling policy, and simulates a week of syncs under a few user profiles to
+ * compare the number of requests with the old fixed three hour schedule.
+ */
+public class SyncSchedulerTest {
+
+    private static final int FORECAST_ROWS = 14;
+    private static final long WEEK_IN_SECONDS = 7 * SyncScheduler.DAY_IN_SECONDS;
+    private static final int FIXED_SYNCS_PER_WEEK =
+            (int) (WEEK_IN_SECONDS / SyncScheduler.BASE_INTERVAL_SECONDS);
+
+    private static SyncScheduler.Signals activeUser() {
+        SyncScheduler.Signals signals = new SyncScheduler.Signals();
+        signals.secondsSinceOpened = SyncScheduler.HOUR_IN_SECONDS;
+        return signals;
+    }
+
+    @Test
+    public void defaultSignalsKeepTheBaseInterval() {
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS,
+                SyncScheduler.getIntervalSeconds(activeUser()));
+    }
+
+    @Test
+    public void volatileForecastSyncsMoreOften() {
+        SyncScheduler.Signals signals = activeUser();
+        signals.changeRatio = 1.0;
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS / 2,
+                SyncScheduler.getIntervalSeconds(signals));
+    }
+
+    @Test
+    public void stableForecastSyncsLessOften() {
+        SyncScheduler.Signals signals = activeUser();
+        signals.changeRatio = 0;
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS * 2,
+                SyncScheduler.getIntervalSeconds(signals));
+    }
+
+    @Test
+    public void idleUserSyncsLessOften() {
+        SyncScheduler.Signals signals = activeUser();
+        signals.secondsSinceOpened = 2 * SyncScheduler.DAY_IN_SECONDS;
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS * 2,
+                SyncScheduler.getIntervalSeconds(signals));
+
+        signals.secondsSinceOpened = -1;
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS * 4,
+                SyncScheduler.getIntervalSeconds(signals));
+    }
+
+    @Test
+    public void widgetOrWatchCountsAsLooking() {
+        SyncScheduler.Signals signals = activeUser();
+        signals.secondsSinceOpened = 30 * SyncScheduler.DAY_IN_SECONDS;
+        signals.widgetsActive = true;
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS,
+                SyncScheduler.getIntervalSeconds(signals));
+
+        signals.widgetsActive = false;
+        signals.wearableActive = true;
+        assertEquals(SyncScheduler.BASE_INTERVAL_SECONDS,
+                SyncScheduler.getIntervalSeconds(signals));
+    }
+
+    @Test
+    public void chargingSyncsMoreOften() {
+        SyncScheduler.Signals signals = activeUser();
+        signals.charging = true;
+        assertEquals(Math.round(SyncScheduler.BASE_INTERVAL_SECONDS * 0.75),
+                SyncScheduler.getIntervalSeconds(signals));
+    }
+
+    @Test
+    public void intervalStaysWithinBounds() {
+        SyncScheduler.Signals signals = new SyncScheduler.Signals();
+        signals.changeRatio = 0;
+        assertEquals(SyncScheduler.MAX_INTERVAL_SECONDS, SyncScheduler.getIntervalSeconds(signals));
+
+        signals = activeUser();
+        signals.changeRatio = 1;
+        signals.charging = true;
+        assertTrue(SyncScheduler.getIntervalSeconds(signals) >= SyncScheduler.MIN_INTERVAL_SECONDS);
+    }
+
+    @Test
+    public void changeRatioFollowsSyncs() {
+        double ratio = SyncScheduler.DEFAULT_CHANGE_RATIO;
+        for (int i = 0; i < 20; i++) {
+            ratio = SyncScheduler.updateChangeRatio(ratio, 0, FORECAST_ROWS);
+        }
+        assertTrue(ratio < 0.01);
+
+        assertEquals("Syncs that received nothing leave the ratio alone",
+                ratio, SyncScheduler.updateChangeRatio(ratio, 0, 0), 0);
+    }
+
+    /**
+     * Describes a user for the simulation.
+     */
+    private interface Profile {
+        // Rows of the 14 day forecast that change between two syncs this far apart
+        int changedRows(long secondsSinceLastSync);
+
+        void applySignals(SyncScheduler.Signals signals, long now);
+    }
+
+    // Runs the scheduler for a week and returns the number of syncs it made
+    private static int simulateWeek(Profile profile) {
+        double changeRatio = SyncScheduler.DEFAULT_CHANGE_RATIO;
+        long interval = SyncScheduler.BASE_INTERVAL_SECONDS;
+        int syncs = 0;
+        for (long now = 0; now < WEEK_IN_SECONDS; now += interval) {
+            syncs++;
+            changeRatio = SyncScheduler.updateChangeRatio(changeRatio,
+                    Math.min(FORECAST_ROWS, profile.changedRows(interval)), FORECAST_ROWS);
+            SyncScheduler.Signals signals = new SyncScheduler.Signals();
+            signals.changeRatio = changeRatio;
+            profile.applySignals(signals, now);
+            interval = SyncScheduler.getIntervalSeconds(signals);
+        }
+        return syncs;
+    }
+
+    // The numbers behind an assertion on a simulated week, per day
+    private static String describe(Profile profile, int syncs) {
+        return profile + ": " + syncs / 7.0 + " syncs per day against "
+                + FIXED_SYNCS_PER_WEEK / 7.0 + " on the fixed schedule, saving "
+                + (FIXED_SYNCS_PER_WEEK - syncs) / 7.0 + " requests per day";
+    }
+
+    @Test
+    public void simulateDailyUserWithStableForecast() {
+        Profile profile = new Profile() {
+            @Override
+            public int changedRows(long secondsSinceLastSync) {
+                // The forecast mostly moves when a new day rolls in
+                return (int) (secondsSinceLastSync / SyncScheduler.DAY_IN_SECONDS) + 1;
+            }
+
+            @Override
+            public void applySignals(SyncScheduler.Signals signals, long now) {
+                // Opens the app every morning
+                signals.secondsSinceOpened = now % SyncScheduler.DAY_IN_SECONDS;
+            }
+
+            @Override
+            public String toString() {
+                return "Daily user, stable forecast";
+            }
+        };
+        int syncs = simulateWeek(profile);
+        assertTrue(describe(profile, syncs), syncs < FIXED_SYNCS_PER_WEEK);
+    }
+
+    @Test
+    public void simulateAbandonedInstall() {
+        Profile profile = new Profile() {
+            @Override
+            public int changedRows(long secondsSinceLastSync) {
+                return FORECAST_ROWS / 2;
+            }
+
+            @Override
+            public void applySignals(SyncScheduler.Signals signals, long now) {
+                signals.secondsSinceOpened = 30 * SyncScheduler.DAY_IN_SECONDS + now;
+            }
+
+            @Override
+            public String toString() {
+                return "Abandoned install";
+            }
+        };
+        int syncs = simulateWeek(profile);
+        assertTrue("An app nobody opens should sync at most a few times a day; "
+                + describe(profile, syncs), syncs <= 7 * 4);
+    }
+
+    @Test
+    public void simulateWidgetUserWithVolatileForecast() {
+        Profile profile = new Profile() {
+            @Override
+            public int changedRows(long secondsSinceLastSync) {
+                return FORECAST_ROWS;
+            }
+
+            @Override
+            public void applySignals(SyncScheduler.Signals signals, long now) {
+                signals.secondsSinceOpened = 10 * SyncScheduler.DAY_IN_SECONDS;
+                signals.widgetsActive = true;
+            }
+
+            @Override
+            public String toString() {
+                return "Widget user, volatile forecast";
+            }
+        };
+        int syncs = simulateWeek(profile);
+        assertTrue("A forecast that keeps changing on a widget deserves more syncs; "
+                + describe(profile, syncs), syncs > FIXED_SYNCS_PER_WEEK);
+    }
+}